@@ -0,0 +1,108 @@
+package com.example.http2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+
+/** One HTTP/2 frame (RFC 9113 section 4), plus the frame type and flag constants. */
+final class Frame {
+
+    static final int DATA = 0x0;
+    static final int HEADERS = 0x1;
+    static final int PRIORITY = 0x2;
+    static final int RST_STREAM = 0x3;
+    static final int SETTINGS = 0x4;
+    static final int PUSH_PROMISE = 0x5;
+    static final int PING = 0x6;
+    static final int GOAWAY = 0x7;
+    static final int WINDOW_UPDATE = 0x8;
+    static final int CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int HEADER_LENGTH = 9;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16_384;
+
+    final int type;
+    final int flags;
+    final int streamId;
+    final byte[] payload;
+
+    private Frame(int type, int flags, int streamId, byte[] payload) {
+        this.type = type;
+        this.flags = flags;
+        this.streamId = streamId;
+        this.payload = payload;
+    }
+
+    boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    /**
+     * Reads the next frame, or returns null on end of stream between
+     * frames. A read timeout before the first byte surfaces as
+     * {@link SocketTimeoutException} and may be retried; a timeout inside
+     * a frame is fatal, since the framing is lost.
+     */
+    static Frame read(InputStream in, int maxFrameSize) throws IOException {
+        int first = in.read();
+        if (first < 0) return null;
+
+        byte[] header = new byte[HEADER_LENGTH];
+        header[0] = (byte) first;
+        readFully(in, header, 1, HEADER_LENGTH - 1);
+
+        int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+        int type = header[3] & 0xff;
+        int flags = header[4] & 0xff;
+        int streamId = readInt(header, 5) & 0x7fff_ffff;
+        if (length > maxFrameSize) {
+            throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+        }
+
+        byte[] payload = new byte[length];
+        readFully(in, payload, 0, length);
+        return new Frame(type, flags, streamId, payload);
+    }
+
+    static void writeHeader(OutputStream out, int length, int type, int flags, int streamId) throws IOException {
+        byte[] h = {
+                (byte) (length >>> 16), (byte) (length >>> 8), (byte) length,
+                (byte) type, (byte) flags,
+                (byte) (streamId >>> 24), (byte) (streamId >>> 16), (byte) (streamId >>> 8), (byte) streamId
+        };
+        out.write(h);
+    }
+
+    static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        try {
+            while (len > 0) {
+                int n = in.read(b, off, len);
+                if (n < 0) throw new EOFException("Connection closed mid-frame");
+                off += n;
+                len -= n;
+            }
+        } catch (SocketTimeoutException e) {
+            throw new IOException("Timed out mid-frame", e);
+        }
+    }
+}
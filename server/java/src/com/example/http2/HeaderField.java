@@ -0,0 +1,10 @@
+package com.example.http2;
+
+/** One header name/value pair; names are lower case on the wire. */
+public record HeaderField(String name, String value) {
+
+    /** Size counted against HPACK tables and header list limits (RFC 7541 section 4.1). */
+    int size() {
+        return name.length() + value.length() + 32;
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shared HPACK pieces (RFC 7541): the static table, the dynamic table and
+ * the integer and string primitives. Strings are treated as ISO-8859-1
+ * octets, like header bytes on an HTTP/1.1 connection.
+ */
+final class Hpack {
+
+    static final HeaderField[] STATIC_TABLE = {
+            null, // indices start at 1
+            new HeaderField(":authority", ""),
+            new HeaderField(":method", "GET"),
+            new HeaderField(":method", "POST"),
+            new HeaderField(":path", "/"),
+            new HeaderField(":path", "/index.html"),
+            new HeaderField(":scheme", "http"),
+            new HeaderField(":scheme", "https"),
+            new HeaderField(":status", "200"),
+            new HeaderField(":status", "204"),
+            new HeaderField(":status", "206"),
+            new HeaderField(":status", "304"),
+            new HeaderField(":status", "400"),
+            new HeaderField(":status", "404"),
+            new HeaderField(":status", "500"),
+            new HeaderField("accept-charset", ""),
+            new HeaderField("accept-encoding", "gzip, deflate"),
+            new HeaderField("accept-language", ""),
+            new HeaderField("accept-ranges", ""),
+            new HeaderField("accept", ""),
+            new HeaderField("access-control-allow-origin", ""),
+            new HeaderField("age", ""),
+            new HeaderField("allow", ""),
+            new HeaderField("authorization", ""),
+            new HeaderField("cache-control", ""),
+            new HeaderField("content-disposition", ""),
+            new HeaderField("content-encoding", ""),
+            new HeaderField("content-language", ""),
+            new HeaderField("content-length", ""),
+            new HeaderField("content-location", ""),
+            new HeaderField("content-range", ""),
+            new HeaderField("content-type", ""),
+            new HeaderField("cookie", ""),
+            new HeaderField("date", ""),
+            new HeaderField("etag", ""),
+            new HeaderField("expect", ""),
+            new HeaderField("expires", ""),
+            new HeaderField("from", ""),
+            new HeaderField("host", ""),
+            new HeaderField("if-match", ""),
+            new HeaderField("if-modified-since", ""),
+            new HeaderField("if-none-match", ""),
+            new HeaderField("if-range", ""),
+            new HeaderField("if-unmodified-since", ""),
+            new HeaderField("last-modified", ""),
+            new HeaderField("link", ""),
+            new HeaderField("location", ""),
+            new HeaderField("max-forwards", ""),
+            new HeaderField("proxy-authenticate", ""),
+            new HeaderField("proxy-authorization", ""),
+            new HeaderField("range", ""),
+            new HeaderField("referer", ""),
+            new HeaderField("refresh", ""),
+            new HeaderField("retry-after", ""),
+            new HeaderField("server", ""),
+            new HeaderField("set-cookie", ""),
+            new HeaderField("strict-transport-security", ""),
+            new HeaderField("transfer-encoding", ""),
+            new HeaderField("user-agent", ""),
+            new HeaderField("vary", ""),
+            new HeaderField("via", ""),
+            new HeaderField("www-authenticate", ""),
+    };
+
+    static final int STATIC_LENGTH = STATIC_TABLE.length - 1;
+
+    // First static index for each name, and index for each full pair
+    static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    static final Map<HeaderField, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = STATIC_LENGTH; i >= 1; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i].name(), i);
+            STATIC_FIELDS.put(STATIC_TABLE[i], i);
+        }
+    }
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private Hpack() {}
+
+    /* ===== Dynamic table ===== */
+
+    /** FIFO of recently indexed fields, newest at index 0, bounded by octet size. */
+    static final class DynamicTable {
+        private HeaderField[] entries = new HeaderField[16];
+        private int head;
+        private int count;
+        private int size;
+        private int maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        int length() {
+            return count;
+        }
+
+        int maxSize() {
+            return maxSize;
+        }
+
+        /** 0 is the most recently added entry. */
+        HeaderField get(int i) {
+            return i < 0 || i >= count ? null : entries[(head + i) & (entries.length - 1)];
+        }
+
+        void add(HeaderField f) {
+            int s = f.size();
+            if (s > maxSize) {
+                // Too big for the table: adding it empties the table (section 4.4)
+                while (count > 0) evict();
+                return;
+            }
+            while (size + s > maxSize) evict();
+            if (count == entries.length) grow();
+            head = (head - 1) & (entries.length - 1);
+            entries[head] = f;
+            count++;
+            size += s;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            while (size > maxSize) evict();
+        }
+
+        private void evict() {
+            int tail = (head + count - 1) & (entries.length - 1);
+            size -= entries[tail].size();
+            entries[tail] = null;
+            count--;
+        }
+
+        private void grow() {
+            HeaderField[] bigger = new HeaderField[entries.length * 2];
+            for (int i = 0; i < count; i++) {
+                bigger[i] = get(i);
+            }
+            entries = bigger;
+            head = 0;
+        }
+    }
+
+    /* ===== Primitives ===== */
+
+    /** Integer with an N-bit prefix (section 5.1); {@code flags} fills the high bits of the first byte. */
+    static void writeInt(ByteArrayOutputStream out, int prefixBits, int flags, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(flags | value);
+            return;
+        }
+        out.write(flags | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] raw = s.getBytes(StandardCharsets.ISO_8859_1);
+        int huffLength = Huffman.encodedLength(raw);
+        if (huffLength < raw.length) {
+            writeInt(out, 7, 0x80, huffLength);
+            Huffman.encode(raw, out);
+        } else {
+            writeInt(out, 7, 0, raw.length);
+            out.write(raw, 0, raw.length);
+        }
+    }
+
+    /** Read position over a header block. */
+    static final class Cursor {
+        final byte[] buf;
+        int pos;
+
+        Cursor(byte[] buf) {
+            this.buf = buf;
+        }
+
+        boolean hasMore() {
+            return pos < buf.length;
+        }
+
+        int peek() {
+            return buf[pos] & 0xff;
+        }
+
+        int readInt(int prefixBits) throws Http2Exception {
+            int max = (1 << prefixBits) - 1;
+            int value = next() & max;
+            if (value < max) return value;
+
+            int shift = 0;
+            int b;
+            do {
+                b = next();
+                if (shift > 21) {
+                    throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "HPACK integer overflow");
+                }
+                value += (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (value < 0) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "HPACK integer overflow");
+            }
+            return value;
+        }
+
+        String readString() throws Http2Exception {
+            boolean huffman = (peek() & 0x80) != 0;
+            int len = readInt(7);
+            if (len > buf.length - pos) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "HPACK string past end of block");
+            }
+            String s = huffman
+                    ? new String(Huffman.decode(buf, pos, len), StandardCharsets.ISO_8859_1)
+                    : new String(buf, pos, len, StandardCharsets.ISO_8859_1);
+            pos += len;
+            return s;
+        }
+
+        private int next() throws Http2Exception {
+            if (pos >= buf.length) {
+                throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Truncated header block");
+            }
+            return buf[pos++] & 0xff;
+        }
+    }
+}
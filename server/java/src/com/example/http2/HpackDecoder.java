@@ -0,0 +1,78 @@
+package com.example.http2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes header blocks for one connection. Blocks must be decoded in the
+ * order they arrived, since each may change the dynamic table.
+ */
+public final class HpackDecoder {
+
+    private final Hpack.DynamicTable table;
+    private final int maxTableSize;
+    private final int maxHeaderListSize;
+
+    /**
+     * @param maxTableSize      the SETTINGS_HEADER_TABLE_SIZE we advertised
+     * @param maxHeaderListSize decoded size above which the block is refused
+     */
+    public HpackDecoder(int maxTableSize, int maxHeaderListSize) {
+        this.table = new Hpack.DynamicTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+        this.maxHeaderListSize = maxHeaderListSize;
+    }
+
+    public List<HeaderField> decode(byte[] block) throws Http2Exception {
+        List<HeaderField> out = new ArrayList<>();
+        Hpack.Cursor in = new Hpack.Cursor(block);
+        int listSize = 0;
+
+        while (in.hasMore()) {
+            int b = in.peek();
+            HeaderField field;
+            if ((b & 0x80) != 0) {
+                // Indexed field
+                field = lookup(in.readInt(7));
+            } else if ((b & 0xc0) == 0x40) {
+                // Literal with incremental indexing
+                field = readLiteral(in, 6);
+                table.add(field);
+            } else if ((b & 0xe0) == 0x20) {
+                int size = in.readInt(5);
+                if (size > maxTableSize) {
+                    throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Table size update above limit");
+                }
+                table.setMaxSize(size);
+                continue;
+            } else {
+                // Literal without indexing (0000) or never indexed (0001)
+                field = readLiteral(in, 4);
+            }
+
+            listSize += field.size();
+            if (listSize > maxHeaderListSize) {
+                throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Header list too large");
+            }
+            out.add(field);
+        }
+        return out;
+    }
+
+    private HeaderField readLiteral(Hpack.Cursor in, int prefixBits) throws Http2Exception {
+        int nameIndex = in.readInt(prefixBits);
+        String name = nameIndex == 0 ? in.readString() : lookup(nameIndex).name();
+        return new HeaderField(name, in.readString());
+    }
+
+    private HeaderField lookup(int index) throws Http2Exception {
+        if (index >= 1 && index <= Hpack.STATIC_LENGTH) {
+            return Hpack.STATIC_TABLE[index];
+        }
+        HeaderField f = table.get(index - Hpack.STATIC_LENGTH - 1);
+        if (f == null) {
+            throw new Http2Exception(Http2Exception.COMPRESSION_ERROR, "Bad HPACK index " + index);
+        }
+        return f;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodes header blocks for one connection. Callers must write blocks to
+ * the wire in the order they were encoded.
+ *
+ * Fields already in the static or dynamic table become a single index.
+ * Others are sent as literals, indexed for reuse unless they change per
+ * message or are sensitive; string literals use Huffman coding when that
+ * is shorter.
+ */
+public final class HpackEncoder {
+
+    // Values that differ on nearly every message: not worth table space
+    private static final Set<String> NOT_INDEXED = Set.of(
+            ":path", "content-length", "date", "etag", "last-modified",
+            "if-modified-since", "if-none-match", "age", "expires", "location");
+
+    // Never index, so intermediaries don't either (RFC 7541 section 7.1.3)
+    private static final Set<String> SENSITIVE = Set.of(
+            "authorization", "proxy-authorization", "cookie", "set-cookie");
+
+    private final Hpack.DynamicTable table = new Hpack.DynamicTable(Hpack.DEFAULT_TABLE_SIZE);
+    private int pendingSizeUpdate = -1;
+
+    /** Applies the peer's SETTINGS_HEADER_TABLE_SIZE; we never use more than the default. */
+    public void setMaxTableSize(int peerMax) {
+        int size = Math.min(peerMax, Hpack.DEFAULT_TABLE_SIZE);
+        if (size != table.maxSize()) {
+            table.setMaxSize(size);
+            pendingSizeUpdate = size;
+        }
+    }
+
+    public byte[] encode(List<HeaderField> headers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + headers.size() * 16);
+        if (pendingSizeUpdate >= 0) {
+            Hpack.writeInt(out, 5, 0x20, pendingSizeUpdate);
+            pendingSizeUpdate = -1;
+        }
+
+        for (HeaderField f : headers) {
+            Integer full = Hpack.STATIC_FIELDS.get(f);
+            int index = full != null ? full : dynamicIndex(f, true);
+            if (index > 0) {
+                Hpack.writeInt(out, 7, 0x80, index);
+                continue;
+            }
+
+            Integer staticName = Hpack.STATIC_NAMES.get(f.name());
+            int nameIndex = staticName != null ? staticName : dynamicIndex(f, false);
+
+            if (SENSITIVE.contains(f.name())) {
+                Hpack.writeInt(out, 4, 0x10, nameIndex);
+            } else if (NOT_INDEXED.contains(f.name()) || f.size() > table.maxSize() / 2) {
+                Hpack.writeInt(out, 4, 0x00, nameIndex);
+            } else {
+                Hpack.writeInt(out, 6, 0x40, nameIndex);
+                table.add(f);
+            }
+            if (nameIndex == 0) {
+                Hpack.writeString(out, f.name());
+            }
+            Hpack.writeString(out, f.value());
+        }
+        return out.toByteArray();
+    }
+
+    /** Wire index of {@code f} (or just its name) in the dynamic table, 0 if absent. */
+    private int dynamicIndex(HeaderField f, boolean matchValue) {
+        for (int i = 0; i < table.length(); i++) {
+            HeaderField e = table.get(i);
+            if (e.name().equals(f.name()) && (!matchValue || e.value().equals(f.value()))) {
+                return Hpack.STATIC_LENGTH + 1 + i;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,909 @@
+package com.example.http2;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.example.net.BufferPool;
+import com.example.net.PooledOutputStream;
+
+/**
+ * One HTTP/2 connection (RFC 9113) over a blocking socket, for either end.
+ *
+ * A reader thread owns the input side: it decodes frames, keeps the HPACK
+ * decoder in step, answers SETTINGS and PING, and buffers each stream's
+ * message until END_STREAM. Any thread may send; frames are written under
+ * one lock, and header blocks are encoded under that same lock so the
+ * HPACK encoder state matches wire order. DATA honours the peer's
+ * connection and stream windows, blocking the sender until WINDOW_UPDATE
+ * arrives. Stream windows are topped up while a message arrives, since it
+ * is only handed over whole. As a server, the connection window is
+ * credited back only as finished bodies are taken (or their streams
+ * reset), so it caps what a client can leave buffered. A client only gets
+ * data on streams it opened, each capped at the message size, so it
+ * credits the connection window as data arrives.
+ */
+public class Http2Connection implements Closeable {
+
+    public static final byte[] PREFACE =
+            "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /** What the owner of a connection is told. Calls come from the reader thread: hand off, don't block. */
+    public interface Listener {
+        /** The peer finished a message on a stream it opened (server side: a request). */
+        void onMessage(Http2Connection conn, Http2Stream stream);
+
+        default void onClose(Http2Connection conn) {}
+    }
+
+    private static final long SEND_STALL_MILLIS = 30_000;
+    private static final byte[] EMPTY = new byte[0];
+
+    // Frames a probed peer may send before acknowledging our PING
+    private static final int MAX_PROBE_FRAMES = 16;
+
+    // Stream resets a peer may send per second (or MAX_CONCURRENT_STREAMS, if higher)
+    private static final int MIN_RESETS_PER_SECOND = 100;
+    private static final long RESET_WINDOW_NANOS = 1_000_000_000L;
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final boolean server;
+    private final Listener listener;
+    private final Http2Settings local;
+    private final int maxMessageSize;
+
+    private final HpackEncoder encoder = new HpackEncoder();
+    private final HpackDecoder decoder;
+
+    private final Object writeLock = new Object();
+    private final Object flow = new Object();
+    private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<>();
+
+    // Peer settings; windows are guarded by `flow`
+    private volatile int peerMaxFrameSize = Frame.DEFAULT_MAX_FRAME_SIZE;
+    private volatile int peerMaxConcurrentStreams = Integer.MAX_VALUE;
+    private long peerInitialWindow = Http2Settings.DEFAULT_WINDOW_SIZE;
+    private long connSendWindow = Http2Settings.DEFAULT_WINDOW_SIZE;
+    private long connRecvWindow = Http2Settings.DEFAULT_WINDOW_SIZE;
+    private long connConsumed;             // taken bytes not yet credited back
+    private int orphans;                   // peer-reset streams still being served
+    private final int connWindowSize;
+
+    private int lastPeerStreamId;          // reader thread only
+    private long resetWindowStart = System.nanoTime();   // reader thread only
+    private int resetsInWindow;            // reader thread only
+    private int nextLocalStreamId;         // guarded by writeLock
+    private volatile boolean goingAway;
+    private volatile boolean closed;
+
+    private boolean expectPreface;
+    private Http2Stream upgraded;
+
+    /**
+     * @param in             buffered input; for a server, positioned after the
+     *                       client preface unless {@code expectPreface}
+     * @param maxMessageSize largest message body buffered per stream
+     */
+    public Http2Connection(Socket socket, InputStream in, OutputStream out, boolean server,
+                           boolean expectPreface, Http2Settings local, int maxMessageSize,
+                           Listener listener) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, 16 * 1024);
+        this.server = server;
+        this.expectPreface = expectPreface;
+        this.local = local;
+        this.maxMessageSize = maxMessageSize;
+        // One whole message must fit, or a large body could never finish
+        this.connWindowSize = Math.max(Http2Settings.DEFAULT_WINDOW_SIZE,
+                Math.max(local.connectionWindowSize, maxMessageSize));
+        this.listener = listener;
+        this.decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE, local.maxHeaderListSize);
+        this.nextLocalStreamId = server ? 2 : 1;
+    }
+
+    /**
+     * Server side of an h2c {@code Upgrade}: applies the client's
+     * HTTP2-Settings and makes the upgraded HTTP/1.1 request stream 1,
+     * delivered to the listener once the connection starts. Call before
+     * {@link #start}.
+     */
+    public void upgrade(String http2Settings, List<HeaderField> requestHeaders, byte[] body) throws IOException {
+        applySettings(Http2Settings.decodeUpgradeHeader(http2Settings));
+        Http2Stream s = new Http2Stream(this, 1, peerInitialWindow, local.initialWindowSize);
+        s.headers = requestHeaders;
+        s.append(body, 0, body.length, Integer.MAX_VALUE);
+        s.remoteClosed = true;
+        s.received.complete(s);
+        streams.put(1, s);
+        lastPeerStreamId = 1;
+        upgraded = s;
+    }
+
+    /** Sends our preface and SETTINGS, then starts the reader thread. */
+    public void start(String threadName) throws IOException {
+        synchronized (writeLock) {
+            if (!server) out.write(PREFACE);
+            byte[] settings = local.encode(!server);
+            Frame.writeHeader(out, settings.length, Frame.SETTINGS, 0, 0);
+            out.write(settings);
+            // Widen the connection window past the 65535 default too
+            int extra = connWindowSize - Http2Settings.DEFAULT_WINDOW_SIZE;
+            if (extra > 0) {
+                writeWindowUpdate(0, extra);
+                synchronized (flow) {
+                    connRecvWindow += extra;
+                }
+            }
+            out.flush();
+        }
+        Thread reader = new Thread(this::readLoop, threadName);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /* ===== Sending ===== */
+
+    /**
+     * Opens a stream and sends its request headers (client side), or
+     * returns null if the peer's concurrency limit is reached or the
+     * connection is going away. Ids are allocated under the write lock so
+     * they reach the wire in increasing order.
+     */
+    public Http2Stream openStream(List<HeaderField> headers, boolean endStream) throws IOException {
+        Http2Stream s;
+        synchronized (writeLock) {
+            if (!canOpenStream()) return null;
+            int id = nextLocalStreamId;
+            nextLocalStreamId += 2;
+            synchronized (flow) {
+                s = new Http2Stream(this, id, peerInitialWindow, local.initialWindowSize);
+            }
+            streams.put(id, s);
+            writeHeaders(s, headers, endStream);
+        }
+        if (endStream) localClosed(s);
+        return s;
+    }
+
+    public void sendHeaders(Http2Stream s, List<HeaderField> headers, boolean endStream) throws IOException {
+        synchronized (writeLock) {
+            writeHeaders(s, headers, endStream);
+        }
+        if (endStream) localClosed(s);
+    }
+
+    /** Sends DATA, splitting by frame size and waiting for flow-control credit as needed. */
+    public void sendData(Http2Stream s, byte[] b, int off, int len, boolean endStream) throws IOException {
+        if (len == 0 && endStream) {
+            writeFrame(Frame.DATA, Frame.FLAG_END_STREAM, s.id, EMPTY, 0, 0);
+            localClosed(s);
+            return;
+        }
+        while (len > 0) {
+            int n = acquireSendWindow(s, Math.min(len, peerMaxFrameSize));
+            boolean last = endStream && n == len;
+            writeFrame(Frame.DATA, last ? Frame.FLAG_END_STREAM : 0, s.id, b, off, n);
+            off += n;
+            len -= n;
+        }
+        if (endStream) localClosed(s);
+    }
+
+    /** Body writer for {@code s}, buffered in a pooled frame-sized buffer; closing it ends the stream. */
+    public OutputStream dataOutput(Http2Stream s) {
+        OutputStream raw = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                sendData(s, b, off, len, false);
+            }
+
+            @Override
+            public void close() throws IOException {
+                sendData(s, EMPTY, 0, 0, true);
+            }
+        };
+        return new PooledOutputStream(raw, BufferPool.shared());
+    }
+
+    /**
+     * Checks that a prior-knowledge h2c peer is alive on a freshly connected
+     * {@code socket}: sends the preface, an empty SETTINGS and a PING, and
+     * returns true once the PING is acknowledged. GOAWAY, or no ack within
+     * a few frames, is false. The caller sets the read timeout and closes
+     * the socket.
+     */
+    public static boolean ping(Socket socket) throws IOException {
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        InputStream in = socket.getInputStream();
+        out.write(PREFACE);
+        Frame.writeHeader(out, 0, Frame.SETTINGS, 0, 0);
+        Frame.writeHeader(out, 8, Frame.PING, 0, 0);
+        out.write(new byte[8]);
+        out.flush();
+
+        for (int i = 0; i < MAX_PROBE_FRAMES; i++) {
+            Frame f = Frame.read(in, Frame.DEFAULT_MAX_FRAME_SIZE);
+            if (f == null || f.type == Frame.GOAWAY) return false;
+            if (f.type == Frame.SETTINGS && !f.hasFlag(Frame.FLAG_ACK)) {
+                Frame.writeHeader(out, 0, Frame.SETTINGS, Frame.FLAG_ACK, 0);
+                out.flush();
+            } else if (f.type == Frame.PING && f.hasFlag(Frame.FLAG_ACK)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Turns away a peer that just sent its preface, with our SETTINGS and a
+     * GOAWAY refusing every stream. The caller closes the socket.
+     */
+    public static void refuse(Socket socket, String reason) throws IOException {
+        byte[] msg = reason.getBytes(StandardCharsets.UTF_8);
+        byte[] p = new byte[8 + msg.length];
+        Frame.putInt(p, 4, Http2Exception.REFUSED_STREAM);
+        System.arraycopy(msg, 0, p, 8, msg.length);
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        Frame.writeHeader(out, 0, Frame.SETTINGS, 0, 0);
+        Frame.writeHeader(out, p.length, Frame.GOAWAY, 0, 0);
+        out.write(p);
+        out.flush();
+    }
+
+    /**
+     * Tells the connection its owner has finished with {@code s}, a stream
+     * the peer opened. A stream the peer resets keeps counting against our
+     * MAX_CONCURRENT_STREAMS until then, so resetting requests cannot keep
+     * more handlers running than the limit.
+     */
+    public void streamDone(Http2Stream s) {
+        synchronized (flow) {
+            s.served = true;
+            if (s.orphaned) {
+                s.orphaned = false;
+                orphans--;
+            }
+        }
+    }
+
+    /** Abandons {@code s}, telling the peer with RST_STREAM. */
+    public void resetStream(Http2Stream s, int errorCode) {
+        resetStream(s.id, errorCode);
+    }
+
+    /**
+     * Stops accepting new streams (GOAWAY) and closes the connection once
+     * the streams already open have finished.
+     */
+    public void goAway() {
+        if (goingAway) return;
+        goingAway = true;
+        try {
+            writeGoAway(Http2Exception.NO_ERROR, "");
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (streams.isEmpty()) close();
+    }
+
+    public boolean canOpenStream() {
+        return !closed && !goingAway && localStreamCount() < peerMaxConcurrentStreams
+                && nextLocalStreamId > 0;
+    }
+
+    public int activeStreams() {
+        return streams.size();
+    }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+        for (Http2Stream s : streams.values()) {
+            fail(s, Http2Exception.CANCEL);
+        }
+        streams.clear();
+        synchronized (flow) {
+            flow.notifyAll();
+        }
+        listener.onClose(this);
+    }
+
+    private void writeHeaders(Http2Stream s, List<HeaderField> headers, boolean endStream) throws IOException {
+        // Caller holds writeLock
+        if (closed) throw new IOException("Connection closed");
+        byte[] block = encoder.encode(headers);
+        int max = peerMaxFrameSize;
+        int off = 0;
+        boolean first = true;
+        try {
+            do {
+                int n = Math.min(max, block.length - off);
+                boolean lastFragment = off + n == block.length;
+                int flags = lastFragment ? Frame.FLAG_END_HEADERS : 0;
+                if (first && endStream) flags |= Frame.FLAG_END_STREAM;
+                Frame.writeHeader(out, n, first ? Frame.HEADERS : Frame.CONTINUATION, flags, s.id);
+                out.write(block, off, n);
+                off += n;
+                first = false;
+            } while (off < block.length);
+            out.flush();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private int acquireSendWindow(Http2Stream s, int wanted) throws IOException {
+        long deadline = System.currentTimeMillis() + SEND_STALL_MILLIS;
+        synchronized (flow) {
+            while (connSendWindow <= 0 || s.sendWindow <= 0) {
+                if (closed) throw new IOException("Connection closed");
+                if (s.isReset()) throw new IOException("Stream " + s.id + " reset by peer");
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) break;
+                try {
+                    flow.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for flow control");
+                }
+            }
+            if (s.isReset()) throw new IOException("Stream " + s.id + " reset by peer");
+            if (connSendWindow > 0 && s.sendWindow > 0) {
+                int n = (int) Math.min(wanted, Math.min(connSendWindow, s.sendWindow));
+                connSendWindow -= n;
+                s.sendWindow -= n;
+                return n;
+            }
+        }
+        // Stalled: reset outside flow, since writing the frame takes writeLock (always writeLock -> flow)
+        resetStream(s.id, Http2Exception.CANCEL);
+        throw new SocketTimeoutException("Flow-control window stalled on stream " + s.id);
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int off, int len) throws IOException {
+        synchronized (writeLock) {
+            if (closed) throw new IOException("Connection closed");
+            try {
+                Frame.writeHeader(out, len, type, flags, streamId);
+                out.write(payload, off, len);
+                out.flush();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] p = new byte[4];
+        Frame.putInt(p, 0, increment);
+        if (Thread.holdsLock(writeLock)) {
+            Frame.writeHeader(out, 4, Frame.WINDOW_UPDATE, 0, streamId);
+            out.write(p);
+        } else {
+            writeFrame(Frame.WINDOW_UPDATE, 0, streamId, p, 0, 4);
+        }
+    }
+
+    private void writeGoAway(int errorCode, String debug) throws IOException {
+        byte[] msg = debug.getBytes(StandardCharsets.UTF_8);
+        byte[] p = new byte[8 + msg.length];
+        Frame.putInt(p, 0, lastPeerStreamId);
+        Frame.putInt(p, 4, errorCode);
+        System.arraycopy(msg, 0, p, 8, msg.length);
+        writeFrame(Frame.GOAWAY, 0, 0, p, 0, p.length);
+    }
+
+    private void resetStream(int streamId, int errorCode) {
+        byte[] p = new byte[4];
+        Frame.putInt(p, 0, errorCode);
+        try {
+            writeFrame(Frame.RST_STREAM, 0, streamId, p, 0, 4);
+        } catch (IOException ignored) {
+            // Connection is gone; the stream goes with it
+        }
+        Http2Stream s = streams.remove(streamId);
+        if (s != null) fail(s, errorCode);
+        closeIfDrained();
+    }
+
+    /* ===== Stream state ===== */
+
+    private void localClosed(Http2Stream s) {
+        s.localClosed = true;
+        if (s.remoteClosed) {
+            streams.remove(s.id, s);
+            closeIfDrained();
+        }
+    }
+
+    private void remoteClosed(Http2Stream s) {
+        s.remoteClosed = true;
+        s.received.complete(s);
+        if (s.localClosed) {
+            streams.remove(s.id, s);
+            closeIfDrained();
+        }
+        if (isPeerInitiated(s.id)) {
+            listener.onMessage(this, s);
+        }
+    }
+
+    private void fail(Http2Stream s, int errorCode) {
+        s.localClosed = true;
+        s.remoteClosed = true;
+        s.reset.complete(null);
+        s.received.completeExceptionally(new Http2Exception(errorCode, s.id, "Stream " + s.id + " reset"));
+        synchronized (flow) {
+            flow.notifyAll();
+        }
+        // Nobody will take what it buffered
+        consumed(s);
+    }
+
+    /** Credits the connection window with what {@code s} had buffered; called once its body is taken. */
+    void consumed(Http2Stream s) {
+        long n;
+        synchronized (flow) {
+            n = s.unconsumed;
+            s.unconsumed = 0;
+        }
+        if (n == 0 || closed) return;
+        try {
+            creditConnection(n);
+        } catch (IOException ignored) {
+            // Connection is gone; nothing left to credit
+        }
+    }
+
+    private void closeIfDrained() {
+        if (goingAway && streams.isEmpty()) close();
+    }
+
+    // A request the peer reset after sending it whole has a handler that may still be running
+    private void orphan(Http2Stream s) {
+        synchronized (flow) {
+            if (!s.served && !s.orphaned) {
+                s.orphaned = true;
+                orphans++;
+            }
+        }
+    }
+
+    private int orphanCount() {
+        synchronized (flow) {
+            return orphans;
+        }
+    }
+
+    /** Rapid reset (CVE-2023-44487): a peer cancelling streams as fast as it opens them is dropped. */
+    private void countReset() throws Http2Exception {
+        long now = System.nanoTime();
+        if (now - resetWindowStart > RESET_WINDOW_NANOS) {
+            resetWindowStart = now;
+            resetsInWindow = 0;
+        }
+        if (++resetsInWindow > Math.max(MIN_RESETS_PER_SECOND, local.maxConcurrentStreams)) {
+            throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Too many stream resets");
+        }
+    }
+
+    private boolean isPeerInitiated(int streamId) {
+        return (streamId & 1) == (server ? 1 : 0);
+    }
+
+    private int localStreamCount() {
+        int n = 0;
+        for (int id : streams.keySet()) {
+            if (!isPeerInitiated(id)) n++;
+        }
+        return n;
+    }
+
+    /* ===== Reading ===== */
+
+    private void readLoop() {
+        int errorCode = -1;
+        String reason = "";
+        try {
+            if (expectPreface) readPreface();
+            if (upgraded != null) listener.onMessage(this, upgraded);
+
+            boolean first = true;
+            while (!closed) {
+                Frame f;
+                try {
+                    f = Frame.read(in, Frame.DEFAULT_MAX_FRAME_SIZE);
+                } catch (SocketTimeoutException e) {
+                    if (streams.isEmpty()) {
+                        errorCode = Http2Exception.NO_ERROR; // idle
+                        reason = "idle";
+                        break;
+                    }
+                    continue;
+                }
+                if (f == null) break;
+                if (first && f.type != Frame.SETTINGS) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Expected SETTINGS first");
+                }
+                first = false;
+
+                try {
+                    handle(f);
+                } catch (Http2Exception e) {
+                    if (e.streamId() == 0) throw e;
+                    resetStream(e.streamId(), e.errorCode());
+                }
+            }
+        } catch (Http2Exception e) {
+            errorCode = e.errorCode();
+            reason = String.valueOf(e.getMessage());
+        } catch (IOException e) {
+            // Peer went away
+        } catch (RuntimeException e) {
+            errorCode = Http2Exception.INTERNAL_ERROR;
+            reason = e.toString();
+        } finally {
+            if (errorCode >= 0 && !closed) {
+                try {
+                    writeGoAway(errorCode, reason);
+                } catch (IOException ignored) {}
+            }
+            close();
+            // Only this thread reads, so the input (and any pooled buffer
+            // behind it) can go now
+            try {
+                in.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void readPreface() throws IOException {
+        byte[] p = in.readNBytes(PREFACE.length);
+        if (!Arrays.equals(p, PREFACE)) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Bad connection preface");
+        }
+        expectPreface = false;
+    }
+
+    private void handle(Frame f) throws IOException {
+        switch (f.type) {
+            case Frame.DATA -> onData(f);
+            case Frame.HEADERS -> onHeaders(f);
+            case Frame.PRIORITY -> {
+                if (f.payload.length != 5) throw streamError(f, Http2Exception.FRAME_SIZE_ERROR, "PRIORITY size");
+            }
+            case Frame.RST_STREAM -> {
+                if (f.streamId == 0 || f.payload.length != 4) {
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Bad RST_STREAM");
+                }
+                countReset();
+                Http2Stream s = streams.remove(f.streamId);
+                if (s != null) {
+                    if (server && s.remoteClosed) orphan(s);
+                    fail(s, Frame.readInt(f.payload, 0));
+                }
+                closeIfDrained();
+            }
+            case Frame.SETTINGS -> onSettings(f);
+            case Frame.PUSH_PROMISE ->
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Push is disabled");
+            case Frame.PING -> {
+                if (f.streamId != 0 || f.payload.length != 8) {
+                    throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "Bad PING");
+                }
+                if (!f.hasFlag(Frame.FLAG_ACK)) {
+                    writeFrame(Frame.PING, Frame.FLAG_ACK, 0, f.payload, 0, 8);
+                }
+            }
+            case Frame.GOAWAY -> onGoAway(f);
+            case Frame.WINDOW_UPDATE -> onWindowUpdate(f);
+            case Frame.CONTINUATION ->
+                    throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+            default -> {
+                // Unknown frame types are ignored (section 5.5)
+            }
+        }
+    }
+
+    private void onData(Frame f) throws IOException {
+        if (f.streamId == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "DATA on stream 0");
+        int length = f.payload.length;
+
+        synchronized (flow) {
+            connRecvWindow -= length;
+            if (connRecvWindow < 0) {
+                throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window exceeded");
+            }
+        }
+
+        // Bytes that are not buffered are credited straight back
+        Http2Stream s = streams.get(f.streamId);
+        if (s == null || s.remoteClosed) {
+            creditConnection(length);
+            throw streamError(f, Http2Exception.STREAM_CLOSED, "DATA on closed stream");
+        }
+        boolean overrun;
+        synchronized (flow) {
+            s.recvWindow -= length;
+            overrun = s.recvWindow < 0;
+        }
+        if (overrun) {
+            creditConnection(length);
+            throw streamError(f, Http2Exception.FLOW_CONTROL_ERROR, "Stream window exceeded");
+        }
+
+        int off = 0;
+        int end = length;
+        if (f.hasFlag(Frame.FLAG_PADDED)) {
+            if (length == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Bad padding");
+            off = 1;
+            end -= f.payload[0] & 0xff;
+            if (end < off) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Bad padding");
+        }
+
+        int n = end - off;
+        if (!s.append(f.payload, off, n, maxMessageSize)) {
+            creditConnection(length);
+            throw streamError(f, Http2Exception.CANCEL, "Message too large");
+        }
+        synchronized (flow) {
+            // Clients credit on arrival; a stream reset meanwhile has already given back what it held
+            if (!server || s.isReset()) {
+                n = 0;
+            } else {
+                s.unconsumed += n;
+            }
+        }
+        creditConnection(length - n);
+
+        if (f.hasFlag(Frame.FLAG_END_STREAM)) {
+            remoteClosed(s);
+        } else {
+            replenishStream(s);
+            if (server) refuseIfWedged();
+        }
+    }
+
+    /**
+     * Half-received messages can fill the connection window between them,
+     * and none is taken until it is complete. When the window is nearly
+     * gone, the newest of them is refused so the older ones can finish;
+     * nothing has seen it yet, so the peer may retry it.
+     */
+    private void refuseIfWedged() {
+        Http2Stream newest = null;
+        int partial = 0;
+        synchronized (flow) {
+            if (connRecvWindow >= Frame.DEFAULT_MAX_FRAME_SIZE) return;
+            for (Http2Stream s : streams.values()) {
+                if (s.remoteClosed || s.unconsumed == 0) continue;
+                partial++;
+                if (newest == null || s.id > newest.id) newest = s;
+            }
+        }
+        // A lone partial message always fits; the rest is waiting to be taken
+        if (partial > 1) resetStream(newest.id, Http2Exception.REFUSED_STREAM);
+    }
+
+    private void onHeaders(Frame f) throws IOException {
+        if (f.streamId == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "HEADERS on stream 0");
+
+        // Always decode, even for a stream we will refuse, to keep HPACK in sync
+        List<HeaderField> fields = decoder.decode(headerBlock(f));
+        boolean endStream = f.hasFlag(Frame.FLAG_END_STREAM);
+
+        Http2Stream s = streams.get(f.streamId);
+        if (s == null) {
+            if (!isPeerInitiated(f.streamId) || f.streamId <= lastPeerStreamId) {
+                throw streamError(f, Http2Exception.STREAM_CLOSED, "HEADERS on closed stream");
+            }
+            lastPeerStreamId = f.streamId;
+            if (goingAway || streams.size() + orphanCount() >= local.maxConcurrentStreams) {
+                throw streamError(f, Http2Exception.REFUSED_STREAM, "Too many streams");
+            }
+            synchronized (flow) {
+                s = new Http2Stream(this, f.streamId, peerInitialWindow, local.initialWindowSize);
+            }
+            s.headers = fields;
+            streams.put(f.streamId, s);
+        } else if (s.remoteClosed) {
+            throw streamError(f, Http2Exception.STREAM_CLOSED, "HEADERS after END_STREAM");
+        } else if (s.headers == null || isInformational(s.headers)) {
+            s.headers = fields;
+        } else if (!endStream) {
+            // Trailers must end the stream
+            throw streamError(f, Http2Exception.PROTOCOL_ERROR, "Trailers without END_STREAM");
+        }
+
+        if (endStream) remoteClosed(s);
+    }
+
+    private byte[] headerBlock(Frame f) throws IOException {
+        byte[] p = f.payload;
+        int off = 0;
+        int end = p.length;
+        if (f.hasFlag(Frame.FLAG_PADDED)) {
+            if (end == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Bad padding");
+            off = 1;
+            end -= p[0] & 0xff;
+        }
+        if (f.hasFlag(Frame.FLAG_PRIORITY)) off += 5;
+        if (end < off) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Bad HEADERS length");
+
+        if (f.hasFlag(Frame.FLAG_END_HEADERS)) {
+            return off == 0 && end == p.length ? p : Arrays.copyOfRange(p, off, end);
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(p.length * 2);
+        block.write(p, off, end - off);
+        while (true) {
+            Frame c;
+            try {
+                c = Frame.read(in, Frame.DEFAULT_MAX_FRAME_SIZE);
+            } catch (SocketTimeoutException e) {
+                throw new IOException("Timed out inside a header block", e);
+            }
+            if (c == null || c.type != Frame.CONTINUATION || c.streamId != f.streamId) {
+                throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Header block interrupted");
+            }
+            block.write(c.payload, 0, c.payload.length);
+            if (block.size() > 2 * local.maxHeaderListSize) {
+                throw new Http2Exception(Http2Exception.ENHANCE_YOUR_CALM, "Header block too large");
+            }
+            if (c.hasFlag(Frame.FLAG_END_HEADERS)) return block.toByteArray();
+        }
+    }
+
+    private void onSettings(Frame f) throws IOException {
+        if (f.streamId != 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "SETTINGS on a stream");
+        if (f.hasFlag(Frame.FLAG_ACK)) {
+            if (f.payload.length != 0) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS ACK with payload");
+            return;
+        }
+        applySettings(f.payload);
+        writeFrame(Frame.SETTINGS, Frame.FLAG_ACK, 0, EMPTY, 0, 0);
+    }
+
+    private void applySettings(byte[] p) throws Http2Exception {
+        if (p.length % 6 != 0) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS size");
+        for (int off = 0; off < p.length; off += 6) {
+            int id = ((p[off] & 0xff) << 8) | (p[off + 1] & 0xff);
+            int value = Frame.readInt(p, off + 2);
+            switch (id) {
+                case Http2Settings.HEADER_TABLE_SIZE -> {
+                    synchronized (writeLock) {
+                        encoder.setMaxTableSize(value);
+                    }
+                }
+                case Http2Settings.ENABLE_PUSH -> {
+                    if (value != 0 && value != 1) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "ENABLE_PUSH " + value);
+                    }
+                }
+                case Http2Settings.MAX_CONCURRENT_STREAMS -> peerMaxConcurrentStreams = value;
+                case Http2Settings.INITIAL_WINDOW_SIZE -> {
+                    if (value < 0) throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Window too large");
+                    synchronized (flow) {
+                        long delta = value - peerInitialWindow;
+                        peerInitialWindow = value;
+                        for (Http2Stream s : streams.values()) {
+                            s.sendWindow += delta;
+                        }
+                        flow.notifyAll();
+                    }
+                }
+                case Http2Settings.MAX_FRAME_SIZE -> {
+                    if (value < Frame.DEFAULT_MAX_FRAME_SIZE || value > 0xff_ffff) {
+                        throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "MAX_FRAME_SIZE " + value);
+                    }
+                    peerMaxFrameSize = value;
+                }
+                default -> {
+                    // MAX_HEADER_LIST_SIZE is advisory; unknown settings are ignored
+                }
+            }
+        }
+    }
+
+    private void onGoAway(Frame f) {
+        int lastStreamId = f.payload.length >= 4 ? Frame.readInt(f.payload, 0) & 0x7fff_ffff : 0;
+        goingAway = true;
+        // Our streams above the peer's last id were never processed
+        for (Http2Stream s : streams.values()) {
+            if (!isPeerInitiated(s.id) && s.id > lastStreamId) {
+                streams.remove(s.id);
+                fail(s, Http2Exception.REFUSED_STREAM);
+            }
+        }
+        closeIfDrained();
+    }
+
+    private void onWindowUpdate(Frame f) throws Http2Exception {
+        if (f.payload.length != 4) throw new Http2Exception(Http2Exception.FRAME_SIZE_ERROR, "WINDOW_UPDATE size");
+        int increment = Frame.readInt(f.payload, 0) & 0x7fff_ffff;
+
+        synchronized (flow) {
+            if (f.streamId == 0) {
+                if (increment == 0) throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Zero WINDOW_UPDATE");
+                connSendWindow += increment;
+                if (connSendWindow > Http2Settings.MAX_WINDOW_SIZE) {
+                    throw new Http2Exception(Http2Exception.FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+            } else {
+                Http2Stream s = streams.get(f.streamId);
+                if (s == null) return;
+                if (increment == 0) throw streamError(f, Http2Exception.PROTOCOL_ERROR, "Zero WINDOW_UPDATE");
+                s.sendWindow += increment;
+                if (s.sendWindow > Http2Settings.MAX_WINDOW_SIZE) {
+                    throw streamError(f, Http2Exception.FLOW_CONTROL_ERROR, "Stream window overflow");
+                }
+            }
+            flow.notifyAll();
+        }
+    }
+
+    // Top windows back up once half is used, rather than per frame
+    private void creditConnection(long consumed) throws IOException {
+        int increment = 0;
+        synchronized (flow) {
+            connConsumed += consumed;
+            if (connConsumed > 0 && connRecvWindow < connWindowSize / 2) {
+                increment = (int) connConsumed;
+                connRecvWindow += increment;
+                connConsumed = 0;
+            }
+        }
+        if (increment > 0) writeWindowUpdate(0, increment);
+    }
+
+    private void replenishStream(Http2Stream s) throws IOException {
+        int increment = 0;
+        synchronized (flow) {
+            if (s.recvWindow < local.initialWindowSize / 2) {
+                increment = (int) (local.initialWindowSize - s.recvWindow);
+                s.recvWindow += increment;
+            }
+        }
+        if (increment > 0) writeWindowUpdate(s.id, increment);
+    }
+
+    private static boolean isInformational(List<HeaderField> headers) {
+        for (HeaderField h : headers) {
+            if (h.name().equals(":status")) return h.value().startsWith("1");
+        }
+        return false;
+    }
+
+    private static Http2Exception streamError(Frame f, int code, String message) {
+        return new Http2Exception(code, f.streamId, message);
+    }
+}
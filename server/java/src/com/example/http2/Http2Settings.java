@@ -0,0 +1,75 @@
+package com.example.http2;
+
+import java.util.Base64;
+
+/**
+ * The SETTINGS this end advertises. Values we don't set keep the protocol
+ * defaults (table size 4096, frame size 16384).
+ */
+public final class Http2Settings {
+
+    static final int HEADER_TABLE_SIZE = 0x1;
+    static final int ENABLE_PUSH = 0x2;
+    static final int MAX_CONCURRENT_STREAMS = 0x3;
+    static final int INITIAL_WINDOW_SIZE = 0x4;
+    static final int MAX_FRAME_SIZE = 0x5;
+    static final int MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int DEFAULT_WINDOW_SIZE = 65_535;
+    static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    final int maxConcurrentStreams;
+    final int initialWindowSize;
+    final int maxHeaderListSize;
+    // Not a SETTINGS value: sent as a WINDOW_UPDATE on stream 0
+    final int connectionWindowSize;
+
+    public Http2Settings(int maxConcurrentStreams, int initialWindowSize, int maxHeaderListSize,
+                         int connectionWindowSize) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+        this.initialWindowSize = initialWindowSize;
+        this.maxHeaderListSize = maxHeaderListSize;
+        this.connectionWindowSize = connectionWindowSize;
+    }
+
+    /**
+     * Reads {@code <prefix>.maxStreams} (default 100), {@code .window}
+     * (per-stream receive window in bytes, default 1 MB),
+     * {@code .maxHeaderList} (default 64 KB) and {@code .connectionWindow}
+     * (bytes a connection may have buffered and unread, default 4 MB).
+     */
+    public static Http2Settings fromSystemProperties(String prefix) {
+        return new Http2Settings(
+                Integer.getInteger(prefix + ".maxStreams", 100),
+                Integer.getInteger(prefix + ".window", 1 << 20),
+                Integer.getInteger(prefix + ".maxHeaderList", 64 * 1024),
+                Integer.getInteger(prefix + ".connectionWindow", 4 << 20)
+        );
+    }
+
+    /** SETTINGS payload; clients also turn server push off. */
+    byte[] encode(boolean client) {
+        byte[] b = new byte[(client ? 4 : 3) * 6];
+        int off = put(b, 0, MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+        off = put(b, off, INITIAL_WINDOW_SIZE, initialWindowSize);
+        off = put(b, off, MAX_HEADER_LIST_SIZE, maxHeaderListSize);
+        if (client) put(b, off, ENABLE_PUSH, 0);
+        return b;
+    }
+
+    /** Decodes the base64url {@code HTTP2-Settings} header of an h2c upgrade. */
+    static byte[] decodeUpgradeHeader(String value) throws Http2Exception {
+        try {
+            return Base64.getUrlDecoder().decode(value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new Http2Exception(Http2Exception.PROTOCOL_ERROR, "Bad HTTP2-Settings header");
+        }
+    }
+
+    private static int put(byte[] b, int off, int id, int value) {
+        b[off] = (byte) (id >>> 8);
+        b[off + 1] = (byte) id;
+        Frame.putInt(b, off + 2, value);
+        return off + 6;
+    }
+}
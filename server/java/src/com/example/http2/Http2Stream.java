@@ -0,0 +1,100 @@
+package com.example.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * One stream of an {@link Http2Connection}. Incoming messages are buffered
+ * whole: {@link #received()} completes once the peer has sent END_STREAM,
+ * with headers and body available from then on. Taking the finished body
+ * hands its bytes back to the connection's receive window.
+ */
+public final class Http2Stream {
+
+    final int id;
+    private final Http2Connection owner;
+
+    // Guarded by the connection's flow lock
+    long sendWindow;
+    long recvWindow;
+    long unconsumed;   // DATA bytes not yet credited back to the connection window
+    boolean served;    // the owner has called streamDone
+    boolean orphaned;  // reset by the peer while its handler still runs
+
+    volatile List<HeaderField> headers;
+
+    // Guarded by this; the buffer is dropped once the finished body is taken
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private byte[] body;
+
+    volatile boolean localClosed;
+    volatile boolean remoteClosed;
+
+    final CompletableFuture<Http2Stream> received = new CompletableFuture<>();
+    final CompletableFuture<Void> reset = new CompletableFuture<>();
+
+    Http2Stream(Http2Connection owner, int id, long sendWindow, long recvWindow) {
+        this.owner = owner;
+        this.id = id;
+        this.sendWindow = sendWindow;
+        this.recvWindow = recvWindow;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public List<HeaderField> headers() {
+        return headers;
+    }
+
+    /** First value of header {@code name} (lower case), or null. */
+    public String header(String name) {
+        List<HeaderField> h = headers;
+        if (h == null) return null;
+        for (HeaderField f : h) {
+            if (f.name().equals(name)) return f.value();
+        }
+        return null;
+    }
+
+    /**
+     * The message body. Once the peer has finished the message, the first
+     * call takes it and releases its share of the connection window.
+     */
+    public byte[] body() {
+        byte[] b;
+        synchronized (this) {
+            if (body != null) return body;
+            if (!remoteClosed) return buffer.toByteArray();
+            b = body = buffer.toByteArray();
+            buffer = null;
+        }
+        owner.consumed(this);
+        return b;
+    }
+
+    /** Appends received DATA; false, appending nothing, if the body would exceed {@code max}. */
+    synchronized boolean append(byte[] b, int off, int len, int max) {
+        if (buffer == null) return false;
+        if (buffer.size() + len > max) return false;
+        buffer.write(b, off, len);
+        return true;
+    }
+
+    /** Completes when the peer's message is complete; fails if the stream is reset first. */
+    public CompletionStage<Http2Stream> received() {
+        return received;
+    }
+
+    /** Completes if the stream is reset by the peer or the connection goes away. */
+    public CompletionStage<Void> reset() {
+        return reset;
+    }
+
+    boolean isReset() {
+        return reset.isDone();
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A set of accept loops for one port, each on its own thread, so
+ * connection setup is not limited to what a single thread can accept.
+ *
+ * With more than one acceptor every loop gets its own listening socket
+ * bound with {@code SO_REUSEPORT}; the kernel hashes incoming connections
+ * across them, so the acceptors never contend on a shared accept queue.
+ * Where the option is missing they share one listener instead. Accepted
+ * sockets are handed to a {@link Dispatcher} together with the acceptor's
+ * index, which servers use to pick a {@link WorkerGroups} group.
+ *
+ * Each acceptor counts its accepts and keeps the rate over the last
+ * second or so; {@link #summary()} reports both. Uneven counts mean the
+ * kernel's hash is putting more clients on some listeners than others.
+ */
+public final class Acceptors {
+
+    /** Receives accepted connections; runs on the acceptor thread. */
+    @FunctionalInterface
+    public interface Dispatcher {
+        void dispatch(Socket socket, int acceptor) throws IOException;
+    }
+
+    private static final int POLL_MILLIS = 250;
+    private static final int MAX_QUEUED_AT_STOP = 1024;
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String name;
+    private final Acceptor[] acceptors;
+    private ServerSocket[] listeners;
+    private volatile boolean running = true;
+    private volatile long startedAt;
+
+    /** @param count number of accept threads, at least 1 */
+    public Acceptors(String name, int count) {
+        this.name = name;
+        this.acceptors = new Acceptor[Math.max(1, count)];
+        for (int i = 0; i < acceptors.length; i++) {
+            acceptors[i] = new Acceptor(i);
+        }
+    }
+
+    /**
+     * Opens and binds the listeners. {@code SO_REUSEPORT} is requested when
+     * {@code reusePort} is set or there is more than one acceptor; returns
+     * whether it was enabled. A {@code backlog} below 1 means the JDK default.
+     */
+    public boolean bind(int port, int backlog, boolean reusePort) throws IOException {
+        boolean wantReusePort = reusePort || acceptors.length > 1;
+        ServerSocket first = open();
+        boolean reusePortEnabled = false;
+        try {
+            reusePortEnabled = wantReusePort && GracefulShutdown.enableReusePort(first);
+            first.bind(new InetSocketAddress(port), backlog);
+        } catch (IOException e) {
+            closeQuietly(first);
+            throw e;
+        }
+        ServerSocket[] bound = new ServerSocket[reusePortEnabled ? acceptors.length : 1];
+        bound[0] = first;
+        try {
+            for (int i = 1; i < bound.length; i++) {
+                bound[i] = open();
+                GracefulShutdown.enableReusePort(bound[i]);
+                bound[i].bind(new InetSocketAddress(port), backlog);
+            }
+        } catch (IOException e) {
+            for (ServerSocket ss : bound) {
+                if (ss != null) closeQuietly(ss);
+            }
+            throw e;
+        }
+        this.listeners = bound;
+        return reusePortEnabled;
+    }
+
+    public boolean isBound() {
+        return listeners != null;
+    }
+
+    /** Number of accept threads. */
+    public int size() {
+        return acceptors.length;
+    }
+
+    /** True when the acceptors take turns on one listener instead of having their own. */
+    public boolean sharesListener() {
+        return listeners != null && listeners.length < acceptors.length;
+    }
+
+    /**
+     * Runs the accept loops until {@link #stop()}. On the way out each
+     * acceptor takes the connections already queued on its listener
+     * (closing would reset them) before the listener is closed. Accept
+     * errors other than the listener closing go to {@code onError}, as do
+     * errors from {@code dispatcher}, whose socket is then closed.
+     * Returns the number of queued connections taken at stop.
+     */
+    public int run(Dispatcher dispatcher, Consumer<IOException> onError) {
+        startedAt = System.nanoTime();
+        Thread[] threads = new Thread[acceptors.length];
+        for (int i = 0; i < threads.length; i++) {
+            Acceptor a = acceptors[i];
+            ServerSocket ss = listeners[i % listeners.length];
+            threads[i] = new Thread(() -> a.run(ss, dispatcher, onError), name + "-acceptor-" + i);
+            threads[i].start();
+        }
+        boolean interrupted = false;
+        for (Thread t : threads) {
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    stop();
+                }
+            }
+        }
+        close();
+        if (interrupted) Thread.currentThread().interrupt();
+
+        int queued = 0;
+        for (Acceptor a : acceptors) {
+            queued += a.queuedAtStop;
+        }
+        return queued;
+    }
+
+    /** Makes the accept loops finish within one poll interval. */
+    public void stop() {
+        running = false;
+    }
+
+    public void close() {
+        if (listeners == null) return;
+        for (ServerSocket ss : listeners) {
+            closeQuietly(ss);
+        }
+    }
+
+    public long accepted(int acceptor) {
+        return acceptors[acceptor].accepted;
+    }
+
+    /** Accepts per second over roughly the last second. */
+    public double acceptRate(int acceptor) {
+        return acceptors[acceptor].rate(System.nanoTime());
+    }
+
+    /** Accepts per second since {@link #run} started. */
+    public double averageAcceptRate(int acceptor) {
+        long elapsed = System.nanoTime() - startedAt;
+        return startedAt == 0 || elapsed <= 0 ? 0.0 : acceptors[acceptor].accepted * 1e9 / elapsed;
+    }
+
+    public String summary() {
+        StringBuilder sb = new StringBuilder("accept(count@rate/s)=[");
+        long now = System.nanoTime();
+        for (int i = 0; i < acceptors.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(acceptors[i].accepted).append('@')
+                    .append(String.format("%.1f", acceptors[i].rate(now)));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static ServerSocket open() throws IOException {
+        // Opened through a channel so accepted sockets have one too
+        ServerSocket ss = ServerSocketChannel.open().socket();
+        ss.setReuseAddress(true);
+        return ss;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * One accept loop. Its counters are written only by its own thread,
+     * so they need no atomics; readers see them through volatile fields.
+     */
+    private final class Acceptor {
+        private final int index;
+        private volatile long accepted;
+        private volatile long windowStart = System.nanoTime();
+        private volatile long windowCount;
+        private volatile double lastRate;
+        private int queuedAtStop;
+
+        Acceptor(int index) {
+            this.index = index;
+        }
+
+        void run(ServerSocket ss, Dispatcher dispatcher, Consumer<IOException> onError) {
+            try {
+                // Wake up regularly so stop() is seen without closing the listener under accept()
+                ss.setSoTimeout(POLL_MILLIS);
+            } catch (IOException e) {
+                onError.accept(e);
+                return;
+            }
+            while (running) {
+                try {
+                    Socket s = ss.accept();
+                    accepted++;
+                    windowCount++;
+                    dispatch(s, dispatcher, onError);
+                } catch (SocketTimeoutException idle) {
+                    // No connection this round; check running again
+                } catch (IOException e) {
+                    if (ss.isClosed()) break;
+                    onError.accept(e);
+                }
+                roll(System.nanoTime());
+            }
+            try {
+                queuedAtStop = GracefulShutdown.acceptQueued(ss, MAX_QUEUED_AT_STOP, s -> {
+                    accepted++;
+                    dispatch(s, dispatcher, onError);
+                });
+            } catch (IOException ignored) {
+                // Listener already closed; nothing left to take
+            }
+            if (!sharesListener()) closeQuietly(ss);
+        }
+
+        private void dispatch(Socket s, Dispatcher dispatcher, Consumer<IOException> onError) {
+            try {
+                dispatcher.dispatch(s, index);
+            } catch (IOException e) {
+                closeQuietly(s);
+                onError.accept(e);
+            }
+        }
+
+        private void roll(long now) {
+            long elapsed = now - windowStart;
+            if (elapsed >= RATE_WINDOW_NANOS) {
+                lastRate = windowCount * 1e9 / elapsed;
+                windowCount = 0;
+                windowStart = now;
+            }
+        }
+
+        double rate(long now) {
+            long elapsed = now - windowStart;
+            // A dispatch that blocks delays the roll; don't keep reporting the old rate
+            return elapsed >= 2 * RATE_WINDOW_NANOS ? windowCount * 1e9 / elapsed : lastRate;
+        }
+    }
+}
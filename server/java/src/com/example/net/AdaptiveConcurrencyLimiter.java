@@ -0,0 +1,142 @@
+package com.example.net;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive limit on concurrently admitted requests, driven by measured latency.
+ *
+ * GRADIENT compares a short-term latency average with a long-term baseline:
+ * while they agree the limit grows by about sqrt(limit) per sample, and when
+ * recent latency rises (requests are queueing) the limit shrinks by the
+ * same ratio. AIMD adds one per fast sample and multiplies by 0.9 when a
+ * sample exceeds the latency target or work had to be dropped.
+ *
+ * Callers {@link #tryAcquire()} at admission and {@link #release(long)} with
+ * the end-to-end latency once done.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    public enum Algorithm { GRADIENT, AIMD }
+
+    private static final double SMOOTHING = 0.2;
+    private static final double SHORT_ALPHA = 0.5;
+    private static final double LONG_ALPHA = 0.01;
+    private static final double AIMD_BACKOFF = 0.9;
+
+    private final Algorithm algorithm;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile int limit;
+
+    // Guarded by this
+    private double estimatedLimit;
+    private double shortRtt;
+    private double longRtt;
+
+    /**
+     * @param targetMillis latency above which AIMD backs off (ignored by GRADIENT)
+     */
+    public AdaptiveConcurrencyLimiter(Algorithm algorithm, int initialLimit,
+                                      int minLimit, int maxLimit, long targetMillis) {
+        this.algorithm = algorithm;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.estimatedLimit = clamp(initialLimit);
+        this.limit = (int) estimatedLimit;
+    }
+
+    /**
+     * Builds a limiter from {@code <prefix>.algorithm} (gradient|aimd),
+     * {@code .initial}, {@code .min}, {@code .max} and {@code .target} (ms).
+     */
+    public static AdaptiveConcurrencyLimiter fromSystemProperties(String prefix, int defaultMax) {
+        return new AdaptiveConcurrencyLimiter(
+                Algorithm.valueOf(System.getProperty(prefix + ".algorithm", "gradient")
+                        .toUpperCase(Locale.ROOT)),
+                Integer.getInteger(prefix + ".initial", Math.max(1, defaultMax / 2)),
+                Integer.getInteger(prefix + ".min", 1),
+                Integer.getInteger(prefix + ".max", defaultMax),
+                Long.getLong(prefix + ".target", 1_000L)
+        );
+    }
+
+    /** Admits a request if fewer than {@link #getLimit()} are in flight. */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Completes an admitted request and feeds its latency into the limit. */
+    public void release(long latencyNanos) {
+        int current = inFlight.getAndDecrement();
+        sample(latencyNanos, current);
+    }
+
+    /** Completes an admitted request whose work was dropped (e.g. queue full). */
+    public void releaseDropped() {
+        inFlight.decrementAndGet();
+        synchronized (this) {
+            estimatedLimit = clamp(estimatedLimit * AIMD_BACKOFF);
+            limit = (int) estimatedLimit;
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void sample(long rtt, int inFlightAtCompletion) {
+        if (rtt <= 0) return;
+
+        if (algorithm == Algorithm.AIMD) {
+            if (rtt > targetNanos) {
+                estimatedLimit *= AIMD_BACKOFF;
+            } else if (inFlightAtCompletion * 2 >= estimatedLimit) {
+                // Only grow when the limit is actually being used
+                estimatedLimit += 1.0;
+            }
+        } else {
+            shortRtt = shortRtt == 0 ? rtt : shortRtt + SHORT_ALPHA * (rtt - shortRtt);
+            longRtt = longRtt == 0 ? rtt : longRtt + LONG_ALPHA * (rtt - longRtt);
+
+            // Sustained overload pulls the baseline up; let it recover
+            if (longRtt > 2 * shortRtt) {
+                longRtt *= 0.95;
+            }
+
+            double gradient = Math.max(0.5, Math.min(1.0, longRtt / shortRtt));
+            double queue = Math.sqrt(estimatedLimit);
+            double next = estimatedLimit * gradient + queue;
+
+            // Don't grow a limit nobody is using
+            if (inFlightAtCompletion * 2 < estimatedLimit && next > estimatedLimit) {
+                return;
+            }
+            estimatedLimit = estimatedLimit * (1 - SMOOTHING) + next * SMOOTHING;
+        }
+
+        estimatedLimit = clamp(estimatedLimit);
+        limit = (int) estimatedLimit;
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.net;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An in-memory sink built from pooled buffers, for collecting a response
+ * of unknown size without the repeated grow-and-copy of a
+ * {@link java.io.ByteArrayOutputStream}. The only copy is the final
+ * {@link #toByteArray()}. {@link #close()} returns the buffers.
+ */
+public final class BufferChain extends OutputStream {
+
+    private final BufferPool pool;
+    private final List<BufferPool.Lease> chunks = new ArrayList<>();
+    private byte[] current;
+    private int pos;
+    private int size;
+
+    public BufferChain(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) {
+        if (current == null || pos == current.length) nextChunk();
+        current[pos++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (current == null || pos == current.length) nextChunk();
+            int n = Math.min(len, current.length - pos);
+            System.arraycopy(b, off, current, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public byte[] toByteArray() {
+        byte[] out = new byte[size];
+        int copied = 0;
+        for (BufferPool.Lease chunk : chunks) {
+            int n = Math.min(chunk.capacity(), size - copied);
+            System.arraycopy(chunk.array(), 0, out, copied, n);
+            copied += n;
+        }
+        return out;
+    }
+
+    /** Returns every buffer to the pool and empties the chain; it can be written again. */
+    public void release() {
+        for (BufferPool.Lease chunk : chunks) {
+            chunk.close();
+        }
+        chunks.clear();
+        current = null;
+        pos = size = 0;
+    }
+
+    @Override
+    public void close() {
+        release();
+    }
+
+    private void nextChunk() {
+        BufferPool.Lease lease = pool.acquire();
+        chunks.add(lease);
+        current = lease.array();
+        pos = 0;
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.net;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fixed-size I/O buffers recycled across requests instead of allocated per
+ * connection.
+ *
+ * Each thread keeps a few released buffers of its own, so a worker that
+ * acquires and releases on every request never touches shared state; the
+ * rest go back to a bounded global queue that any thread can draw from.
+ * Buffers beyond both limits are dropped for the GC, which caps what the
+ * pool can retain at {@code maxPooled + threads * threadCacheSize}.
+ *
+ * A buffer is handed out as a {@link Lease}; closing the lease returns it.
+ * With leak detection on, every lease remembers where it was acquired and
+ * a lease collected without being closed is logged with that stack trace.
+ * That costs a stack walk per acquire, so it is meant for test runs.
+ */
+public final class BufferPool {
+
+    private static final Logger logger = Logger.getLogger(BufferPool.class.getName());
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private static final class SharedHolder {
+        static final BufferPool INSTANCE = fromSystemProperties();
+    }
+
+    private final String name;
+    private final int bufferSize;
+    private final int threadCacheSize;
+    private final boolean direct;
+    private final boolean leakDetection;
+    private final ArrayBlockingQueue<ByteBuffer> global;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>> local;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong leaked = new AtomicLong();
+    private final AtomicLong outstanding = new AtomicLong();
+
+    /**
+     * @param maxPooled       buffers kept in the global queue
+     * @param threadCacheSize buffers each thread keeps for itself; 0 disables the thread caches
+     * @param direct          allocate off-heap buffers; their leases have no {@link Lease#array()}
+     * @param leakDetection   record acquisition sites and report leases that are never closed
+     */
+    public BufferPool(String name, int bufferSize, int maxPooled, int threadCacheSize,
+                      boolean direct, boolean leakDetection) {
+        if (bufferSize <= 0 || maxPooled <= 0 || threadCacheSize < 0) {
+            throw new IllegalArgumentException("Invalid buffer pool sizes for " + name);
+        }
+        this.name = name;
+        this.bufferSize = bufferSize;
+        this.threadCacheSize = threadCacheSize;
+        this.direct = direct;
+        this.leakDetection = leakDetection;
+        this.global = new ArrayBlockingQueue<>(maxPooled);
+        this.local = ThreadLocal.withInitial(() -> new ArrayDeque<>(threadCacheSize));
+    }
+
+    /**
+     * The heap pool used by the servers' parse, relay and write paths,
+     * configured by {@code buffers.size} (bytes, 16384), {@code buffers.max}
+     * (1024), {@code buffers.threadLocal} (4) and
+     * {@code buffers.leakDetection} (false).
+     */
+    public static BufferPool shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    private static BufferPool fromSystemProperties() {
+        return new BufferPool("shared",
+                Integer.getInteger("buffers.size", 16 * 1024),
+                Integer.getInteger("buffers.max", 1024),
+                Integer.getInteger("buffers.threadLocal", 4),
+                false,
+                Boolean.getBoolean("buffers.leakDetection"));
+    }
+
+    /** Takes a cleared buffer from the pool, allocating one if none is free. */
+    public Lease acquire() {
+        ByteBuffer buf = threadCacheSize > 0 ? local.get().pollFirst() : null;
+        if (buf == null) buf = global.poll();
+        if (buf == null) {
+            buf = direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+            allocated.incrementAndGet();
+        }
+        acquired.incrementAndGet();
+        outstanding.incrementAndGet();
+        return new Lease(buf);
+    }
+
+    private void release(ByteBuffer buf) {
+        released.incrementAndGet();
+        outstanding.decrementAndGet();
+        buf.clear();
+        if (threadCacheSize > 0) {
+            ArrayDeque<ByteBuffer> cache = local.get();
+            if (cache.size() < threadCacheSize) {
+                cache.addFirst(buf);
+                return;
+            }
+        }
+        if (!global.offer(buf)) {
+            discarded.incrementAndGet();
+        }
+    }
+
+    public int bufferSize() { return bufferSize; }
+    public long acquired() { return acquired.get(); }
+    public long allocated() { return allocated.get(); }
+    public long released() { return released.get(); }
+    public long discarded() { return discarded.get(); }
+    public long leaked() { return leaked.get(); }
+    public long outstanding() { return outstanding.get(); }
+    public int pooled() { return global.size(); }
+
+    /** Share of acquires served from the pool rather than a fresh allocation, 0..1. */
+    public double hitRate() {
+        long n = acquired.get();
+        return n == 0 ? 0.0 : 1.0 - (double) allocated.get() / n;
+    }
+
+    public String summary() {
+        return "buffers[" + name + "](inUse/pooled/allocated)=" + outstanding.get() + "/" + global.size()
+                + "/" + allocated.get()
+                + " hit=" + String.format("%.1f%%", 100 * hitRate())
+                + " discarded=" + discarded.get()
+                + (leakDetection ? " leaked=" + leaked.get() : "");
+    }
+
+    /**
+     * One buffer on loan from the pool. Closing it more than once is
+     * harmless; using the buffer after closing it is not, since another
+     * request may already own it.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private ByteBuffer buf;
+        private final LeakTracker tracker;
+        private final Cleaner.Cleanable cleanable;
+
+        private Lease(ByteBuffer buf) {
+            this.buf = buf;
+            if (leakDetection) {
+                this.tracker = new LeakTracker(BufferPool.this, new Throwable("Buffer acquired here"));
+                this.cleanable = CLEANER.register(this, tracker);
+            } else {
+                this.tracker = null;
+                this.cleanable = null;
+            }
+        }
+
+        /** The pooled buffer, cleared when acquired. */
+        public ByteBuffer buffer() {
+            if (buf == null) throw new IllegalStateException("Buffer already released");
+            return buf;
+        }
+
+        /** The backing array of a heap buffer. */
+        public byte[] array() {
+            if (direct) throw new UnsupportedOperationException("Direct buffers have no array");
+            return buffer().array();
+        }
+
+        public int capacity() {
+            return bufferSize;
+        }
+
+        @Override
+        public void close() {
+            ByteBuffer b = buf;
+            if (b == null) return;
+            buf = null;
+            if (tracker != null) {
+                tracker.released = true;
+                cleanable.clean();
+            }
+            release(b);
+        }
+    }
+
+    /** Runs when a tracked lease is collected or closed; must not reference the lease. */
+    private static final class LeakTracker implements Runnable {
+
+        private final BufferPool pool;
+        private final Throwable site;
+        volatile boolean released;
+
+        LeakTracker(BufferPool pool, Throwable site) {
+            this.pool = pool;
+            this.site = site;
+        }
+
+        @Override
+        public void run() {
+            if (released) return;
+            // The buffer may still be referenced elsewhere, so it is not returned
+            pool.leaked.incrementAndGet();
+            pool.outstanding.decrementAndGet();
+            logger.log(Level.WARNING, "Buffer from pool '" + pool.name + "' was never released", site);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * A properties file of tuning settings that is re-read whenever it
+ * changes, so thread pools, caches, rate limits and timeouts can be
+ * adjusted under live load without a restart.
+ *
+ * Keys are the same names as the matching system properties. A key
+ * missing from the file falls back to the system property, then to the
+ * built-in default, so removing a line undoes it. Each component registers
+ * with {@link #onChange}; it is applied right away and again after every
+ * reload. A file that cannot be read or parsed is ignored and the previous
+ * settings stay in force, as do the settings of a component whose listener
+ * rejects a value.
+ */
+public final class ConfigFile implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(ConfigFile.class.getName());
+
+    // Editors save in several steps (truncate, write, rename); let them finish
+    private static final long SETTLE_MILLIS = 100;
+
+    private final Path file;
+    private final List<Consumer<Properties>> listeners = new CopyOnWriteArrayList<>();
+    private volatile Properties current;
+    private WatchService watcher;
+
+    public ConfigFile(Path file) throws IOException {
+        this.file = file.toAbsolutePath();
+        this.current = load();
+    }
+
+    /** The file named by system property {@code name}, loaded; null if the property is unset. */
+    public static ConfigFile fromSystemProperty(String name) throws IOException {
+        String path = System.getProperty(name);
+        return path == null || path.isBlank() ? null : new ConfigFile(Paths.get(path));
+    }
+
+    public Path path() {
+        return file;
+    }
+
+    public Properties current() {
+        return current;
+    }
+
+    /** Applies the current settings to {@code listener} now and after every reload. */
+    public void onChange(Consumer<Properties> listener) {
+        listeners.add(listener);
+        listener.accept(current);
+    }
+
+    /** Starts watching the file on a daemon thread. */
+    public synchronized void watch() throws IOException {
+        if (watcher != null) return;
+        watcher = file.getFileSystem().newWatchService();
+        file.getParent().register(watcher,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread t = new Thread(this::watchLoop, "config-watch");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Re-reads the file and notifies the listeners if anything changed. */
+    public void reload() {
+        Properties next;
+        try {
+            next = load();
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warning("Cannot reload " + file + ", keeping previous settings: " + e);
+            return;
+        }
+        if (next.equals(current)) return;
+        current = next;
+        logger.info("Reloaded " + file);
+        for (Consumer<Properties> listener : listeners) {
+            try {
+                listener.accept(next);
+            } catch (RuntimeException e) {
+                logger.warning("Rejected settings from " + file + ": " + e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) watcher.close();
+    }
+
+    public static int getInt(Properties p, String key, int defaultValue) {
+        String v = lookup(p, key);
+        return v == null ? defaultValue : Integer.parseInt(v);
+    }
+
+    public static long getLong(Properties p, String key, long defaultValue) {
+        String v = lookup(p, key);
+        return v == null ? defaultValue : Long.parseLong(v);
+    }
+
+    public static double getDouble(Properties p, String key, double defaultValue) {
+        String v = lookup(p, key);
+        return v == null ? defaultValue : Double.parseDouble(v);
+    }
+
+    private static String lookup(Properties p, String key) {
+        String v = p.getProperty(key, System.getProperty(key));
+        return v == null || v.isBlank() ? null : v.trim();
+    }
+
+    private Properties load() throws IOException {
+        Properties p = new Properties();
+        try (Reader r = Files.newBufferedReader(file)) {
+            p.load(r);
+        }
+        return p;
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean ours = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object changed = event.context();
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || (changed instanceof Path p && file.getFileName().equals(p))) {
+                        ours = true;
+                    }
+                }
+                key.reset();
+                if (!ours) continue;
+                Thread.sleep(SETTLE_MILLIS);
+                // Fold the rest of this save into one reload
+                WatchKey more;
+                while ((more = watcher.poll()) != null) {
+                    more.pollEvents();
+                    more.reset();
+                }
+                reload();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // close() was called
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.net;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Helpers for taking a listener out of service without dropping
+ * connections: share the port with the next process, accept what the
+ * kernel already queued before closing, then wait for in-flight work.
+ *
+ * A rolling restart starts the new process with {@code SO_REUSEPORT} on
+ * the same port, then stops the old one; the kernel spreads new
+ * connections over both listeners until the old one closes.
+ */
+public final class GracefulShutdown {
+
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private GracefulShutdown() {}
+
+    /**
+     * Sets {@code SO_REUSEPORT} (before bind) so another process can listen
+     * on the same port. Returns false where the platform does not offer it.
+     */
+    public static boolean enableReusePort(ServerSocket ss) throws IOException {
+        if (!ss.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) return false;
+        ss.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        return true;
+    }
+
+    /**
+     * Accepts up to {@code limit} connections that are already waiting on
+     * {@code ss} and hands them to {@code handler}. Closing a listener
+     * resets everything still in its accept queue, so a stopping server
+     * calls this right before closing it. Returns the number accepted.
+     */
+    public static int acceptQueued(ServerSocket ss, int limit, Consumer<Socket> handler) throws IOException {
+        ss.setSoTimeout(1);
+        int n = 0;
+        while (n < limit) {
+            Socket s;
+            try {
+                s = ss.accept();
+            } catch (SocketTimeoutException e) {
+                break; // queue is empty
+            }
+            n++;
+            handler.accept(s);
+        }
+        return n;
+    }
+
+    /**
+     * Waits until {@code inFlight} reaches zero or {@code timeoutMillis}
+     * passes, passing a progress line to {@code progress} about once a
+     * second. Returns true if everything finished in time.
+     */
+    public static boolean awaitDrained(IntSupplier inFlight, long timeoutMillis, Consumer<String> progress) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long nextReport = start + REPORT_INTERVAL_NANOS;
+        int n;
+        while ((n = inFlight.getAsInt()) > 0) {
+            long now = System.nanoTime();
+            if (now >= deadline) {
+                progress.accept("Drain deadline of " + timeoutMillis + " ms reached with " + n + " still in flight");
+                return false;
+            }
+            if (now >= nextReport) {
+                progress.accept("Draining: " + n + " in flight, "
+                        + TimeUnit.NANOSECONDS.toSeconds(deadline - now) + " s left");
+                nextReport += REPORT_INTERVAL_NANOS;
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        progress.accept("Drained in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return true;
+    }
+}
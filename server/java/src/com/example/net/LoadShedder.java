@@ -0,0 +1,175 @@
+package com.example.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cheap overload response written directly from the accept loop.
+ *
+ * The response is pre-encoded once so shedding a connection costs one small
+ * write, without parsing the request or touching a worker. The request is
+ * never read, though, and closing a socket with unread input makes the
+ * kernel answer with RST, which can destroy the 503 before the client has
+ * read it. So the write side is shut down instead (a FIN after the
+ * response) and the socket handed to one lingering thread, which discards
+ * whatever the client still sends and closes it at end of stream, after a
+ * second, or after 64 KB.
+ */
+public final class LoadShedder {
+
+    private static final byte[] SERVICE_UNAVAILABLE = (
+            "HTTP/1.1 503 Service Unavailable\r\n" +
+            "Retry-After: 1\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "Content-Length: 12\r\n" +
+            "Connection: close\r\n\r\n" +
+            "Overloaded\r\n"
+    ).getBytes(StandardCharsets.US_ASCII);
+
+    private static final long LINGER_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long SWEEP_MILLIS = 100;
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+    // Lingering sockets hold descriptors; past this many, shed ones are just closed
+    private static final int MAX_LINGERING = 1024;
+
+    private LoadShedder() {}
+
+    /**
+     * Best-effort 503 with Retry-After, then a lingering close. TLS clients
+     * are just closed: answering them would mean paying for a handshake.
+     */
+    public static void reject(Socket socket) {
+        if (socket instanceof TlsSocket) {
+            close(socket);
+            return;
+        }
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(SERVICE_UNAVAILABLE);
+            out.flush();
+            socket.shutdownOutput();
+        } catch (IOException e) {
+            // client already gone; nothing to do
+            close(socket);
+            return;
+        }
+        Lingerer lingerer = Lingerer.INSTANCE;
+        SocketChannel channel = socket.getChannel();
+        if (lingerer == null || channel == null || !lingerer.offer(channel)) {
+            close(socket);
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    /** Drains shed sockets until the client is done, on one selector thread started on first use. */
+    private static final class Lingerer {
+
+        static final Lingerer INSTANCE = start();
+
+        private static final class Drain {
+            final long deadline = System.nanoTime() + LINGER_NANOS;
+            int bytes;
+        }
+
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger lingering = new AtomicInteger();
+        private final ByteBuffer discard = ByteBuffer.allocate(4096);
+
+        private Lingerer(Selector selector) {
+            this.selector = selector;
+        }
+
+        private static Lingerer start() {
+            try {
+                Lingerer l = new Lingerer(Selector.open());
+                Thread t = new Thread(l::run, "load-shedder-linger");
+                t.setDaemon(true);
+                t.start();
+                return l;
+            } catch (IOException e) {
+                System.err.println("[load-shedder] lingering close unavailable: " + e);
+                return null;
+            }
+        }
+
+        boolean offer(SocketChannel channel) {
+            if (lingering.incrementAndGet() > MAX_LINGERING) {
+                lingering.decrementAndGet();
+                return false;
+            }
+            pending.add(channel);
+            selector.wakeup();
+            return true;
+        }
+
+        private void run() {
+            while (true) {
+                try {
+                    selector.select(SWEEP_MILLIS);
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        register(channel);
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        if (key.isValid() && key.isReadable()) drain(key);
+                    }
+                    selector.selectedKeys().clear();
+                    long now = System.nanoTime();
+                    for (SelectionKey key : selector.keys()) {
+                        if (key.isValid() && now - ((Drain) key.attachment()).deadline >= 0) {
+                            finish(key.channel());
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("[load-shedder] linger loop: " + e);
+                }
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new Drain());
+            } catch (IOException | RuntimeException e) {
+                finish(channel);
+            }
+        }
+
+        private void drain(SelectionKey key) {
+            Drain d = (Drain) key.attachment();
+            int n;
+            try {
+                discard.clear();
+                n = ((SocketChannel) key.channel()).read(discard);
+            } catch (IOException e) {
+                n = -1;
+            }
+            if (n < 0 || (d.bytes += n) > MAX_DRAIN_BYTES) finish(key.channel());
+        }
+
+        // Closing also cancels the key
+        private void finish(Channel channel) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+            lingering.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link java.io.BufferedInputStream} replacement whose buffer is leased
+ * from a {@link BufferPool}. Single-threaded, like the socket reads it
+ * wraps. {@link #release()} gives the buffer back without closing the
+ * underlying stream; anything still buffered is lost.
+ */
+public final class PooledInputStream extends InputStream {
+
+    private final InputStream in;
+    private BufferPool.Lease lease;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+
+    public PooledInputStream(InputStream in, BufferPool pool) {
+        this.in = in;
+        this.lease = pool.acquire();
+        this.buf = lease.array();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (pos == limit) {
+            ensureOpen();
+            // Large reads skip the copy through our buffer
+            if (len >= buf.length) return in.read(b, off, len);
+            if (!fill()) return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (limit - pos) + in.available();
+    }
+
+    /** Returns the buffer to the pool; later reads fail. */
+    public void release() {
+        if (lease != null) {
+            lease.close();
+            lease = null;
+            buf = null;
+            pos = limit = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        release();
+        in.close();
+    }
+
+    private boolean fill() throws IOException {
+        ensureOpen();
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buf == null) throw new IOException("Stream buffer released");
+    }
+}
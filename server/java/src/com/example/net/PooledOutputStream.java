@@ -0,0 +1,83 @@
+package com.example.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link java.io.BufferedOutputStream} replacement whose buffer is
+ * leased from a {@link BufferPool}. {@link #release()} gives the buffer
+ * back without flushing or closing the underlying stream, for connections
+ * that are being torn down anyway.
+ */
+public final class PooledOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private BufferPool.Lease lease;
+    private byte[] buf;
+    private int count;
+
+    public PooledOutputStream(OutputStream out, BufferPool pool) {
+        this.out = out;
+        this.lease = pool.acquire();
+        this.buf = lease.array();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buf.length) flushBuffer();
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len >= buf.length) {
+            // Large writes go straight through rather than being chopped up
+            flushBuffer();
+            out.write(b, off, len);
+            return;
+        }
+        if (len > buf.length - count) flushBuffer();
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer();
+        out.flush();
+    }
+
+    /** Returns the buffer to the pool, dropping anything not yet flushed. */
+    public void release() {
+        if (lease != null) {
+            lease.close();
+            lease = null;
+            buf = null;
+            count = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (buf != null) flush();
+        } finally {
+            release();
+            out.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buf == null) throw new IOException("Stream buffer released");
+    }
+}
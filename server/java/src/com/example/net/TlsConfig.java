@@ -0,0 +1,122 @@
+package com.example.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * Server-side TLS settings for a listener: key material, protocol versions,
+ * cipher suites, ALPN and the session cache used for resumption.
+ *
+ * Connections get their own {@link SSLEngine}, so the same configuration
+ * serves the blocking {@link TlsSocket} wrapper and any NIO code that
+ * drives an engine itself.
+ */
+public final class TlsConfig {
+
+    private final SSLContext context;
+    private final String[] protocols;
+    private final String[] cipherSuites;
+    private final String[] applicationProtocols;
+    private final TlsMetrics metrics = new TlsMetrics();
+
+    /**
+     * @param protocols            enabled versions, or null for the JDK defaults
+     * @param cipherSuites         enabled suites in preference order, or null for the JDK defaults
+     * @param applicationProtocols ALPN ids in preference order; empty disables ALPN
+     */
+    public TlsConfig(SSLContext context, String[] protocols, String[] cipherSuites,
+                     String[] applicationProtocols) {
+        this.context = context;
+        this.protocols = protocols;
+        this.cipherSuites = cipherSuites;
+        this.applicationProtocols = applicationProtocols;
+        newEngine(); // unknown protocol or suite names fail here, not per connection
+    }
+
+    /**
+     * Builds a configuration from {@code <prefix>.*} system properties, or
+     * returns null if {@code <prefix>.keystore} is not set:
+     * {@code keystore}, {@code password}, {@code keystoreType} (PKCS12),
+     * {@code protocols} (TLSv1.3,TLSv1.2), {@code ciphers} (JDK defaults),
+     * {@code alpn}, {@code sessionCacheSize} (20000), {@code sessionTimeout}
+     * (seconds, 86400) and {@code sessionTickets} (true; stateless TLS 1.3
+     * tickets instead of server-side cache entries, JVM-wide).
+     */
+    public static TlsConfig fromSystemProperties(String prefix, String defaultAlpn) throws IOException {
+        String keystore = System.getProperty(prefix + ".keystore");
+        if (keystore == null) return null;
+
+        // Read by the JDK when its TLS configuration first loads
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension",
+                System.getProperty(prefix + ".sessionTickets", "true"));
+
+        char[] password = System.getProperty(prefix + ".password", "changeit").toCharArray();
+        try (InputStream in = Files.newInputStream(Paths.get(keystore))) {
+            KeyStore ks = KeyStore.getInstance(System.getProperty(prefix + ".keystoreType", "PKCS12"));
+            ks.load(in, password);
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(ks, password);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(kmf.getKeyManagers(), null, null);
+            SSLSessionContext sessions = context.getServerSessionContext();
+            sessions.setSessionCacheSize(Integer.getInteger(prefix + ".sessionCacheSize", 20_000));
+            sessions.setSessionTimeout(Integer.getInteger(prefix + ".sessionTimeout", 86_400));
+
+            return new TlsConfig(context,
+                    list(System.getProperty(prefix + ".protocols", "TLSv1.3,TLSv1.2")),
+                    list(System.getProperty(prefix + ".ciphers")),
+                    list(System.getProperty(prefix + ".alpn", defaultAlpn)));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IOException("Cannot set up TLS from " + keystore + ": " + e.getMessage(), e);
+        }
+    }
+
+    /** A server-mode engine for one connection. */
+    public SSLEngine newEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters params = engine.getSSLParameters();
+        if (protocols != null) params.setProtocols(protocols);
+        if (cipherSuites != null) {
+            params.setCipherSuites(cipherSuites);
+            params.setUseCipherSuitesOrder(true);
+        }
+        if (applicationProtocols != null && applicationProtocols.length > 0) {
+            params.setApplicationProtocols(applicationProtocols);
+        }
+        engine.setSSLParameters(params);
+        return engine;
+    }
+
+    /** Wraps an accepted socket; the handshake runs on first use. */
+    public TlsSocket wrap(Socket socket) throws SocketException {
+        return new TlsSocket(socket, newEngine(), metrics);
+    }
+
+    public TlsMetrics metrics() {
+        return metrics;
+    }
+
+    public String describe() {
+        return "TLS " + Arrays.toString(protocols) + " alpn=" + Arrays.toString(applicationProtocols);
+    }
+
+    private static String[] list(String value) {
+        if (value == null || value.isBlank()) return null;
+        return Arrays.stream(value.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toArray(String[]::new);
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.net;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handshake counters for one TLS listener. A high resumption rate means
+ * clients are skipping the full key exchange, which is where handshake
+ * CPU goes.
+ */
+public final class TlsMetrics {
+
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong handshakeNanos = new AtomicLong();
+
+    void recordHandshake(long nanos, boolean wasResumed) {
+        handshakes.incrementAndGet();
+        handshakeNanos.addAndGet(nanos);
+        if (wasResumed) resumed.incrementAndGet();
+    }
+
+    void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    public long handshakes() { return handshakes.get(); }
+    public long resumed() { return resumed.get(); }
+    public long failures() { return failures.get(); }
+
+    /** Share of completed handshakes that resumed a session, 0..1. */
+    public double resumptionRate() {
+        long n = handshakes.get();
+        return n == 0 ? 0.0 : (double) resumed.get() / n;
+    }
+
+    public long averageHandshakeMicros() {
+        long n = handshakes.get();
+        return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(handshakeNanos.get() / n);
+    }
+
+    public String summary() {
+        return "tls(handshakes/resumed/failed)=" + handshakes.get() + "/" + resumed.get() + "/" + failures.get()
+                + " resumption=" + String.format("%.1f%%", 100 * resumptionRate())
+                + " avgHandshake=" + averageHandshakeMicros() + "us";
+    }
+}
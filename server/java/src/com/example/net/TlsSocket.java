@@ -0,0 +1,363 @@
+package com.example.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+/**
+ * An accepted socket with TLS layered on by an {@link SSLEngine}, usable
+ * wherever the servers take a plain {@link Socket}.
+ *
+ * Records are read and written through the underlying socket's streams,
+ * so its read timeout still applies. The handshake runs on first I/O (on
+ * the worker, not the acceptor) or on {@link #startHandshake()}.
+ * {@link #getChannel()} is null: with TLS the servers fall back to stream
+ * writes instead of {@code transferTo}, and skip disconnect watching.
+ */
+public final class TlsSocket extends Socket {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final Socket raw;
+    private final SSLEngine engine;
+    private final TlsMetrics metrics;
+
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // All in read mode: position..limit is pending data
+    private ByteBuffer netIn;     // guarded by readLock
+    private ByteBuffer appIn;     // guarded by readLock
+    private ByteBuffer netOut;    // guarded by writeLock
+
+    private volatile boolean handshakeDone;
+    private boolean inboundDone;  // guarded by readLock
+    private volatile boolean closed;
+
+    private final InputStream in = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return readApplicationData(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return readLock.tryLock() ? availableLocked() : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            TlsSocket.this.close();
+        }
+    };
+
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writeApplicationData(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            TlsSocket.this.close();
+        }
+    };
+
+    TlsSocket(Socket raw, SSLEngine engine, TlsMetrics metrics) throws SocketException {
+        super((SocketImpl) null);
+        this.raw = raw;
+        this.engine = engine;
+        this.metrics = metrics;
+        int packet = engine.getSession().getPacketBufferSize();
+        this.netIn = ByteBuffer.allocate(packet).flip();
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize()).flip();
+        this.netOut = ByteBuffer.allocate(packet);
+    }
+
+    /** Runs the handshake if it has not run yet. */
+    public void startHandshake() throws IOException {
+        if (handshakeDone) return;
+        readLock.lock();
+        writeLock.lock();
+        try {
+            if (handshakeDone) return;
+            long startNanos = System.nanoTime();
+            long startMillis = System.currentTimeMillis();
+            try {
+                engine.beginHandshake();
+                HandshakeStatus hs = engine.getHandshakeStatus();
+                while (hs != HandshakeStatus.FINISHED && hs != HandshakeStatus.NOT_HANDSHAKING) {
+                    switch (hs) {
+                        case NEED_WRAP -> hs = wrap(EMPTY).getHandshakeStatus();
+                        case NEED_TASK -> hs = runTasks();
+                        default -> {
+                            if (inboundDone) throw new EOFException("Connection closed during TLS handshake");
+                            hs = unwrap();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                metrics.recordFailure();
+                throw e;
+            }
+            handshakeDone = true;
+            // A resumed session keeps the creation time of the one it resumes
+            boolean resumed = engine.getSession().getCreationTime() < startMillis;
+            metrics.recordHandshake(System.nanoTime() - startNanos, resumed);
+        } finally {
+            writeLock.unlock();
+            readLock.unlock();
+        }
+    }
+
+    /** Protocol agreed by ALPN, "" if none, or null before the handshake. */
+    public String getApplicationProtocol() {
+        return engine.getApplicationProtocol();
+    }
+
+    public SSLEngine getEngine() {
+        return engine;
+    }
+
+    /* ===== Records ===== */
+
+    private int readApplicationData(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        startHandshake();
+        readLock.lock();
+        try {
+            while (!appIn.hasRemaining()) {
+                if (inboundDone) return -1;
+                HandshakeStatus hs = unwrap();
+                // Post-handshake messages (TLS 1.3 key updates, renegotiation)
+                while (hs == HandshakeStatus.NEED_TASK || hs == HandshakeStatus.NEED_WRAP) {
+                    if (hs == HandshakeStatus.NEED_TASK) {
+                        hs = runTasks();
+                    } else {
+                        writeLock.lock();
+                        try {
+                            hs = wrap(EMPTY).getHandshakeStatus();
+                        } finally {
+                            writeLock.unlock();
+                        }
+                    }
+                }
+            }
+            int n = Math.min(len, appIn.remaining());
+            appIn.get(b, off, n);
+            return n;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private void writeApplicationData(byte[] b, int off, int len) throws IOException {
+        startHandshake();
+        writeLock.lock();
+        try {
+            ByteBuffer src = ByteBuffer.wrap(b, off, len);
+            while (src.hasRemaining()) {
+                SSLEngineResult r = wrap(src);
+                if (r.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SocketException("TLS connection closed");
+                }
+                if (r.getHandshakeStatus() == HandshakeStatus.NEED_TASK) runTasks();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** One unwrap into appIn, reading from the network as needed. Caller holds readLock. */
+    private HandshakeStatus unwrap() throws IOException {
+        while (true) {
+            appIn.compact();
+            SSLEngineResult r;
+            try {
+                r = engine.unwrap(netIn, appIn);
+            } finally {
+                appIn.flip();
+            }
+            switch (r.getStatus()) {
+                case OK:
+                    return r.getHandshakeStatus();
+                case CLOSED:
+                    inboundDone = true;
+                    return r.getHandshakeStatus();
+                case BUFFER_OVERFLOW:
+                    appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                    break;
+                case BUFFER_UNDERFLOW:
+                default:
+                    if (!fill()) {
+                        inboundDone = true;
+                        if (!handshakeDone) throw new EOFException("Connection closed during TLS handshake");
+                        return HandshakeStatus.NOT_HANDSHAKING;
+                    }
+            }
+        }
+    }
+
+    /** Reads more ciphertext into netIn; false on end of stream. */
+    private boolean fill() throws IOException {
+        netIn.compact();
+        try {
+            if (!netIn.hasRemaining()) {
+                netIn.flip();
+                netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                netIn.compact();
+            }
+            int n = raw.getInputStream().read(netIn.array(), netIn.position(), netIn.remaining());
+            if (n < 0) return false;
+            netIn.position(netIn.position() + n);
+            return true;
+        } finally {
+            netIn.flip();
+        }
+    }
+
+    /** Wraps from {@code src} and sends the record(s). Caller holds writeLock. */
+    private SSLEngineResult wrap(ByteBuffer src) throws IOException {
+        while (true) {
+            netOut.clear();
+            SSLEngineResult r = engine.wrap(src, netOut);
+            if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                netOut = ByteBuffer.allocate(netOut.capacity() + engine.getSession().getPacketBufferSize());
+                continue;
+            }
+            netOut.flip();
+            if (netOut.hasRemaining()) {
+                OutputStream rawOut = raw.getOutputStream();
+                rawOut.write(netOut.array(), 0, netOut.limit());
+                rawOut.flush();
+            }
+            return r;
+        }
+    }
+
+    private HandshakeStatus runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+        return engine.getHandshakeStatus();
+    }
+
+    private int availableLocked() {
+        try {
+            return appIn.remaining();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buf, int extra) {
+        ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() + extra);
+        bigger.put(buf).flip();
+        return bigger;
+    }
+
+    /* ===== Socket ===== */
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (closed) throw new SocketException("Socket is closed");
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (closed) throw new SocketException("Socket is closed");
+        return out;
+    }
+
+    /** Sends close_notify if the connection is idle, then closes the socket. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            // A writer stuck on a slow peer keeps the lock; don't wait for it
+            if (handshakeDone && writeLock.tryLock()) {
+                try {
+                    engine.closeOutbound();
+                    while (!engine.isOutboundDone()) {
+                        wrap(EMPTY);
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        } catch (IOException ignored) {
+            // Peer already gone
+        } finally {
+            raw.close();
+        }
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        writeLock.lock();
+        try {
+            engine.closeOutbound();
+            while (!engine.isOutboundDone()) {
+                wrap(EMPTY);
+            }
+        } catch (SSLException ignored) {
+            // Nothing more to send
+        } finally {
+            writeLock.unlock();
+        }
+        raw.shutdownOutput();
+    }
+
+    @Override public SocketChannel getChannel() { return null; }
+    @Override public boolean isClosed() { return closed || raw.isClosed(); }
+    @Override public boolean isConnected() { return raw.isConnected(); }
+    @Override public boolean isBound() { return raw.isBound(); }
+    @Override public boolean isInputShutdown() { return raw.isInputShutdown(); }
+    @Override public boolean isOutputShutdown() { return raw.isOutputShutdown(); }
+    @Override public void shutdownInput() throws IOException { raw.shutdownInput(); }
+    @Override public InetAddress getInetAddress() { return raw.getInetAddress(); }
+    @Override public InetAddress getLocalAddress() { return raw.getLocalAddress(); }
+    @Override public int getPort() { return raw.getPort(); }
+    @Override public int getLocalPort() { return raw.getLocalPort(); }
+    @Override public SocketAddress getRemoteSocketAddress() { return raw.getRemoteSocketAddress(); }
+    @Override public SocketAddress getLocalSocketAddress() { return raw.getLocalSocketAddress(); }
+    @Override public void setSoTimeout(int timeout) throws SocketException { raw.setSoTimeout(timeout); }
+    @Override public int getSoTimeout() throws SocketException { return raw.getSoTimeout(); }
+    @Override public void setTcpNoDelay(boolean on) throws SocketException { raw.setTcpNoDelay(on); }
+    @Override public boolean getTcpNoDelay() throws SocketException { return raw.getTcpNoDelay(); }
+    @Override public void setKeepAlive(boolean on) throws SocketException { raw.setKeepAlive(on); }
+    @Override public void setSoLinger(boolean on, int linger) throws SocketException { raw.setSoLinger(on, linger); }
+
+    @Override
+    public String toString() {
+        return "TlsSocket[" + raw + "]";
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A worker pool split into independent groups, each a fixed-size
+ * {@link ThreadPoolExecutor} with its own bounded queue, so acceptors and
+ * workers do not all contend on one queue lock. {@link Acceptors} feed
+ * acceptor {@code i} into group {@code i}.
+ *
+ * Work submitted from a worker thread (async completions, HTTP/2 streams)
+ * stays in that worker's group; other submitters are spread round-robin.
+ * A full group passes the task on to the next one, so a task is only
+ * rejected when every group is full. With one group this is a plain
+ * fixed pool.
+ */
+public final class WorkerGroups extends AbstractExecutorService {
+
+    private final ThreadPoolExecutor[] groups;
+    private final ThreadLocal<Integer> home = new ThreadLocal<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param threads total workers, divided evenly between the groups
+     * @param queueCapacity total queue slots, divided the same way
+     */
+    public WorkerGroups(String name, int groupCount, int threads, int queueCapacity) {
+        int n = Math.max(1, Math.min(groupCount, threads));
+        int perGroup = (threads + n - 1) / n;
+        int queuePerGroup = Math.max(1, (queueCapacity + n - 1) / n);
+        this.groups = new ThreadPoolExecutor[n];
+        for (int g = 0; g < n; g++) {
+            groups[g] = new ThreadPoolExecutor(perGroup, perGroup, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queuePerGroup), threadFactory(name, g, n),
+                    // Callers shed on rejection; never run work on the submitting thread
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+
+    public int size() {
+        return groups.length;
+    }
+
+    /** Total worker threads across the groups. */
+    public int threads() {
+        int n = 0;
+        for (ThreadPoolExecutor g : groups) {
+            n += g.getMaximumPoolSize();
+        }
+        return n;
+    }
+
+    /**
+     * Changes the total number of workers, divided evenly between the
+     * groups as at construction. New workers start as work arrives; extra
+     * ones exit once their current task is done. Queue capacity is fixed.
+     */
+    public void resize(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be >= 1: " + threads);
+        int perGroup = Math.max(1, (threads + groups.length - 1) / groups.length);
+        for (ThreadPoolExecutor g : groups) {
+            // Core may never exceed max, so the order depends on the direction
+            if (perGroup > g.getMaximumPoolSize()) {
+                g.setMaximumPoolSize(perGroup);
+                g.setCorePoolSize(perGroup);
+            } else {
+                g.setCorePoolSize(perGroup);
+                g.setMaximumPoolSize(perGroup);
+            }
+        }
+    }
+
+    /** Runs {@code task} in the submitting worker's group, or the next group in turn. */
+    @Override
+    public void execute(Runnable task) {
+        Integer g = home.get();
+        execute(task, g != null ? g : Math.floorMod(next.getAndIncrement(), groups.length));
+    }
+
+    /** Runs {@code task} in {@code group} (modulo the group count), overflowing to the others when it is full. */
+    public void execute(Runnable task, int group) {
+        RejectedExecutionException rejected = null;
+        for (int i = 0; i < groups.length; i++) {
+            try {
+                groups[Math.floorMod(group + i, groups.length)].execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                if (isShutdown()) throw e;
+                rejected = e;
+            }
+        }
+        throw rejected;
+    }
+
+    @Override
+    public void shutdown() {
+        for (ThreadPoolExecutor g : groups) {
+            g.shutdown();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending = new ArrayList<>();
+        for (ThreadPoolExecutor g : groups) {
+            pending.addAll(g.shutdownNow());
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return groups[0].isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        for (ThreadPoolExecutor g : groups) {
+            if (!g.isTerminated()) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ThreadPoolExecutor g : groups) {
+            if (!g.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) return false;
+        }
+        return true;
+    }
+
+    private ThreadFactory threadFactory(String name, int group, int groupCount) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            String threadName = groupCount == 1
+                    ? name + "-" + seq.incrementAndGet()
+                    : name + "-" + group + "-" + seq.incrementAndGet();
+            Thread t = new Thread(() -> {
+                home.set(group);
+                r.run();
+            }, threadName);
+            t.setDaemon(false);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,358 @@
+package com.example.proxy;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.*;
+
+/**
+ * Asynchronous access log.
+ *
+ * Worker threads publish entries into a lock-free bounded ring buffer and
+ * return immediately; a single background thread formats them in batches
+ * and writes to stdout or a size-rotated file. When the buffer is full the
+ * entry is dropped and counted instead of blocking the caller.
+ */
+public class AccessLog implements Closeable {
+
+    private static final Logger logger =
+            Logger.getLogger(AccessLog.class.getName());
+
+    public enum Format { COMMON, JSON }
+
+    /** One completed request, formatted later on the writer thread. */
+    public record Entry(
+            long timestampMillis,
+            String client,
+            String method,
+            String url,
+            String protocol,
+            int status,
+            long bytes,
+            long latencyMs,
+            String cacheStatus,
+            String upstream
+    ) {}
+
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = 5_000_000L;
+
+    private static final DateTimeFormatter CLF_DATE =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US)
+                    .withZone(ZoneId.systemDefault());
+
+    private final RingBuffer<Entry> buffer;
+    private final Format format;
+    private final Sink sink;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public AccessLog(Format format, int capacity, Sink sink) {
+        this.format = format;
+        this.sink = sink;
+        this.buffer = new RingBuffer<>(capacity);
+        this.writer = new Thread(this::drainLoop, "access-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Builds an access log from {@code proxy.accessLog*} system properties:
+     * {@code proxy.accessLog} is {@code stdout} (default), {@code off} or a
+     * file path; {@code proxy.accessLog.format} is {@code common} or
+     * {@code json}; {@code proxy.accessLog.maxBytes} and
+     * {@code proxy.accessLog.files} control rotation.
+     */
+    public static AccessLog fromSystemProperties() throws IOException {
+        String target = System.getProperty("proxy.accessLog", "stdout");
+        if ("off".equalsIgnoreCase(target)) {
+            return null;
+        }
+
+        Format format = Format.valueOf(
+                System.getProperty("proxy.accessLog.format", "common")
+                        .toUpperCase(Locale.ROOT));
+        int capacity = Integer.getInteger("proxy.accessLog.buffer", 8192);
+
+        Sink sink;
+        if ("stdout".equalsIgnoreCase(target)) {
+            sink = new StreamSink(System.out);
+        } else {
+            long maxBytes = Long.getLong("proxy.accessLog.maxBytes", 64L * 1024 * 1024);
+            int files = Integer.getInteger("proxy.accessLog.files", 5);
+            sink = new RotatingFileSink(Paths.get(target), maxBytes, files);
+        }
+        return new AccessLog(format, capacity, sink);
+    }
+
+    /** Enqueues an entry without blocking; returns false if it was dropped. */
+    public boolean log(Entry entry) {
+        if (!running || !buffer.offer(entry)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public long getDroppedLines() {
+        return dropped.get();
+    }
+
+    /* ---------- Writer thread ---------- */
+
+    private void drainLoop() {
+        StringBuilder batch = new StringBuilder(BATCH_SIZE * 128);
+        while (running || !buffer.isEmpty()) {
+            int n = 0;
+            Entry e;
+            while (n < BATCH_SIZE && (e = buffer.poll()) != null) {
+                append(batch, e);
+                batch.append('\n');
+                n++;
+            }
+
+            if (n == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            try {
+                sink.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ex) {
+                dropped.addAndGet(n);
+                logger.log(Level.WARNING, "Access log write failed", ex);
+            }
+            batch.setLength(0);
+        }
+    }
+
+    private void append(StringBuilder sb, Entry e) {
+        if (format == Format.JSON) {
+            sb.append("{\"ts\":\"").append(Instant.ofEpochMilli(e.timestampMillis())).append('"');
+            sb.append(",\"client\":");
+            jsonString(sb, e.client());
+            sb.append(",\"method\":");
+            jsonString(sb, e.method());
+            sb.append(",\"url\":");
+            jsonString(sb, e.url());
+            sb.append(",\"protocol\":");
+            jsonString(sb, e.protocol());
+            sb.append(",\"status\":").append(e.status());
+            sb.append(",\"bytes\":").append(e.bytes());
+            sb.append(",\"latency_ms\":").append(e.latencyMs());
+            sb.append(",\"cache\":");
+            jsonString(sb, e.cacheStatus());
+            sb.append(",\"upstream\":");
+            jsonString(sb, e.upstream());
+            sb.append('}');
+        } else {
+            // Common Log Format followed by proxy-specific fields
+            sb.append(orDash(e.client())).append(" - - [")
+              .append(CLF_DATE.format(Instant.ofEpochMilli(e.timestampMillis())))
+              .append("] \"").append(orDash(e.method())).append(' ')
+              .append(orDash(e.url())).append(' ')
+              .append(orDash(e.protocol())).append("\" ")
+              .append(e.status()).append(' ')
+              .append(e.bytes() > 0 ? String.valueOf(e.bytes()) : "-")
+              .append(" cache=").append(orDash(e.cacheStatus()))
+              .append(" upstream=").append(orDash(e.upstream()))
+              .append(" time=").append(e.latencyMs()).append("ms");
+        }
+    }
+
+    private static String orDash(String s) {
+        return s == null || s.isEmpty() ? "-" : s;
+    }
+
+    private static void jsonString(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    /** Stops accepting entries, flushes what is buffered and closes the sink. */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sink.close();
+    }
+
+    /* ---------- Ring buffer ---------- */
+
+    /**
+     * Bounded multi-producer ring buffer (Vyukov style): each slot carries a
+     * sequence number so producers claim slots with a single CAS on the tail.
+     */
+    static final class RingBuffer<E> {
+        private final int mask;
+        private final AtomicReferenceArray<E> slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        RingBuffer(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            this.mask = size - 1;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(E e) {
+            while (true) {
+                long pos = tail.get();
+                int idx = (int) (pos & mask);
+                long diff = sequences.get(idx) - pos;
+                if (diff == 0) {
+                    if (tail.compareAndSet(pos, pos + 1)) {
+                        slots.lazySet(idx, e);
+                        sequences.set(idx, pos + 1);
+                        return true;
+                    }
+                } else if (diff < 0) {
+                    return false; // full
+                }
+            }
+        }
+
+        E poll() {
+            while (true) {
+                long pos = head.get();
+                int idx = (int) (pos & mask);
+                long diff = sequences.get(idx) - (pos + 1);
+                if (diff == 0) {
+                    if (head.compareAndSet(pos, pos + 1)) {
+                        E e = slots.get(idx);
+                        slots.lazySet(idx, null);
+                        sequences.set(idx, pos + mask + 1);
+                        return e;
+                    }
+                } else if (diff < 0) {
+                    return null; // empty
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return head.get() >= tail.get();
+        }
+    }
+
+    /* ---------- Sinks ---------- */
+
+    public interface Sink extends Closeable {
+        void write(byte[] batch) throws IOException;
+    }
+
+    public static final class StreamSink implements Sink {
+        private final OutputStream out;
+
+        public StreamSink(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(byte[] batch) throws IOException {
+            out.write(batch);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    /** Appends to a file and rotates it to {@code name.1 .. name.N} by size. */
+    public static final class RotatingFileSink implements Sink {
+        private final Path path;
+        private final long maxBytes;
+        private final int maxFiles;
+        private OutputStream out;
+        private long written;
+
+        public RotatingFileSink(Path path, long maxBytes, int maxFiles) throws IOException {
+            this.path = path;
+            this.maxBytes = maxBytes;
+            this.maxFiles = Math.max(1, maxFiles);
+            open();
+        }
+
+        private void open() throws IOException {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            out = new BufferedOutputStream(Files.newOutputStream(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+            written = Files.size(path);
+        }
+
+        @Override
+        public void write(byte[] batch) throws IOException {
+            if (written > 0 && written + batch.length > maxBytes) {
+                rotate();
+            }
+            out.write(batch);
+            out.flush();
+            written += batch.length;
+        }
+
+        private void rotate() throws IOException {
+            out.close();
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                Path src = rotated(i);
+                if (Files.exists(src)) {
+                    Files.move(src, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+            open();
+        }
+
+        private Path rotated(int i) {
+            return path.resolveSibling(path.getFileName() + "." + i);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.*;
+
+/**
+ * Count-based circuit breaker for one upstream.
+ *
+ * CLOSED: calls flow; the outcome of the last {@code windowSize} calls is
+ * kept in a ring. Once at least {@code minCalls} are recorded and either the
+ * failure rate or the slow-call rate crosses its threshold, the breaker
+ * OPENs and rejects everything for {@code openMillis}. It then goes
+ * HALF_OPEN and lets {@code halfOpenCalls} trial calls through: all of them
+ * succeeding closes it again, any failure re-opens it.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger =
+            Logger.getLogger(CircuitBreaker.class.getName());
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** Thresholds shared by all breakers of a proxy. */
+    public static final class Config {
+        final int windowSize;
+        final int minCalls;
+        final int failureRatePercent;
+        final long slowCallMillis;
+        final int slowCallRatePercent;
+        final long openNanos;
+        final int halfOpenCalls;
+
+        public Config(int windowSize, int minCalls, int failureRatePercent,
+                      long slowCallMillis, int slowCallRatePercent,
+                      long openMillis, int halfOpenCalls) {
+            this.windowSize = Math.max(1, windowSize);
+            this.minCalls = Math.max(1, Math.min(minCalls, this.windowSize));
+            this.failureRatePercent = failureRatePercent;
+            this.slowCallMillis = slowCallMillis;
+            this.slowCallRatePercent = slowCallRatePercent;
+            this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+            this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        }
+
+        /**
+         * Reads {@code proxy.breaker.*} system properties: {@code window},
+         * {@code minCalls}, {@code failureRate} (%), {@code slowCall} (ms),
+         * {@code slowCallRate} (%), {@code open} (ms), {@code halfOpenCalls}.
+         */
+        public static Config fromSystemProperties() {
+            return new Config(
+                    Integer.getInteger("proxy.breaker.window", 20),
+                    Integer.getInteger("proxy.breaker.minCalls", 10),
+                    Integer.getInteger("proxy.breaker.failureRate", 50),
+                    Long.getLong("proxy.breaker.slowCall", 5_000L),
+                    Integer.getInteger("proxy.breaker.slowCallRate", 80),
+                    Long.getLong("proxy.breaker.open", 30_000L),
+                    Integer.getInteger("proxy.breaker.halfOpenCalls", 3)
+            );
+        }
+    }
+
+    private static final byte OK = 0;
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String name;
+    private final Config config;
+    private final byte[] window;
+
+    private State state = State.CLOSED;
+    private int position;
+    private int recorded;
+    private int failures;
+    private int slow;
+    private long openedAtNanos;
+    private int trialsStarted;
+    private int trialsSucceeded;
+
+    public CircuitBreaker(String name, Config config) {
+        this.name = name;
+        this.config = config;
+        this.window = new byte[config.windowSize];
+    }
+
+    /** Returns false if the call must be rejected without contacting the upstream. */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAtNanos < config.openNanos) {
+                return false;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialsStarted >= config.halfOpenCalls) {
+                return false;
+            }
+            trialsStarted++;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess(long latencyMs) {
+        boolean isSlow = latencyMs >= config.slowCallMillis;
+        if (state == State.HALF_OPEN) {
+            if (isSlow) {
+                transition(State.OPEN);
+            } else if (++trialsSucceeded >= config.halfOpenCalls) {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+        record(isSlow ? SLOW : OK);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            transition(State.OPEN);
+            return;
+        }
+        record(FAILED);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(byte outcome) {
+        if (state != State.CLOSED) return; // late result from before the trip
+
+        if (recorded == window.length) {
+            byte evicted = window[position];
+            if (evicted == FAILED) failures--;
+            else if (evicted == SLOW) slow--;
+        } else {
+            recorded++;
+        }
+        window[position] = outcome;
+        position = (position + 1) % window.length;
+        if (outcome == FAILED) failures++;
+        else if (outcome == SLOW) slow++;
+
+        if (recorded >= config.minCalls) {
+            int failureRate = failures * 100 / recorded;
+            int slowRate = slow * 100 / recorded;
+            if (failureRate >= config.failureRatePercent
+                    || slowRate >= config.slowCallRatePercent) {
+                transition(State.OPEN);
+            }
+        }
+    }
+
+    private void transition(State to) {
+        if (state == to) return;
+        logger.warning("Circuit breaker for " + name + ": " + state + " -> " + to);
+        state = to;
+        switch (to) {
+            case OPEN:
+                openedAtNanos = System.nanoTime();
+                break;
+            case HALF_OPEN:
+                trialsStarted = 0;
+                trialsSucceeded = 0;
+                break;
+            case CLOSED:
+                recorded = 0;
+                position = 0;
+                failures = 0;
+                slow = 0;
+                break;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.proxy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import java.net.SocketException;
+
+import com.example.net.BufferPool;
+import com.example.webserver.ClusterRateLimiter;
+import com.example.webserver.Limiter;
+import com.example.webserver.RateLimiter;
+
+/**
+ * Per-tenant admission control for the proxy.
+ *
+ * Requests are keyed by client IP, {@code Proxy-Authorization} identity or
+ * destination host, then checked against a token-bucket request rate. An
+ * optional bandwidth bucket (bytes/sec) shapes relayed response bytes for
+ * the same key, so a single tenant cannot monopolise the proxy.
+ *
+ * Shaping parks the worker relaying the response, so with bandwidth
+ * limits on each key may only have a few transfers in flight; more are
+ * refused up front like a request over the rate. A single wait is also
+ * bounded: a transfer that would have to park longer is abandoned rather
+ * than holding its worker.
+ *
+ * The proxy does not check {@code Proxy-Authorization} itself, so keying by
+ * {@link KeyBy#AUTH} trusts whatever the client sends: a client that makes
+ * up a new Basic user name per request gets a fresh quota each time. Use it
+ * only behind something that verifies the credentials, otherwise key by IP.
+ */
+public class ClientQuotas {
+
+    public enum KeyBy { IP, AUTH, HOST }
+
+    /** Keeping {@code key} within its byte rate would park the worker too long. */
+    public static final class QuotaExceededException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        QuotaExceededException(String key, long waitNanos) {
+            super("Bandwidth quota for " + key + " needs a "
+                    + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms wait");
+        }
+    }
+
+    private final KeyBy keyBy;
+    private final Limiter requests;        // null = no request limit
+    private final RateLimiter bandwidth;   // null = no shaping
+    private final int maxTransfersPerKey;
+    private final long maxThrottleNanos;
+    // Only keys with transfers in flight are present
+    private final Map<String, Integer> transfers = new ConcurrentHashMap<>();
+
+    public ClientQuotas(KeyBy keyBy, Limiter requests, RateLimiter bandwidth,
+                        int maxTransfersPerKey, long maxThrottleMillis) {
+        this.keyBy = keyBy;
+        this.requests = requests;
+        this.bandwidth = bandwidth;
+        this.maxTransfersPerKey = Math.max(1, maxTransfersPerKey);
+        this.maxThrottleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, maxThrottleMillis));
+    }
+
+    /**
+     * Builds quotas from {@code proxy.quota.*} system properties:
+     * {@code keyBy} (ip|auth|host), {@code rate} and {@code burst}
+     * (requests/sec), {@code bandwidth} and {@code bandwidthBurst}
+     * (bytes/sec), {@code maxTransfers} (shaped transfers in flight per
+     * key) and {@code maxThrottle} (longest single wait, ms). Returns null
+     * when neither limit is configured. When
+     * {@code cluster.port} is set the request rate is enforced cluster-wide
+     * through {@link ClusterRateLimiter}.
+     */
+    public static ClientQuotas fromSystemProperties() throws SocketException {
+        double rate = Double.parseDouble(System.getProperty("proxy.quota.rate", "0"));
+        long bytesPerSec = Long.getLong("proxy.quota.bandwidth", 0L);
+        if (rate <= 0 && bytesPerSec <= 0) {
+            return null;
+        }
+
+        KeyBy keyBy = KeyBy.valueOf(
+                System.getProperty("proxy.quota.keyBy", "ip").toUpperCase(Locale.ROOT));
+        Limiter requests = null;
+        if (rate > 0) {
+            requests = ClusterRateLimiter.fromSystemProperties(rate);
+            if (requests == null) {
+                requests = new RateLimiter(rate,
+                        Double.parseDouble(System.getProperty("proxy.quota.burst",
+                                String.valueOf(Math.max(1, rate * 2)))));
+            }
+        }
+        RateLimiter bandwidth = bytesPerSec > 0
+                ? new RateLimiter(bytesPerSec,
+                        Long.getLong("proxy.quota.bandwidthBurst", Math.max(64 * 1024, bytesPerSec)))
+                : null;
+        long maxThrottleMillis = Long.getLong("proxy.quota.maxThrottle", 5_000L);
+        // Responses are shaped a relay chunk at a time; one chunk must fit in a wait
+        int chunk = BufferPool.shared().bufferSize();
+        if (bytesPerSec > 0 && bytesPerSec * maxThrottleMillis < chunk * 1000L) {
+            throw new IllegalArgumentException("proxy.quota.maxThrottle=" + maxThrottleMillis
+                    + " ms is too short to send one " + chunk + "-byte chunk at proxy.quota.bandwidth=" + bytesPerSec);
+        }
+        return new ClientQuotas(keyBy, requests, bandwidth,
+                Integer.getInteger("proxy.quota.maxTransfers", 2), maxThrottleMillis);
+    }
+
+    /**
+     * Derives the quota key. Must run before hop-by-hop headers are
+     * stripped, since {@code Proxy-Authorization} is one of them.
+     */
+    public String keyFor(HttpProxyRequest request, String clientIp) {
+        switch (keyBy) {
+            case AUTH: {
+                String identity = identity(request.getHeader("Proxy-Authorization"));
+                return identity != null ? "auth:" + identity : "ip:" + clientIp;
+            }
+            case HOST:
+                return "host:" + request.getHost();
+            case IP:
+            default:
+                return "ip:" + clientIp;
+        }
+    }
+
+    /** True if the request fits within the key's request rate. */
+    public boolean admit(String key) {
+        return requests == null || requests.allow(key);
+    }
+
+    /**
+     * Takes one of {@code key}'s transfer slots when bandwidth is shaped;
+     * false if it already has the maximum in flight. Every true must be
+     * matched by {@link #endTransfer}.
+     */
+    public boolean beginTransfer(String key) {
+        if (bandwidth == null) return true;
+        boolean[] taken = new boolean[1];
+        transfers.compute(key, (k, n) -> {
+            int inFlight = n == null ? 0 : n;
+            if (inFlight >= maxTransfersPerKey) return n;
+            taken[0] = true;
+            return inFlight + 1;
+        });
+        return taken[0];
+    }
+
+    public void endTransfer(String key) {
+        if (bandwidth == null) return;
+        transfers.computeIfPresent(key, (k, n) -> n <= 1 ? null : n - 1);
+    }
+
+    /**
+     * Blocks as long as needed to keep {@code key} within its byte rate,
+     * up to the configured maximum; a longer wait fails instead.
+     */
+    public void throttle(String key, int bytes) throws QuotaExceededException {
+        if (bandwidth == null || bytes <= 0) return;
+
+        long waitNanos = bandwidth.reserve(key, bytes);
+        if (waitNanos > maxThrottleNanos) {
+            throw new QuotaExceededException(key, waitNanos);
+        }
+        if (waitNanos > 0) {
+            LockSupport.parkNanos(waitNanos);
+        }
+    }
+
+    /**
+     * User name from Basic credentials, otherwise a digest of the
+     * credentials. Keys end up in JFR rate-limit events and cluster gossip,
+     * so secrets such as bearer tokens must not.
+     */
+    private static String identity(String header) {
+        if (header == null || header.isBlank()) return null;
+
+        String value = header.trim();
+        if (value.regionMatches(true, 0, "Basic ", 0, 6)) {
+            try {
+                String decoded = new String(
+                        Base64.getDecoder().decode(value.substring(6).trim()),
+                        StandardCharsets.UTF_8);
+                int colon = decoded.indexOf(':');
+                return colon >= 0 ? decoded.substring(0, colon) : decoded;
+            } catch (IllegalArgumentException e) {
+                // Not valid Base64; fall through to the digest
+            }
+        }
+        return "sha256:" + digest(value);
+    }
+
+    private static String digest(String credentials) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(credentials.getBytes(StandardCharsets.UTF_8));
+            // 128 bits is plenty to tell tenants apart
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required on every JVM", e);
+        }
+    }
+}
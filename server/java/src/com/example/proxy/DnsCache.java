@@ -0,0 +1,224 @@
+package com.example.proxy;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.*;
+
+/**
+ * Proxy-level DNS cache for upstream host names.
+ *
+ * Successful lookups are kept for a positive TTL and failures for a shorter
+ * negative TTL. Names that keep being used are refreshed in the background
+ * before they expire, and a failed refresh keeps serving the last known
+ * addresses (up to a stale limit) so resolver outages do not surface as
+ * request latency. A refresh that fails is not retried for a negative TTL,
+ * so an outage does not turn every request into a new query. Each lookup
+ * returns all addresses, rotated round-robin, with addresses that recently
+ * failed to connect moved to the end.
+ *
+ * At most {@code MAX_ENTRIES} names and failed addresses are kept. When
+ * full, entries beyond their stale window are dropped; if there are none,
+ * new names are resolved without being cached.
+ */
+public class DnsCache {
+
+    private static final Logger logger =
+            Logger.getLogger(DnsCache.class.getName());
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    /** Refresh once this fraction of the TTL has elapsed. */
+    private static final double REFRESH_AHEAD = 0.8;
+
+    /** Minimum hits within a TTL for a name to count as hot. */
+    private static final int HOT_THRESHOLD = 2;
+
+    /** Cap on cached names, and separately on penalised addresses. */
+    private static final int MAX_ENTRIES = 10_000;
+
+    private static final class Entry {
+        final InetAddress[] addresses;   // null for negative entries
+        final String failure;
+        final long refreshAtNanos;
+        final long expiresAtNanos;
+        final long staleUntilNanos;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger hits = new AtomicInteger();
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        volatile long retryAtNanos;      // no refresh before this after one failed
+
+        Entry(InetAddress[] addresses, String failure,
+              long ttlNanos, long staleNanos) {
+            long now = System.nanoTime();
+            this.addresses = addresses;
+            this.failure = failure;
+            this.refreshAtNanos = now + (long) (ttlNanos * REFRESH_AHEAD);
+            this.expiresAtNanos = now + ttlNanos;
+            this.staleUntilNanos = this.expiresAtNanos + staleNanos;
+        }
+    }
+
+    private final long positiveTtlNanos;
+    private final long negativeTtlNanos;
+    private final long maxStaleNanos;
+    private final long failurePenaltyNanos;
+
+    private final StateMap<String, Entry> entries =
+            new StateMap<>(MAX_ENTRIES, (e, now) -> now > e.staleUntilNanos);
+    private final Map<String, CompletableFuture<Entry>> inflight = new ConcurrentHashMap<>();
+    private final StateMap<InetAddress, Long> failedUntil =
+            new StateMap<>(MAX_ENTRIES, (until, now) -> now >= until);
+    private final ExecutorService refresher;
+
+    public DnsCache(long positiveTtlMillis, long negativeTtlMillis,
+                    long maxStaleMillis, long failurePenaltyMillis) {
+        this.positiveTtlNanos = positiveTtlMillis * NANOS_PER_MILLI;
+        this.negativeTtlNanos = negativeTtlMillis * NANOS_PER_MILLI;
+        this.maxStaleNanos = maxStaleMillis * NANOS_PER_MILLI;
+        this.failurePenaltyNanos = failurePenaltyMillis * NANOS_PER_MILLI;
+        this.refresher = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "dns-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Builds a cache from {@code proxy.dns.*} system properties (all in
+     * milliseconds): {@code ttl}, {@code negativeTtl}, {@code maxStale} and
+     * {@code failurePenalty}.
+     */
+    public static DnsCache fromSystemProperties() {
+        return new DnsCache(
+                Long.getLong("proxy.dns.ttl", 60_000L),
+                Long.getLong("proxy.dns.negativeTtl", 5_000L),
+                Long.getLong("proxy.dns.maxStale", 300_000L),
+                Long.getLong("proxy.dns.failurePenalty", 30_000L)
+        );
+    }
+
+    /**
+     * Returns every address for {@code host}, healthy ones first in
+     * round-robin order. Blocks only when the name is not cached.
+     */
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        long now = System.nanoTime();
+        Entry e = entries.get(host);
+
+        if (e == null || now > e.expiresAtNanos) {
+            if (e != null && e.addresses != null && now <= e.staleUntilNanos) {
+                // Expired but usable: keep serving while we re-resolve
+                scheduleRefresh(host, e);
+            } else {
+                e = lookup(host);
+            }
+        } else if (e.hits.incrementAndGet() >= HOT_THRESHOLD && now > e.refreshAtNanos) {
+            scheduleRefresh(host, e);
+        }
+
+        if (e.addresses == null) {
+            throw new UnknownHostException(e.failure);
+        }
+        return ordered(e);
+    }
+
+    /** Marks an address as failing so it is tried last for a while. */
+    public void reportFailure(InetAddress address) {
+        failedUntil.put(address, System.nanoTime() + failurePenaltyNanos);
+    }
+
+    public void reportSuccess(InetAddress address) {
+        failedUntil.remove(address);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    /* ---------- Internals ---------- */
+
+    private InetAddress[] ordered(Entry e) {
+        InetAddress[] src = e.addresses;
+        int n = src.length;
+        if (n == 1) return new InetAddress[] { src[0] };
+
+        int offset = Math.floorMod(e.next.getAndIncrement(), n);
+        InetAddress[] out = new InetAddress[n];
+        int head = 0;
+        int tail = n - 1;
+        long now = System.nanoTime();
+
+        for (int i = 0; i < n; i++) {
+            InetAddress a = src[(offset + i) % n];
+            Long until = failedUntil.get(a);
+            if (until != null && now < until) {
+                out[tail--] = a;
+            } else {
+                if (until != null) failedUntil.remove(a, until);
+                out[head++] = a;
+            }
+        }
+        return out;
+    }
+
+    /** Synchronous lookup; concurrent misses for the same name share one query. */
+    private Entry lookup(String host) {
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = inflight.putIfAbsent(host, mine);
+        if (existing != null) {
+            return existing.join();
+        }
+
+        try {
+            Entry e = query(host, entries.get(host));
+            mine.complete(e);
+            return e;
+        } catch (RuntimeException ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inflight.remove(host, mine);
+        }
+    }
+
+    private void scheduleRefresh(String host, Entry current) {
+        if (System.nanoTime() < current.retryAtNanos) return;
+        if (!current.refreshing.compareAndSet(false, true)) return;
+        try {
+            refresher.execute(() -> query(host, current));
+        } catch (RejectedExecutionException ignored) {
+            current.refreshing.set(false);
+        }
+    }
+
+    private Entry query(String host, Entry previous) {
+        Entry e;
+        try {
+            e = new Entry(InetAddress.getAllByName(host), null,
+                    positiveTtlNanos, maxStaleNanos);
+        } catch (UnknownHostException ex) {
+            long now = System.nanoTime();
+            if (previous != null && previous.addresses != null
+                    && now <= previous.staleUntilNanos) {
+                // Resolver is failing: keep the last good answer, and back off
+                // like a negative entry before asking again
+                logger.fine("DNS refresh failed for " + host + ", serving stale");
+                previous.retryAtNanos = now + negativeTtlNanos;
+                previous.refreshing.set(false);
+                return previous;
+            }
+            e = new Entry(null, ex.getMessage() != null ? ex.getMessage() : host,
+                    negativeTtlNanos, 0);
+        }
+        entries.put(host, e);
+        return e;
+    }
+}
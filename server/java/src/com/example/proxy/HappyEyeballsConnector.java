@@ -0,0 +1,141 @@
+package com.example.proxy;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Races connection attempts across all resolved addresses (RFC 8305 style).
+ *
+ * Addresses are interleaved by family, then a new non-blocking attempt is
+ * started every {@code attemptDelay} (or immediately when the previous one
+ * fails) until one completes. The first connected channel wins; all other
+ * attempts are closed. A blackholed address therefore costs one attempt
+ * delay instead of the whole connect timeout.
+ */
+public class HappyEyeballsConnector {
+
+    private final DnsCache dns;
+    private final long attemptDelayNanos;
+
+    public HappyEyeballsConnector(DnsCache dns, long attemptDelayMillis) {
+        this.dns = dns;
+        this.attemptDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(10, attemptDelayMillis));
+    }
+
+    /** Uses {@code proxy.connect.attemptDelay} (ms, default 250). */
+    public static HappyEyeballsConnector fromSystemProperties(DnsCache dns) {
+        return new HappyEyeballsConnector(dns,
+                Long.getLong("proxy.connect.attemptDelay", 250L));
+    }
+
+    /**
+     * Connects to {@code host:port} within {@code timeoutMillis} overall and
+     * returns a blocking socket for the winning attempt.
+     */
+    public Socket connect(String host, int port, int timeoutMillis) throws IOException {
+        List<InetAddress> order = interleave(dns.resolve(host));
+        long now = System.nanoTime();
+        long deadline = now + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long nextAttemptAt = now;
+        int next = 0;
+        int pending = 0;
+        IOException last = null;
+        SocketChannel winner = null;
+        List<SocketChannel> attempts = new ArrayList<>(order.size());
+
+        try (Selector selector = Selector.open()) {
+            while (winner == null) {
+                now = System.nanoTime();
+
+                if (next < order.size() && (pending == 0 || now >= nextAttemptAt)) {
+                    InetAddress address = order.get(next++);
+                    nextAttemptAt = now + attemptDelayNanos;
+                    SocketChannel ch = SocketChannel.open();
+                    attempts.add(ch);
+                    try {
+                        ch.configureBlocking(false);
+                        if (ch.connect(new InetSocketAddress(address, port))) {
+                            dns.reportSuccess(address);
+                            winner = ch;
+                        } else {
+                            ch.register(selector, SelectionKey.OP_CONNECT, address);
+                            pending++;
+                        }
+                    } catch (IOException e) {
+                        dns.reportFailure(address);
+                        ch.close();
+                        last = e;
+                    }
+                    continue;
+                }
+
+                if (pending == 0) {
+                    throw last != null ? last : new UnknownHostException(host);
+                }
+                if (now >= deadline) {
+                    throw new SocketTimeoutException("Connect timed out: " + host + ":" + port);
+                }
+
+                long waitUntil = next < order.size() ? Math.min(deadline, nextAttemptAt) : deadline;
+                long waitMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitUntil - now));
+                selector.select(waitMillis);
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SocketChannel ch = (SocketChannel) key.channel();
+                    InetAddress address = (InetAddress) key.attachment();
+                    try {
+                        if (ch.finishConnect()) {
+                            dns.reportSuccess(address);
+                            winner = ch;
+                            break;
+                        }
+                    } catch (IOException e) {
+                        key.cancel();
+                        ch.close();
+                        dns.reportFailure(address);
+                        pending--;
+                        last = e;
+                        nextAttemptAt = System.nanoTime(); // start the next one right away
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            for (SocketChannel ch : attempts) {
+                if (ch != winner) {
+                    try {
+                        ch.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+
+        // Selector is closed, so the channel is deregistered and may block again
+        winner.configureBlocking(true);
+        return winner.socket();
+    }
+
+    /**
+     * Orders addresses by alternating families, starting with the family of
+     * the first (preferred) address, keeping the order within each family.
+     */
+    static List<InetAddress> interleave(InetAddress[] addresses) {
+        List<InetAddress> first = new ArrayList<>();
+        List<InetAddress> second = new ArrayList<>();
+        Class<?> preferred = addresses[0].getClass();
+        for (InetAddress a : addresses) {
+            (a.getClass() == preferred ? first : second).add(a);
+        }
+
+        List<InetAddress> out = new ArrayList<>(addresses.length);
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) out.add(first.get(i));
+            if (i < second.size()) out.add(second.get(i));
+        }
+        return out;
+    }
+}
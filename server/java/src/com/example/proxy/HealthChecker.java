@@ -0,0 +1,91 @@
+package com.example.proxy;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+import com.example.http2.Http2Connection;
+
+/**
+ * Optional active health checks for reverse-proxy upstreams.
+ *
+ * Every interval each pool member is probed on a background scheduler,
+ * either with a plain TCP connect or, when a path is configured, with an
+ * HTTP GET that must answer 2xx/3xx. Members of h2c pools would not
+ * understand HTTP/1.1, so they are probed with the HTTP/2 preface and a
+ * PING that must be acknowledged instead. Results feed {@link UpstreamHealth},
+ * so a dead member is ejected without waiting for client traffic and a
+ * recovered one is restored before its back-off expires.
+ */
+public class HealthChecker {
+
+    private static final Logger logger =
+            Logger.getLogger(HealthChecker.class.getName());
+
+    private static final int PROBE_TIMEOUT = 2_000;
+
+    private final ReverseProxyRoutes routes;
+    private final UpstreamHealth health;
+    private final String probePath;
+    private final ScheduledExecutorService scheduler;
+
+    public HealthChecker(ReverseProxyRoutes routes, UpstreamHealth health, String probePath) {
+        this.routes = routes;
+        this.health = health;
+        this.probePath = probePath;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "health-checker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start(long intervalMillis) {
+        scheduler.scheduleWithFixedDelay(this::probeAll,
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("Active health checks every " + intervalMillis + " ms"
+                + (probePath != null ? " (GET " + probePath + ")" : " (TCP connect)"));
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void probeAll() {
+        for (UpstreamPool pool : routes.getPools()) {
+            for (Upstream u : pool.getMembers()) {
+                if (probe(u, pool.isH2c())) {
+                    health.probeSucceeded(u.getHost(), u.getPort());
+                } else {
+                    health.recordFailure(u.getHost(), u.getPort());
+                }
+            }
+        }
+    }
+
+    private boolean probe(Upstream u, boolean h2c) {
+        try (Socket s = new Socket()) {
+            s.connect(new InetSocketAddress(u.getHost(), u.getPort()), PROBE_TIMEOUT);
+            if (probePath == null) return true;
+
+            s.setSoTimeout(PROBE_TIMEOUT);
+            if (h2c) return Http2Connection.ping(s);
+            OutputStream out = s.getOutputStream();
+            out.write(("GET " + probePath + " HTTP/1.1\r\n" +
+                    "Host: " + u.getHost() + "\r\n" +
+                    "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            // "HTTP/1.1 200" - only the status code matters
+            byte[] head = s.getInputStream().readNBytes(12);
+            if (head.length < 12) return false;
+            char cls = (char) head[9];
+            return cls == '2' || cls == '3';
+        } catch (IOException e) {
+            logger.fine("Health check failed for " + u + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
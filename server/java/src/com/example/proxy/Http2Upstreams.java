@@ -0,0 +1,309 @@
+package com.example.proxy;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.*;
+
+import com.example.http2.HeaderField;
+import com.example.http2.Http2Connection;
+import com.example.http2.Http2Exception;
+import com.example.http2.Http2Settings;
+import com.example.http2.Http2Stream;
+import com.example.net.BufferPool;
+import com.example.net.PooledInputStream;
+
+/**
+ * HTTP/1.1 to HTTP/2 gateway for origins that speak h2c.
+ *
+ * Client requests stay HTTP/1.1; their upstream exchange becomes one stream
+ * on a shared connection to the origin, so many concurrent requests need
+ * only a handful of origin connections. A new connection is opened only
+ * when every existing one is at the origin's MAX_CONCURRENT_STREAMS, and
+ * connections close themselves after sitting idle.
+ *
+ * Responses are buffered whole (up to {@code proxy.h2.maxResponse}) and
+ * handed back as HTTP/1.1 bytes, so the rest of {@link ProxyHandler}
+ * (status parsing, caching, quotas) is unchanged.
+ */
+public class Http2Upstreams {
+
+    private static final Logger logger = Logger.getLogger(Http2Upstreams.class.getName());
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    // Connection-specific headers HTTP/2 forbids; Host becomes :authority
+    private static final Set<String> EXCLUDED = Set.of(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade",
+            "te", "trailer", "host", "proxy-authorization", "proxy-authenticate");
+
+    private static final Map<Integer, String> REASONS = Map.ofEntries(
+            Map.entry(200, "OK"), Map.entry(201, "Created"), Map.entry(204, "No Content"),
+            Map.entry(301, "Moved Permanently"), Map.entry(302, "Found"), Map.entry(304, "Not Modified"),
+            Map.entry(400, "Bad Request"), Map.entry(401, "Unauthorized"), Map.entry(403, "Forbidden"),
+            Map.entry(404, "Not Found"), Map.entry(405, "Method Not Allowed"),
+            Map.entry(429, "Too Many Requests"), Map.entry(500, "Internal Server Error"),
+            Map.entry(502, "Bad Gateway"), Map.entry(503, "Service Unavailable"),
+            Map.entry(504, "Gateway Timeout"));
+
+    /** Open connections to one origin. */
+    private final class Origin {
+        final String host;
+        final int port;
+        final List<Http2Connection> connections = new CopyOnWriteArrayList<>();
+        private CompletableFuture<Http2Connection> connecting;   // guarded by this
+
+        Origin(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        /** Least-loaded connection with a free stream, or null. */
+        Http2Connection pick() {
+            Http2Connection best = null;
+            for (Http2Connection c : connections) {
+                if (!c.canOpenStream()) continue;
+                if (best == null || c.activeStreams() < best.activeStreams()) best = c;
+            }
+            return best;
+        }
+
+        /**
+         * A connection with a free stream, opening one if needed. The lock only
+         * covers deciding who connects: callers that find a free stream never
+         * wait, and concurrent misses share the one connect in progress.
+         */
+        Http2Connection acquire(int connectTimeout) throws IOException {
+            Http2Connection c = pick();
+            if (c != null) return c;
+
+            CompletableFuture<Http2Connection> mine = new CompletableFuture<>();
+            CompletableFuture<Http2Connection> pending;
+            synchronized (this) {
+                c = pick();
+                if (c != null) return c;
+                pending = connecting;
+                if (pending == null) connecting = mine;
+            }
+            if (pending != null) {
+                try {
+                    return pending.join();
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                }
+            }
+
+            try {
+                c = connect(this, connectTimeout);
+                mine.complete(c);
+                return c;
+            } catch (IOException | RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            } finally {
+                synchronized (this) {
+                    connecting = null;
+                }
+            }
+        }
+    }
+
+    private final HappyEyeballsConnector connector;
+    private final ProxyMetrics metrics;
+    private final Http2Settings settings;
+    private final Set<String> configured;
+    private final int maxResponseSize;
+    private final int idleTimeoutMillis;
+    private final Map<String, Origin> origins = new ConcurrentHashMap<>();
+    private final AtomicInteger connectionIds = new AtomicInteger();
+
+    public Http2Upstreams(HappyEyeballsConnector connector, ProxyMetrics metrics, Http2Settings settings,
+                          Set<String> configured, int maxResponseSize, int idleTimeoutMillis) {
+        this.connector = connector;
+        this.metrics = metrics;
+        this.settings = settings;
+        this.configured = Set.copyOf(configured);
+        this.maxResponseSize = maxResponseSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Reads {@code proxy.h2c.upstreams} (comma-separated host:port origins
+     * that get HTTP/2 in forward mode; reverse-proxy pools opt in with
+     * {@code pool.<name>.protocol = h2c}), {@code proxy.h2.maxResponse}
+     * (bytes, default 8 MB), {@code proxy.h2.idleTimeout} (ms, default
+     * 30000) and the {@code proxy.h2.*} {@link Http2Settings}.
+     */
+    public static Http2Upstreams fromSystemProperties(HappyEyeballsConnector connector, ProxyMetrics metrics) {
+        Set<String> configured = new HashSet<>();
+        for (String spec : System.getProperty("proxy.h2c.upstreams", "").split(",")) {
+            if (spec.isBlank()) continue;
+            Upstream u = Upstream.parse(spec);
+            configured.add(key(u.getHost(), u.getPort()));
+        }
+        return new Http2Upstreams(connector, metrics,
+                Http2Settings.fromSystemProperties("proxy.h2"),
+                configured,
+                Integer.getInteger("proxy.h2.maxResponse", 8 * 1024 * 1024),
+                Integer.getInteger("proxy.h2.idleTimeout", 30_000));
+    }
+
+    /** Whether {@code host:port} was listed in {@code proxy.h2c.upstreams}. */
+    public boolean isConfigured(String host, int port) {
+        return configured.contains(key(host, port));
+    }
+
+    /**
+     * Sends {@code request} to its (already retargeted) origin as one
+     * HTTP/2 stream and returns the response as HTTP/1.1 bytes with
+     * {@code Connection: close}. Streams the origin refuses (e.g. after
+     * GOAWAY) are retried on another connection.
+     */
+    public byte[] exchange(HttpProxyRequest request, int connectTimeout, int readTimeout) throws IOException {
+        Origin origin = origins.computeIfAbsent(key(request.getHost(), request.getPort()),
+                k -> new Origin(request.getHost(), request.getPort()));
+        List<HeaderField> headers = requestHeaders(request);
+        byte[] body = request.getBody();
+        boolean hasBody = body != null && body.length > 0;
+
+        for (int attempt = 1; ; attempt++) {
+            Http2Connection conn = origin.acquire(connectTimeout);
+            Http2Stream stream = conn.openStream(headers, !hasBody);
+            if (stream == null) {
+                if (attempt >= MAX_ATTEMPTS) throw new IOException("No HTTP/2 stream available to " + origin.host);
+                continue; // connection filled up or closed in between
+            }
+            metrics.incrementH2Streams();
+            try {
+                if (hasBody) conn.sendData(stream, body, 0, body.length, true);
+                stream.received().toCompletableFuture().get(readTimeout, TimeUnit.MILLISECONDS);
+                return toHttp1(stream, request.getMethod());
+            } catch (TimeoutException e) {
+                conn.resetStream(stream, Http2Exception.CANCEL);
+                throw new SocketTimeoutException("HTTP/2 upstream timed out");
+            } catch (InterruptedException e) {
+                conn.resetStream(stream, Http2Exception.CANCEL);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for upstream");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Http2Exception h2e
+                        && h2e.errorCode() == Http2Exception.REFUSED_STREAM
+                        && attempt < MAX_ATTEMPTS) {
+                    continue; // not processed by the origin; safe to retry
+                }
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+        }
+    }
+
+    /** Closes all upstream connections. */
+    public void close() {
+        for (Origin o : origins.values()) {
+            for (Http2Connection c : o.connections) {
+                c.close();
+            }
+        }
+    }
+
+    private Http2Connection connect(Origin origin, int connectTimeout) throws IOException {
+        Socket socket = connector.connect(origin.host, origin.port, connectTimeout);
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(idleTimeoutMillis);
+            Http2Connection conn = new Http2Connection(socket,
+                    new PooledInputStream(socket.getInputStream(), BufferPool.shared()),
+                    socket.getOutputStream(), false, false, settings, maxResponseSize,
+                    new Http2Connection.Listener() {
+                        @Override
+                        public void onMessage(Http2Connection c, Http2Stream s) {
+                            // Push is disabled; origins never open streams
+                        }
+
+                        @Override
+                        public void onClose(Http2Connection c) {
+                            origin.connections.remove(c);
+                        }
+                    });
+            conn.start("h2-upstream-" + origin.host + ":" + origin.port + "-" + connectionIds.incrementAndGet());
+            origin.connections.add(conn);
+            metrics.incrementH2Connections();
+            logger.fine("Opened HTTP/2 connection to " + origin.host + ":" + origin.port);
+            return conn;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static List<HeaderField> requestHeaders(HttpProxyRequest request) {
+        String authority = request.getHeader("Host");
+        if (authority == null) {
+            authority = request.getPort() == 80 ? request.getHost() : request.getHost() + ":" + request.getPort();
+        }
+        List<HeaderField> h = new ArrayList<>(request.getHeaders().size() + 4);
+        h.add(new HeaderField(":method", request.getMethod()));
+        h.add(new HeaderField(":scheme", "http"));
+        h.add(new HeaderField(":authority", authority));
+        h.add(new HeaderField(":path", request.getPath().isEmpty() ? "/" : request.getPath()));
+        for (Map.Entry<String, String> e : request.getHeaders().entrySet()) {
+            String name = e.getKey().toLowerCase(Locale.ROOT);
+            if (!EXCLUDED.contains(name)) h.add(new HeaderField(name, e.getValue()));
+        }
+        return h;
+    }
+
+    private static byte[] toHttp1(Http2Stream stream, String method) throws IOException {
+        byte[] body = stream.body();
+        int code;
+        try {
+            code = Integer.parseInt(String.valueOf(stream.header(":status")));
+        } catch (NumberFormatException e) {
+            throw new IOException("HTTP/2 response without a valid :status");
+        }
+        // No body on the wire; a HEAD or 304 Content-Length describes the full representation
+        boolean bodyless = "HEAD".equalsIgnoreCase(method) || code == 204 || code == 304;
+        if (bodyless) body = new byte[0];
+
+        StringBuilder head = new StringBuilder(256);
+        head.append("HTTP/1.1 ").append(code).append(' ').append(REASONS.getOrDefault(code, "")).append("\r\n");
+        for (HeaderField f : stream.headers()) {
+            if (f.name().startsWith(":")) continue;
+            if (!isValidField(f)) {
+                // RFC 9113 section 8.2.1: malformed; copying it could split the client's response
+                throw new IOException("Malformed header field from HTTP/2 upstream");
+            }
+            if (f.name().equals("content-length") && (!bodyless || code == 204)) continue;
+            head.append(f.name()).append(": ").append(f.value()).append("\r\n");
+        }
+        if (!bodyless) head.append("Content-Length: ").append(body.length).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+
+        byte[] h = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        byte[] out = Arrays.copyOf(h, h.length + body.length);
+        System.arraycopy(body, 0, out, h.length, body.length);
+        return out;
+    }
+
+    /** Lowercase token name, and a value without NUL, CR or LF. */
+    private static boolean isValidField(HeaderField f) {
+        String name = f.name();
+        if (name.isEmpty()) return false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= 0x20 || c >= 0x7f || c == ':' || (c >= 'A' && c <= 'Z')) return false;
+        }
+        String value = f.value();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == 0 || c == '\r' || c == '\n') return false;
+        }
+        return true;
+    }
+
+    private static String key(String host, int port) {
+        return host.toLowerCase(Locale.ROOT) + ":" + port;
+    }
+}
@@ -5,6 +5,8 @@ import java.net.*;
 import java.util.*;
 import java.nio.charset.StandardCharsets;
 
+import com.example.net.BufferPool;
+
 
 /**
  * Parses HTTP requests for proxy forwarding.
@@ -12,10 +14,13 @@ import java.nio.charset.StandardCharsets;
 public class HttpProxyRequest {
     private String method;
     private String path;
+    private String version;
     private String host;
     private int port;
     private Map<String, String> headers;
     private byte[] body;
+
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
     /* 
     public static HttpProxyRequest parse(InputStream input) throws IOException {
         BufferedReader reader = new BufferedReader(new InputStreamReader(input));
@@ -88,6 +93,7 @@ public class HttpProxyRequest {
     HttpProxyRequest req = new HttpProxyRequest();
     req.method = requestLine[0].toUpperCase();
     String rawPath = requestLine[1];
+    req.version = requestLine[2].trim();
     req.headers = new LinkedHashMap<>();
 
     int contentLength = 0;
@@ -161,6 +167,28 @@ public class HttpProxyRequest {
     public String getMethod() { return method; }
     public String getHost() { return host; }
     public int getPort() { return port; }
+    public String getPath() { return path; }
+    /** Protocol version from the request line, e.g. "HTTP/1.0". */
+    public String getVersion() { return version; }
+    public Map<String, String> getHeaders() { return Collections.unmodifiableMap(headers); }
+    public byte[] getBody() { return body; }
+
+    /** Case-insensitive header lookup. */
+    public String getHeader(String name) {
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            if (h.getKey().equalsIgnoreCase(name)) return h.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Points the request at a different origin (reverse-proxy mode). The
+     * client's Host header is kept so upstreams can do virtual hosting.
+     */
+    public void retarget(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
     public String getUrl() {
         StringBuilder sb = new StringBuilder("http://");
         sb.append(host);
@@ -186,29 +214,53 @@ public void removeHopByHopHeaders() {
 public void addHeader(String k, String v) {
     headers.put(k, v);
 }
-private static byte[] readUntilDoubleCRLF(InputStream in) throws IOException {
-    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-    int state = 0;
-    int b;
-
-    while ((b = in.read()) != -1) {
-        bos.write(b);
-
-        switch (state) {
-            case 0: state = (b == '\r') ? 1 : 0; break;
-            case 1: state = (b == '\n') ? 2 : 0; break;
-            case 2: state = (b == '\r') ? 3 : 0; break;
-            case 3:
-                if (b == '\n') return bos.toByteArray();
-                state = 0;
-                break;
+
+/** Replaces {@code k} whatever case the client sent it in. */
+public void setHeader(String k, String v) {
+    headers.keySet().removeIf(existing -> existing.equalsIgnoreCase(k));
+    headers.put(k, v);
+}
+
+/** Appends {@code v} to a list-valued header such as X-Forwarded-For, keeping the client's spelling of it. */
+public void appendHeader(String k, String v) {
+    for (Map.Entry<String, String> h : headers.entrySet()) {
+        if (h.getKey().equalsIgnoreCase(k)) {
+            h.setValue(h.getValue().isBlank() ? v : h.getValue() + ", " + v);
+            return;
         }
+    }
+    headers.put(k, v);
+}
+private static byte[] readUntilDoubleCRLF(InputStream in) throws IOException {
+    try (BufferPool.Lease lease = BufferPool.shared().acquire()) {
+        byte[] buf = lease.array();
+        int len = 0;
+        int state = 0;
+        int b;
 
-        if (bos.size() > 64 * 1024) {
-            throw new IOException("Header too large");
+        while ((b = in.read()) != -1) {
+            if (len == buf.length) {
+                // Oversized head: continue in a private copy, the lease still goes back
+                buf = Arrays.copyOf(buf, Math.min(buf.length * 2, MAX_HEADER_SIZE + 1));
+            }
+            buf[len++] = (byte) b;
+
+            switch (state) {
+                case 0: state = (b == '\r') ? 1 : 0; break;
+                case 1: state = (b == '\n') ? 2 : 0; break;
+                case 2: state = (b == '\r') ? 3 : 0; break;
+                case 3:
+                    if (b == '\n') return Arrays.copyOf(buf, len);
+                    state = 0;
+                    break;
+            }
+
+            if (len > MAX_HEADER_SIZE) {
+                throw new IOException("Header too large");
+            }
         }
+        return Arrays.copyOf(buf, len);
     }
-    return bos.toByteArray();
 }
 
 }
@@ -94,12 +94,15 @@ public class ProxyCache {
     }
 }
 */
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class ProxyCache {
 
+    static final long DEFAULT_TTL_MILLIS = 300_000;
+
     private static final class CacheEntry {
         final byte[] data;
         final long expiresAtNanos;
@@ -116,13 +119,13 @@ public class ProxyCache {
         }
     }
 
-    private final int maxSize;
-    private final long ttlMillis;
+    private volatile int maxSize;
+    private volatile long ttlMillis;
     private final Map<String, CacheEntry> cache;
     private final ReentrantLock lock = new ReentrantLock();
 
     public ProxyCache(int maxSize) {
-        this(maxSize, 300_000);
+        this(maxSize, DEFAULT_TTL_MILLIS);
     }
 
     public ProxyCache(int maxSize, long ttlMillis) {
@@ -132,7 +135,11 @@ public class ProxyCache {
         this.cache = new LinkedHashMap<>(16, 0.75f, true) {
             @Override
             protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
-                return size() > ProxyCache.this.maxSize;
+                if (size() > ProxyCache.this.maxSize) {
+                    ProxyCacheEvent.emit(ProxyCacheEvent.EVICT, eldest.getKey(), size() - 1);
+                    return true;
+                }
+                return false;
             }
         };
     }
@@ -141,13 +148,18 @@ public class ProxyCache {
         lock.lock();
         try {
             CacheEntry entry = cache.get(key);
-            if (entry == null) return null;
+            if (entry == null) {
+                ProxyCacheEvent.emit(ProxyCacheEvent.MISS, key, cache.size());
+                return null;
+            }
 
             if (entry.isExpired()) {
                 cache.remove(key);
+                ProxyCacheEvent.emit(ProxyCacheEvent.EXPIRE, key, cache.size());
                 return null;
             }
 
+            ProxyCacheEvent.emit(ProxyCacheEvent.HIT, key, cache.size());
             return entry.data.clone();
         } finally {
             lock.unlock();
@@ -163,6 +175,27 @@ public class ProxyCache {
         }
     }
 
+    /** Changes the capacity, evicting least recently used entries down to it now. */
+    public void setMaxSize(int maxSize) {
+        lock.lock();
+        try {
+            this.maxSize = maxSize;
+            Iterator<Map.Entry<String, CacheEntry>> it = cache.entrySet().iterator();
+            while (cache.size() > maxSize && it.hasNext()) {
+                String key = it.next().getKey();
+                it.remove();
+                ProxyCacheEvent.emit(ProxyCacheEvent.EVICT, key, cache.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Changes the TTL of entries stored from now on; existing entries keep theirs. */
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
     public void clear() {
         lock.lock();
         try {
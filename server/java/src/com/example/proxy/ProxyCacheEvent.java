@@ -0,0 +1,42 @@
+package com.example.proxy;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for cache hits, misses, expirations and LRU evictions.
+ */
+@Name("com.example.proxy.Cache")
+@Label("Proxy Cache")
+@Category({"Proxy", "Cache"})
+@Description("Proxy response cache activity")
+@StackTrace(false)
+class ProxyCacheEvent extends jdk.jfr.Event {
+
+    static final String HIT = "HIT";
+    static final String MISS = "MISS";
+    static final String EXPIRE = "EXPIRE";
+    static final String EVICT = "EVICT";
+
+    @Label("Action")
+    String action;
+
+    @Label("Key")
+    String key;
+
+    @Label("Entries")
+    int entries;
+
+    static void emit(String action, String key, int entries) {
+        ProxyCacheEvent event = new ProxyCacheEvent();
+        if (event.shouldCommit()) {
+            event.action = action;
+            event.key = key;
+            event.entries = entries;
+            event.commit();
+        }
+    }
+}
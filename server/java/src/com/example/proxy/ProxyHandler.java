@@ -4,39 +4,76 @@ import java.io.*;
 import java.net.*;
 import java.util.logging.*;
 
+import com.example.net.BufferChain;
+import com.example.net.BufferPool;
+import com.example.net.PooledInputStream;
+
 public class ProxyHandler implements Runnable {
 
     private static final Logger logger =
             Logger.getLogger(ProxyHandler.class.getName());
 
-    private static final int READ_TIMEOUT = 10_000;
-    private static final int CONNECT_TIMEOUT = 5_000;
-    private static final int MAX_CACHE_SIZE = 512 * 1024; // 512 KB
-
     private final Socket clientSocket;
     private final ProxyCache cache;
     private final ProxyMetrics metrics;
+    private final AccessLog accessLog;
+    private final HappyEyeballsConnector connector;
+    private final ReverseProxyRoutes routes;
+    private final UpstreamHealth health;
+    private final UpstreamGuards guards;
+    private final ClientQuotas quotas;
+    private final Http2Upstreams h2;
+    private final ProxySettings settings;
 
     public ProxyHandler(Socket clientSocket,
                         ProxyCache cache,
-                        ProxyMetrics metrics) {
+                        ProxyMetrics metrics,
+                        AccessLog accessLog,
+                        HappyEyeballsConnector connector,
+                        ReverseProxyRoutes routes,
+                        UpstreamHealth health,
+                        UpstreamGuards guards,
+                        ClientQuotas quotas,
+                        Http2Upstreams h2,
+                        ProxySettings settings) {
         this.clientSocket = clientSocket;
         this.cache = cache;
         this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.connector = connector;
+        this.routes = routes;
+        this.health = health;
+        this.guards = guards;
+        this.quotas = quotas;
+        this.h2 = h2;
+        this.settings = settings;
     }
 
     @Override
     public void run() {
         long start = System.currentTimeMillis();
+        ProxyRequestEvent event = new ProxyRequestEvent();
+        event.begin();
+        HttpProxyRequest request = null;
+        Upstream upstream = null;
+        String transferKey = null;   // holds a ClientQuotas transfer slot
+        int status = 0;
 
         try {
-            clientSocket.setSoTimeout(READ_TIMEOUT);
+            clientSocket.setSoTimeout(settings.readTimeout());
 
-            InputStream clientIn = clientSocket.getInputStream();
             OutputStream clientOut = clientSocket.getOutputStream();
 
-            HttpProxyRequest request = HttpProxyRequest.parse(clientIn);
+            // Parse from a pooled buffer rather than byte-at-a-time socket reads
+            PooledInputStream clientIn = new PooledInputStream(clientSocket.getInputStream(), BufferPool.shared());
+            try {
+                request = HttpProxyRequest.parse(clientIn);
+            } finally {
+                clientIn.release(); // one request per connection, body included
+            }
             if (request == null) {
+                event.outcome = "BAD_REQUEST";
+                status = 400;
                 metrics.incrementBadRequests();
                 sendBadRequest(clientOut);
                 return;
@@ -44,10 +81,42 @@ public class ProxyHandler implements Runnable {
 
             // HTTPS tunneling not supported
             if ("CONNECT".equalsIgnoreCase(request.getMethod())) {
+                event.outcome = "NOT_IMPLEMENTED";
+                status = 501;
                 sendNotImplemented(clientOut);
                 return;
             }
 
+            event.method = request.getMethod();
+            event.host = request.getHost();
+            event.port = request.getPort();
+
+            // ---------- PER-CLIENT QUOTA ----------
+            String quotaKey = null;
+            if (quotas != null) {
+                quotaKey = quotas.keyFor(request, clientSocket.getInetAddress().getHostAddress());
+                if (!quotas.admit(quotaKey) || !quotas.beginTransfer(quotaKey)) {
+                    event.outcome = "RATE_LIMITED";
+                    status = 429;
+                    metrics.incrementRateLimited();
+                    sendTooManyRequests(clientOut);
+                    return;
+                }
+                transferKey = quotaKey;
+            }
+
+            // ---------- REVERSE-PROXY ROUTING ----------
+            UpstreamPool pool = null;
+            if (routes != null) {
+                pool = routes.match(request.getHost(), request.getPath());
+                if (pool == null) {
+                    event.outcome = "NO_ROUTE";
+                    status = 404;
+                    sendError(clientOut, "404 Not Found", "No route for request");
+                    return;
+                }
+            }
+
             metrics.incrementRequests();
             String cacheKey = request.getCacheKey();
 
@@ -57,75 +126,248 @@ public class ProxyHandler implements Runnable {
                 metrics.recordCacheLookup(cached != null);
 
             if (cached != null) {
-                System.out.println("CACHE HIT  -> " + cacheKey);
-                clientOut.write(cached);
-                clientOut.flush();
+                event.cacheStatus = "HIT";
+                event.bytes = cached.length;
+                event.outcome = "OK";
+                status = parseStatus(cached, cached.length);
+                try (Relay client = new Relay(clientSocket, settings.writeTimeout(), metrics)) {
+                    writeShaped(client, quotaKey, cached);
+                }
                 return;
     }else {
-        System.out.println("CACHE MISS -> " + cacheKey);
+        event.cacheStatus = "MISS";
     }
 }
 
+            if (pool != null) {
+                upstream = pool.choose(health);
+                if (upstream == null) {
+                    event.outcome = "UNAVAILABLE";
+                    status = 503;
+                    sendError(clientOut, "503 Service Unavailable", "No healthy upstream");
+                    return;
+                }
+                upstream.acquire();
+                request.appendHeader("X-Forwarded-For", clientSocket.getInetAddress().getHostAddress());
+                // The Host the client asked for, port included; absolute-form requests may lack one
+                String originalHost = request.getHeader("Host");
+                request.setHeader("X-Forwarded-Host", originalHost != null ? originalHost
+                        : request.getPort() == 80 ? request.getHost() : request.getHost() + ":" + request.getPort());
+                request.retarget(upstream.getHost(), upstream.getPort());
+            }
+
+            // Fail fast on an origin that has been ejected as unhealthy
+            if (!health.isAvailable(request.getHost(), request.getPort())) {
+                event.outcome = "UNAVAILABLE";
+                status = 503;
+                sendError(clientOut, "503 Service Unavailable", "Upstream temporarily ejected");
+                return;
+            }
+
+            // Per-upstream bulkhead and circuit breaker
+            UpstreamGuards.Guard guard = guards.get(request.getHost(), request.getPort());
+            UpstreamGuards.Rejection rejection = guard.tryAcquire();
+            if (rejection != null) {
+                event.outcome = rejection.name();
+                status = 503;
+                metrics.incrementUpstreamRejections();
+                sendError(clientOut, "503 Service Unavailable", rejection.message);
+                return;
+            }
+
             // ---------- CONNECT TO TARGET ----------
-            Socket target = new Socket();
-            target.connect(
-                    new InetSocketAddress(
-                            request.getHost(),
-                            request.getPort()
-                    ),
-                    CONNECT_TIMEOUT
-            );
-            target.setSoTimeout(READ_TIMEOUT);
+            int total = 0;
+            long upstreamStart = System.currentTimeMillis();
+            long firstByteMs = -1;
+            boolean upstreamOk = false;
+            boolean useH2 = h2 != null && (pool != null ? pool.isH2c()
+                    : h2.isConfigured(request.getHost(), request.getPort()));
+            try {
+                if (useH2) {
+                    // ---------- MULTIPLEXED HTTP/2 EXCHANGE ----------
+                    request.removeHopByHopHeaders();
+                    byte[] response = h2.exchange(request, settings.connectTimeout(), settings.readTimeout());
+                    status = parseStatus(response, response.length);
+                    upstreamOk = status > 0 && status < 500;
+                    // The response arrives whole, so this is time to last byte
+                    firstByteMs = System.currentTimeMillis() - upstreamStart;
+                    if (upstreamOk) {
+                        health.recordSuccess(request.getHost(), request.getPort(), firstByteMs);
+                    }
+                    try (Relay client = new Relay(clientSocket, settings.writeTimeout(), metrics)) {
+                        writeShaped(client, quotaKey, response);
+                    }
+                    total = response.length;
 
-            InputStream targetIn = target.getInputStream();
-            OutputStream targetOut = target.getOutputStream();
+                    if ("GET".equalsIgnoreCase(request.getMethod()) && total <= settings.maxCacheableBytes()) {
+                        cache.put(cacheKey, response);
+                    }
+                } else {
+                    try (Socket target = connector.connect(
+                            request.getHost(),
+                            request.getPort(),
+                            settings.connectTimeout()
+                    );
+                         BufferPool.Lease relay = BufferPool.shared().acquire();
+                         BufferChain cacheBuffer = new BufferChain(BufferPool.shared());
+                         Relay client = new Relay(clientSocket, settings.writeTimeout(), metrics)) {
+                        target.setSoTimeout(settings.readTimeout());
 
-            // Normalize headers
-            request.removeHopByHopHeaders();
-            request.addHeader("Connection", "close");
+                        InputStream targetIn = target.getInputStream();
+                        OutputStream targetOut = target.getOutputStream();
 
-            request.writeTo(targetOut);
+                        // Normalize headers
+                        request.removeHopByHopHeaders();
+                        request.addHeader("Connection", "close");
 
-            // ---------- STREAM RESPONSE ----------
-            ByteArrayOutputStream cacheBuffer = new ByteArrayOutputStream();
-            boolean cacheable = "GET".equalsIgnoreCase(request.getMethod());
+                        request.writeTo(targetOut);
 
-            byte[] buf = new byte[8192];
-            int n;
-            int total = 0;
+                        // ---------- STREAM RESPONSE ----------
+                        // One chunk in flight: the next upstream read waits until the client took this one
+                        boolean cacheable = "GET".equalsIgnoreCase(request.getMethod());
+                        int maxCacheable = settings.maxCacheableBytes();
 
-            while ((n = targetIn.read(buf)) != -1) {
-                clientOut.write(buf, 0, n);
+                        byte[] buf = relay.array();
+                        int n;
 
-                if (cacheable && total < MAX_CACHE_SIZE) {
-                    cacheBuffer.write(buf, 0, n);
-                }
+                        while ((n = targetIn.read(buf)) != -1) {
+                            if (total == 0) {
+                                status = parseStatus(buf, n);
+                                upstreamOk = status > 0 && status < 500;
+                                // Time to first byte is the latency signal for outlier detection
+                                firstByteMs = System.currentTimeMillis() - upstreamStart;
+                                if (upstreamOk) {
+                                    health.recordSuccess(request.getHost(), request.getPort(), firstByteMs);
+                                }
+                            }
+                            if (quotas != null) {
+                                quotas.throttle(quotaKey, n);
+                            }
+                            client.write(buf, 0, n);
 
-                total += n;
-            }
+                            if (cacheable) {
+                                if (total + n <= maxCacheable) {
+                                    cacheBuffer.write(buf, 0, n);
+                                } else {
+                                    // Too big to cache; give the buffers back now
+                                    cacheable = false;
+                                    cacheBuffer.release();
+                                }
+                            }
 
-            clientOut.flush();
+                            total += n;
+                        }
 
-            if (cacheable && total <= MAX_CACHE_SIZE) {
-                cache.put(cacheKey, cacheBuffer.toByteArray());
+                        if (cacheable) {
+                            cache.put(cacheKey, cacheBuffer.toByteArray());
+                        }
+                    }
+                }
+            } finally {
+                guard.release(upstreamOk, firstByteMs >= 0
+                        ? firstByteMs
+                        : System.currentTimeMillis() - upstreamStart);
+                if (!upstreamOk) {
+                    health.recordFailure(request.getHost(), request.getPort());
+                }
             }
 
-            target.close();
+            event.bytes = total;
+            event.outcome = "OK";
             metrics.recordLatency(System.currentTimeMillis() - start);
 
+        } catch (ClientQuotas.QuotaExceededException e) {
+            // Abandoned mid-response rather than parking the worker
+            event.outcome = "RATE_LIMITED";
+            metrics.incrementRateLimited();
+            logger.fine(e.getMessage());
+        } catch (Relay.WriteTimeoutException e) {
+            // Counted by the relay; the client stopped reading
+            event.outcome = "WRITE_TIMEOUT";
+            logger.fine(e.getMessage());
         } catch (SocketTimeoutException e) {
+            event.outcome = "TIMEOUT";
             metrics.incrementTimeouts();
             logger.fine("Client read timeout");
         } catch (IOException e) {
+            event.outcome = "ERROR";
             metrics.incrementErrors();
             logger.log(Level.WARNING, "Proxy error", e);
         } finally {
+            if (upstream != null) {
+                upstream.release();
+            }
+            if (transferKey != null) {
+                quotas.endTransfer(transferKey);
+            }
             try {
                 clientSocket.close();
             } catch (IOException ignored) {}
+            event.end();
+            if (event.shouldCommit()) {
+                event.commit();
+            }
+            if (accessLog != null) {
+                logAccess(request, status, event, System.currentTimeMillis() - start);
+            }
         }
     }
 
+    private void logAccess(HttpProxyRequest request, int status,
+                           ProxyRequestEvent event, long latencyMs) {
+        String client = clientSocket.getInetAddress() != null
+                ? clientSocket.getInetAddress().getHostAddress()
+                : null;
+        accessLog.log(new AccessLog.Entry(
+                System.currentTimeMillis(),
+                client,
+                request != null ? request.getMethod() : null,
+                request != null ? request.getUrl() : null,
+                request != null ? request.getVersion() : null,
+                status,
+                event.bytes,
+                latencyMs,
+                event.cacheStatus,
+                request != null && !"HIT".equals(event.cacheStatus)
+                        ? request.getHost() + ":" + request.getPort()
+                        : null
+        ));
+    }
+
+    /** Writes a whole buffered response, throttled a relay chunk at a time like a streamed one. */
+    private void writeShaped(Relay client, String quotaKey, byte[] response) throws IOException {
+        if (quotas == null) {
+            client.write(response);
+            return;
+        }
+        int chunk = BufferPool.shared().bufferSize();
+        for (int off = 0; off < response.length; off += chunk) {
+            int n = Math.min(chunk, response.length - off);
+            quotas.throttle(quotaKey, n);
+            client.write(response, off, n);
+        }
+    }
+
+    /** Extracts the status code from a buffer starting with "HTTP/1.x NNN". */
+    private static int parseStatus(byte[] buf, int len) {
+        int sp = -1;
+        for (int i = 0; i < len && i < 16; i++) {
+            if (buf[i] == ' ') {
+                sp = i;
+                break;
+            }
+        }
+        if (sp < 0 || sp + 4 > len) return 0;
+
+        int code = 0;
+        for (int i = sp + 1; i < sp + 4; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) return 0;
+            code = code * 10 + d;
+        }
+        return code;
+    }
+
     // ---------- ERROR RESPONSES ----------
 
     private void sendBadRequest(OutputStream out) throws IOException {
@@ -136,6 +378,27 @@ public class ProxyHandler implements Runnable {
         out.flush();
     }
 
+    private void sendError(OutputStream out, String statusLine, String body) throws IOException {
+        out.write((
+                "HTTP/1.1 " + statusLine + "\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "Content-Length: " + body.length() + "\r\n" +
+                "Connection: close\r\n\r\n" +
+                body
+        ).getBytes());
+        out.flush();
+    }
+
+    private void sendTooManyRequests(OutputStream out) throws IOException {
+        out.write((
+                "HTTP/1.1 429 Too Many Requests\r\n" +
+                "Retry-After: 1\r\n" +
+                "Content-Length: 0\r\n" +
+                "Connection: close\r\n\r\n"
+        ).getBytes());
+        out.flush();
+    }
+
     private void sendNotImplemented(OutputStream out) throws IOException {
         out.write((
                 "HTTP/1.1 501 Not Implemented\r\n" +
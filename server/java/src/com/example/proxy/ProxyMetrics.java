@@ -71,6 +71,10 @@ public class ProxyMetrics {
 */
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.example.net.Acceptors;
+import com.example.net.BufferPool;
+import com.example.net.TlsMetrics;
+
 public class ProxyMetrics {
 
     private final AtomicLong connectionsReceived = new AtomicLong();
@@ -79,12 +83,24 @@ public class ProxyMetrics {
     private final AtomicLong badRequests = new AtomicLong();
     private final AtomicLong errors = new AtomicLong();
     private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong upstreamRejections = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
 
     private final AtomicLong cacheLookups = new AtomicLong();
     private final AtomicLong cacheHits = new AtomicLong();
 
+    private final AtomicLong h2Connections = new AtomicLong();
+    private final AtomicLong h2Streams = new AtomicLong();
+
+    private final AtomicLong relayPauses = new AtomicLong();
+    private final AtomicLong clientWriteTimeouts = new AtomicLong();
+
     private final AtomicLong totalLatencyMs = new AtomicLong();
 
+    private volatile TlsMetrics tls;
+    private volatile Acceptors acceptors;
+
     /* ---------- Counters ---------- */
 
     public void incrementConnectionsReceived() {
@@ -107,6 +123,45 @@ public class ProxyMetrics {
         timeouts.incrementAndGet();
     }
 
+    public void incrementUpstreamRejections() {
+        upstreamRejections.incrementAndGet();
+    }
+
+    public void incrementShed() {
+        shed.incrementAndGet();
+    }
+
+    public void incrementRateLimited() {
+        rateLimited.incrementAndGet();
+    }
+
+    public void incrementH2Connections() {
+        h2Connections.incrementAndGet();
+    }
+
+    public void incrementH2Streams() {
+        h2Streams.incrementAndGet();
+    }
+
+    /** A client could not take a response chunk right away, so upstream reads waited. */
+    public void incrementRelayPauses() {
+        relayPauses.incrementAndGet();
+    }
+
+    public void incrementClientWriteTimeouts() {
+        clientWriteTimeouts.incrementAndGet();
+    }
+
+    /** Includes a TLS listener's handshake counters in the report. */
+    public void attachTls(TlsMetrics tls) {
+        this.tls = tls;
+    }
+
+    /** Includes per-acceptor accept counts and rates in the report. */
+    public void attachAcceptors(Acceptors acceptors) {
+        this.acceptors = acceptors;
+    }
+
     public void recordCacheLookup(boolean hit) {
         cacheLookups.incrementAndGet();
         if (hit) cacheHits.incrementAndGet();
@@ -141,7 +196,31 @@ public class ProxyMetrics {
         System.out.println("Bad Requests         : " + badRequests.get());
         System.out.println("Errors               : " + errors.get());
         System.out.println("Timeouts             : " + timeouts.get());
+        System.out.println("Upstream Rejected    : " + upstreamRejections.get());
+        System.out.println("Shed (503)           : " + shed.get());
+        System.out.println("Rate Limited (429)   : " + rateLimited.get());
+        System.out.println("H2 Upstream Conns    : " + h2Connections.get());
+        System.out.println("H2 Upstream Streams  : " + h2Streams.get());
+        System.out.println("Client Backpressure  : " + relayPauses.get() + " pauses");
+        System.out.println("Client Write Timeouts: " + clientWriteTimeouts.get());
         System.out.println("Average Latency      : " + avgLatency + " ms");
+        BufferPool buffers = BufferPool.shared();
+        System.out.println("Buffers In Use       : " + buffers.outstanding()
+                + " (" + buffers.pooled() + " pooled, " + buffers.allocated() + " allocated)");
+        System.out.println("Buffer Pool Hit Rate : " + String.format("%.2f%%", 100 * buffers.hitRate())
+                + " (" + buffers.discarded() + " discarded, " + buffers.leaked() + " leaked)");
+        if (tls != null) {
+            System.out.println("TLS Handshakes       : " + tls.handshakes()
+                    + " (" + tls.failures() + " failed)");
+            System.out.println("TLS Resumption Rate  : " + String.format("%.2f%%", 100 * tls.resumptionRate()));
+            System.out.println("TLS Avg Handshake    : " + tls.averageHandshakeMicros() + " us");
+        }
+        if (acceptors != null) {
+            for (int i = 0; i < acceptors.size(); i++) {
+                System.out.println(String.format("Acceptor %-12d: %d accepted (avg %.1f/s, last %.1f/s)",
+                        i, acceptors.accepted(i), acceptors.averageAcceptRate(i), acceptors.acceptRate(i)));
+            }
+        }
         System.out.println("\n======================================");
         
     }
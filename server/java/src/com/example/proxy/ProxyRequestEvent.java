@@ -0,0 +1,41 @@
+package com.example.proxy;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event covering one proxied request, from parse to client close.
+ * Only requests slower than the threshold are recorded by default.
+ */
+@Name("com.example.proxy.Request")
+@Label("Proxy Request")
+@Category({"Proxy", "Request"})
+@Description("Lifecycle of a single proxied request")
+@StackTrace(false)
+@Threshold("20 ms")
+class ProxyRequestEvent extends jdk.jfr.Event {
+
+    @Label("Method")
+    String method;
+
+    @Label("Host")
+    String host;
+
+    @Label("Port")
+    int port;
+
+    @Label("Cache Status")
+    String cacheStatus;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    long bytes;
+}
@@ -2,82 +2,207 @@ package com.example.proxy;
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.Paths;
+import java.security.Security;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
 import java.util.logging.*;
 
+import com.example.net.Acceptors;
+import com.example.net.AdaptiveConcurrencyLimiter;
+import com.example.net.ConfigFile;
+import com.example.net.GracefulShutdown;
+import com.example.net.LoadShedder;
+import com.example.net.TlsConfig;
+import com.example.net.WorkerGroups;
+
 /**
  * Multithreaded HTTP/HTTPS proxy server with LRU cache.
  * Handles concurrent client connections via ExecutorService thread pool.
  */
 public class ProxyServer {
     private static final Logger logger = Logger.getLogger(ProxyServer.class.getName());
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final long STOP_GRACE_MILLIS = 5_000;
 
     private final int port;
     private final int threadPoolSize;
-    private final ExecutorService threadPool;
+    private final int cacheSize;
+    private final WorkerGroups threadPool;
+    private final Acceptors acceptors;
     private final ProxyCache cache;
     private final ProxyMetrics metrics;
-    private volatile boolean running = false;
-    private ServerSocket serverSocket;
+    private final AccessLog accessLog;
+    private final DnsCache dns;
+    private final HappyEyeballsConnector connector;
+    private final ReverseProxyRoutes routes;
+    private final UpstreamHealth health;
+    private final HealthChecker healthChecker;
+    private final UpstreamGuards guards;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ClientQuotas quotas;
+    private final Http2Upstreams h2;
+    private final ProxySettings settings = ProxySettings.fromSystemProperties();
+    private final TlsConfig tls;
+    private final boolean reusePort = Boolean.getBoolean("proxy.reusePort");
+    private final long drainTimeoutMillis = Long.getLong("proxy.drainTimeout", 30_000L);
+    private final CountDownLatch stopped = new CountDownLatch(1);
 
     public ProxyServer(int port, int threadPoolSize, int cacheSize) {
+        this(port, threadPoolSize, cacheSize, null);
+    }
+
+    public ProxyServer(int port, int threadPoolSize, int cacheSize, AccessLog accessLog) {
+        this(port, threadPoolSize, cacheSize, accessLog, null);
+    }
+
+    /**
+     * @param routes reverse-proxy route table, or null to run as a forward proxy
+     */
+    public ProxyServer(int port, int threadPoolSize, int cacheSize,
+                       AccessLog accessLog, ReverseProxyRoutes routes) {
         this.port = port;
         this.threadPoolSize = threadPoolSize;
-        this.threadPool = new ThreadPoolExecutor(
-        threadPoolSize,
-        threadPoolSize,
-        0L,
-        TimeUnit.MILLISECONDS,
-        new ArrayBlockingQueue<>(threadPoolSize * 2),
-        new ThreadPoolExecutor.CallerRunsPolicy()
-);
+        this.cacheSize = cacheSize;
+        this.acceptors = new Acceptors("proxy", Integer.getInteger("proxy.acceptors", 1));
+        // One worker group per acceptor; overload is shed in the accept loop
+        this.threadPool = new WorkerGroups("proxy-worker", acceptors.size(),
+                threadPoolSize, threadPoolSize * 2);
+        // Admitted work can never exceed workers + queue slots
+        this.limiter = AdaptiveConcurrencyLimiter.fromSystemProperties(
+                "proxy.limiter", threadPoolSize * 3);
 
         this.cache = new ProxyCache(cacheSize);
         this.metrics = new ProxyMetrics();
+        metrics.attachAcceptors(acceptors);
+        this.accessLog = accessLog;
+        this.dns = DnsCache.fromSystemProperties();
+        this.connector = HappyEyeballsConnector.fromSystemProperties(dns);
+        this.h2 = Http2Upstreams.fromSystemProperties(connector, metrics);
+        this.routes = routes;
+        this.health = UpstreamHealth.fromSystemProperties();
+        // By default one upstream may use at most half of the workers
+        this.guards = new UpstreamGuards(
+                Integer.getInteger("proxy.bulkhead.maxConcurrent", Math.max(1, threadPoolSize / 2)),
+                CircuitBreaker.Config.fromSystemProperties());
+
+        try {
+            this.tls = TlsConfig.fromSystemProperties("proxy.tls", "http/1.1");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot configure TLS", e);
+        }
+        if (tls != null) metrics.attachTls(tls.metrics());
+
+        try {
+            this.quotas = ClientQuotas.fromSystemProperties();
+        } catch (SocketException e) {
+            throw new UncheckedIOException("Cannot bind cluster rate limiter", e);
+        }
+
+        long probeInterval = Long.getLong("proxy.health.probeInterval", 0L);
+        if (routes != null && probeInterval > 0) {
+            this.healthChecker = new HealthChecker(routes, health,
+                    System.getProperty("proxy.health.probePath"));
+            this.healthChecker.start(probeInterval);
+        } else {
+            this.healthChecker = null;
+        }
     }
 
   public void start() throws IOException {
-      serverSocket = new ServerSocket();
-    serverSocket.setReuseAddress(true);
-    serverSocket.bind(new InetSocketAddress(port), 1024);
+    try {
+        boolean reusePortEnabled = acceptors.bind(port, ACCEPT_BACKLOG, reusePort);
+        if ((reusePort || acceptors.size() > 1) && !reusePortEnabled) {
+            logger.warning("SO_REUSEPORT not supported; " + acceptors.size()
+                    + " acceptor(s) share one listener");
+        }
 
-    running = true;
-    logger.info("Proxy Server started on port " + port +
-                " with thread pool size: " + threadPoolSize);
+        logger.info("Proxy Server started on port " + port +
+                    " with thread pool size: " + threadPool.threads() +
+                    (acceptors.size() > 1 ? ", " + acceptors.size() + " acceptors" : "") +
+                    (routes != null ? " (reverse-proxy mode)" : "") +
+                    (reusePortEnabled ? " (SO_REUSEPORT)" : "") +
+                    (tls != null ? " with " + tls.describe() : ""));
 
-    while (running) {
+        // Stopping takes what the kernel already queued (closing would
+        // reset it) and closes the listeners so new connections go to the
+        // next process; then in-flight requests get to finish
+        int queued = acceptors.run(this::dispatch,
+                e -> logger.log(Level.WARNING, "Error accepting connection", e));
+        shutdownLog("Stopped accepting (" + queued + " queued connections taken), draining "
+                + limiter.getInFlight() + " in flight");
+        boolean drained = GracefulShutdown.awaitDrained(limiter::getInFlight, drainTimeoutMillis,
+                ProxyServer::shutdownLog);
+        threadPool.shutdown();
+        if (!drained) {
+            shutdownLog("Cancelling " + limiter.getInFlight() + " requests still in flight");
+            threadPool.shutdownNow();
+        }
         try {
-            Socket clientSocket = serverSocket.accept();
-            metrics.incrementConnectionsReceived();
+            threadPool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    } finally {
+        acceptors.close();
+        stopped.countDown();
+    }
+    }
 
-            try {
-                threadPool.execute(
-                    new ProxyHandler(clientSocket, cache, metrics)
-                );
-            } catch (RejectedExecutionException e) {
-                metrics.incrementErrors();
-                clientSocket.close();
-                logger.warning("Dropped connection due to overload");
-            }
+    /** Hands an accepted connection to its acceptor's worker group, or sheds it. */
+    private void dispatch(Socket accepted, int acceptor) throws IOException {
+        Socket clientSocket = tls != null ? tls.wrap(accepted) : accepted;
+        metrics.incrementConnectionsReceived();
 
-        } catch (SocketException e) {
-              if (!running) break;
-              logger.log(Level.WARNING, "Error accepting connection", e);
-          }
+        if (!limiter.tryAcquire()) {
+            metrics.incrementShed();
+            ConnectionDroppedEvent.emit(clientSocket, "SHED");
+            LoadShedder.reject(clientSocket);
+            return;
+        }
+
+        long acceptedAt = System.nanoTime();
+        ProxyHandler handler = new ProxyHandler(clientSocket, cache, metrics,
+                accessLog, connector, routes, health, guards, quotas, h2, settings);
+        try {
+            threadPool.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    limiter.release(System.nanoTime() - acceptedAt);
+                }
+            }, acceptor);
+        } catch (RejectedExecutionException e) {
+            limiter.releaseDropped();
+            metrics.incrementShed();
+            ConnectionDroppedEvent.emit(clientSocket, "REJECTED");
+            LoadShedder.reject(clientSocket);
+            logger.fine("Queue full, shed connection");
         }
     }
 
+    /**
+     * Stops accepting, waits up to {@code proxy.drainTimeout} ms for
+     * in-flight requests (reporting progress), cancels what is left, then
+     * releases the remaining resources and prints the metrics.
+     */
     public void stop() {
-        running = false;
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+        acceptors.stop();
+        if (acceptors.isBound()) {
+            try {
+                if (!stopped.await(drainTimeoutMillis + STOP_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                    logger.warning("Gave up waiting for the accept loop to finish");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        } catch (IOException e) {
-            logger.log(Level.WARNING, "Error closing server socket", e);
+        } else {
+            threadPool.shutdown();
+        }
+        dns.shutdown();
+        if (healthChecker != null) {
+            healthChecker.stop();
         }
-        threadPool.shutdown();
         try {
             if (!threadPool.awaitTermination(5, TimeUnit.SECONDS)) {
                 threadPool.shutdownNow();
@@ -85,11 +210,44 @@ public class ProxyServer {
         } catch (InterruptedException e) {
             threadPool.shutdownNow();
             Thread.currentThread().interrupt();
+        }
+        h2.close();
+        if (accessLog != null) {
+            try {
+                accessLog.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Error closing access log", e);
+            }
+            logger.info("Access log lines dropped: " + accessLog.getDroppedLines());
         }
          metrics.printMetrics();
         logger.info("Proxy Server stopped");
     }
 
+    /**
+     * Applies {@code config} now and on every reload: {@code proxy.threads}
+     * and {@code proxy.cache.maxEntries} (defaulting to the constructor
+     * arguments), {@code proxy.cache.ttl} (ms) and the {@link ProxySettings}
+     * timeouts. The limiter and bulkheads keep their startup sizes.
+     */
+    public void configure(ConfigFile config) {
+        config.onChange(p -> {
+            int threads = ConfigFile.getInt(p, "proxy.threads", threadPoolSize);
+            int maxEntries = ConfigFile.getInt(p, "proxy.cache.maxEntries", cacheSize);
+            long ttl = ConfigFile.getLong(p, "proxy.cache.ttl", ProxyCache.DEFAULT_TTL_MILLIS);
+            if (threads < 1 || maxEntries < 1 || ttl < 0) {
+                throw new IllegalArgumentException("Invalid settings: proxy.threads=" + threads
+                        + " proxy.cache.maxEntries=" + maxEntries + " proxy.cache.ttl=" + ttl);
+            }
+            settings.apply(p);
+            threadPool.resize(threads);
+            cache.setMaxSize(maxEntries);
+            cache.setTtlMillis(ttl);
+            logger.info("Settings: threads=" + threadPool.threads() + " cache=" + maxEntries
+                    + " entries/" + ttl + "ms " + settings);
+        });
+    }
+
     public ProxyMetrics getMetrics() {
         return metrics;
     }
@@ -102,11 +260,28 @@ public class ProxyServer {
             h.setLevel(Level.INFO);
         }
 
+        // DnsCache owns upstream name caching; keep the JVM from caching underneath it
+        Security.setProperty("networkaddress.cache.ttl", "0");
+        Security.setProperty("networkaddress.cache.negative.ttl", "0");
+
         int port = args.length > 0 ? Integer.parseInt(args[0]) : 9090;
         int threadPoolSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
         int cacheSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
 
-        ProxyServer server = new ProxyServer(port, threadPoolSize, cacheSize);
+        String routesFile = System.getProperty("proxy.routes");
+        ReverseProxyRoutes routes = routesFile != null
+                ? ReverseProxyRoutes.load(Paths.get(routesFile))
+                : null;
+
+        ProxyServer server = new ProxyServer(port, threadPoolSize, cacheSize,
+                AccessLog.fromSystemProperties(), routes);
+
+        // -Dproxy.config=<file>: tuning settings re-read whenever the file changes
+        ConfigFile config = ConfigFile.fromSystemProperty("proxy.config");
+        if (config != null) {
+            server.configure(config);
+            config.watch();
+        }
 
         // Graceful shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -117,4 +292,11 @@ public class ProxyServer {
         server.start();
     }
 
+    /**
+     * JUL resets its handlers from its own shutdown hook, racing ours, so
+     * drain progress goes to stdout alongside the final metrics.
+     */
+    private static void shutdownLog(String message) {
+        System.out.println("[proxy] " + message);
+    }
 }
@@ -0,0 +1,66 @@
+package com.example.proxy;
+
+import java.util.Properties;
+
+import com.example.net.ConfigFile;
+
+/**
+ * Per-request timeouts and the cacheable response limit. Handlers read
+ * them for every request, so a reloaded config file takes effect on the
+ * next request without a restart.
+ *
+ * Keys: {@code proxy.readTimeout} (ms, 10000), {@code proxy.connectTimeout}
+ * (ms, 5000), {@code proxy.writeTimeout} (ms, 30000) and
+ * {@code proxy.cache.maxObjectSize} (bytes, 524288), each falling back to
+ * the system property of the same name. Timeouts must be positive: the
+ * connector, relay and HTTP/2 exchange all treat a zero budget as already
+ * expired, so there is no "no timeout" setting.
+ */
+public final class ProxySettings {
+
+    private volatile int readTimeout;
+    private volatile int connectTimeout;
+    // How long a client may go without accepting any response bytes
+    private volatile int writeTimeout;
+    private volatile int maxCacheableBytes;
+
+    public static ProxySettings fromSystemProperties() {
+        ProxySettings s = new ProxySettings();
+        s.apply(new Properties());
+        return s;
+    }
+
+    int readTimeout() { return readTimeout; }
+    int connectTimeout() { return connectTimeout; }
+    int writeTimeout() { return writeTimeout; }
+    int maxCacheableBytes() { return maxCacheableBytes; }
+
+    /** Takes the values from {@code p}; nothing changes if any of them is invalid. */
+    public void apply(Properties p) {
+        int read = positive("proxy.readTimeout", ConfigFile.getInt(p, "proxy.readTimeout", 10_000));
+        int connect = positive("proxy.connectTimeout", ConfigFile.getInt(p, "proxy.connectTimeout", 5_000));
+        int write = positive("proxy.writeTimeout", ConfigFile.getInt(p, "proxy.writeTimeout", 30_000));
+        int maxObject = nonNegative("proxy.cache.maxObjectSize",
+                ConfigFile.getInt(p, "proxy.cache.maxObjectSize", 512 * 1024));
+        this.readTimeout = read;
+        this.connectTimeout = connect;
+        this.writeTimeout = write;
+        this.maxCacheableBytes = maxObject;
+    }
+
+    @Override
+    public String toString() {
+        return "timeouts(read/connect/write)=" + readTimeout + "/" + connectTimeout + "/" + writeTimeout
+                + "ms maxCacheable=" + maxCacheableBytes + "B";
+    }
+
+    private static int positive(String key, int value) {
+        if (value <= 0) throw new IllegalArgumentException(key + " must be > 0: " + value);
+        return value;
+    }
+
+    private static int nonNegative(String key, int value) {
+        if (value < 0) throw new IllegalArgumentException(key + " must be >= 0: " + value);
+        return value;
+    }
+}
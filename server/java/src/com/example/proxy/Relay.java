@@ -0,0 +1,183 @@
+package com.example.proxy;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.concurrent.*;
+
+/**
+ * The client side of a response relay, with a write timeout.
+ *
+ * {@link ProxyHandler} moves a response through one pooled buffer: it
+ * reads a chunk from the origin, writes it here, and only reads again
+ * once the write is done. A client that stops draining therefore stops
+ * the upstream reads too, and the origin is throttled by TCP flow control
+ * rather than by memory on the proxy.
+ *
+ * Writes go out non-blocking when the client socket has a channel. A
+ * write the socket cannot take counts as a backpressure pause, and the
+ * relay waits for the client to become writable on a selector borrowed
+ * from a small shared pool. If the client makes no progress for {@code writeTimeoutMillis}
+ * the write fails with {@link WriteTimeoutException}, releasing the worker,
+ * and the connection is reset so its unsent bytes are dropped too.
+ * Sockets without a channel (TLS) write blocking in bounded slices, each
+ * guarded by a timer that closes the socket when it fires.
+ */
+final class Relay implements Closeable {
+
+    /** The client stopped reading for longer than the write timeout. */
+    static final class WriteTimeoutException extends SocketTimeoutException {
+        private static final long serialVersionUID = 1L;
+
+        WriteTimeoutException(long millis) {
+            super("Client made no write progress for " + millis + " ms");
+        }
+    }
+
+    private static final int SLICE = 16 * 1024;
+
+    // Closes stalled blocking writes; cancelled timers are removed right away
+    private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "relay-write-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        WATCHDOG.setRemoveOnCancelPolicy(true);
+    }
+
+    // Selectors for waiting on writability. Shared rather than per thread, since worker
+    // threads come and go on resize; extras beyond the pool's size are closed after use.
+    private static final int MAX_IDLE_SELECTORS = 16;
+    private static final BlockingQueue<Selector> SELECTORS = new ArrayBlockingQueue<>(MAX_IDLE_SELECTORS);
+
+    private final Socket socket;
+    private final SocketChannel channel;
+    private final OutputStream out;
+    private final long writeTimeoutMillis;
+    private final ProxyMetrics metrics;
+    private volatile boolean timedOut;
+
+    Relay(Socket socket, long writeTimeoutMillis, ProxyMetrics metrics) throws IOException {
+        this.socket = socket;
+        this.channel = socket.getChannel();
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.metrics = metrics;
+        if (channel != null) {
+            channel.configureBlocking(false);
+            this.out = null;
+        } else {
+            this.out = socket.getOutputStream();
+        }
+    }
+
+    /** Writes all of {@code b[off..off+len)}, failing if the client stalls for longer than the write timeout. */
+    void write(byte[] b, int off, int len) throws IOException {
+        if (channel != null) {
+            writeNonBlocking(ByteBuffer.wrap(b, off, len));
+        } else {
+            writeGuarded(b, off, len);
+        }
+    }
+
+    void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    /** Puts the socket back in blocking mode for whoever uses it next. */
+    @Override
+    public void close() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.configureBlocking(true);
+        }
+    }
+
+    private void writeNonBlocking(ByteBuffer src) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        while (src.hasRemaining()) {
+            if (channel.write(src) > 0) {
+                // Progress restarts the clock: a slow client is fine, a stalled one is not
+                deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+                continue;
+            }
+            metrics.incrementRelayPauses();
+            awaitWritable(deadline);
+        }
+    }
+
+    private void awaitWritable(long deadline) throws IOException {
+        Selector selector = borrowSelector();
+        SelectionKey key = null;
+        try {
+            key = channel.register(selector, SelectionKey.OP_WRITE);
+            while (true) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    metrics.incrementClientWriteTimeouts();
+                    discardOnClose();
+                    throw new WriteTimeoutException(writeTimeoutMillis);
+                }
+                if (selector.select(remaining) > 0) {
+                    selector.selectedKeys().clear();
+                    return;
+                }
+            }
+        } finally {
+            if (key != null) key.cancel();
+            releaseSelector(selector);
+        }
+    }
+
+    private void writeGuarded(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, SLICE);
+            ScheduledFuture<?> alarm = WATCHDOG.schedule(this::abort, writeTimeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                out.write(b, off, n);
+                out.flush();
+            } catch (IOException e) {
+                if (timedOut) throw new WriteTimeoutException(writeTimeoutMillis);
+                throw e;
+            } finally {
+                alarm.cancel(false);
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void abort() {
+        timedOut = true;
+        metrics.incrementClientWriteTimeouts();
+        discardOnClose();
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    /** Reset instead of FIN on close, so the kernel drops the unsent bytes now rather than retrying them. */
+    private void discardOnClose() {
+        try {
+            socket.setSoLinger(true, 0);
+        } catch (SocketException ignored) {}
+    }
+
+    private static Selector borrowSelector() throws IOException {
+        Selector s = SELECTORS.poll();
+        return s != null ? s : Selector.open();
+    }
+
+    private static void releaseSelector(Selector s) {
+        try {
+            s.selectNow(); // deregister now so the channel can go back to blocking mode
+            if (SELECTORS.offer(s)) return;
+        } catch (IOException ignored) {
+            // Broken selector; closing it deregisters the channel all the same
+        }
+        try {
+            s.close();
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.proxy;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Route table for reverse-proxy mode: maps a hostname and/or path prefix
+ * to a named {@link UpstreamPool}.
+ *
+ * Loaded from a properties file:
+ * <pre>
+ * pool.api.servers  = 127.0.0.1:8081, 127.0.0.1:8082
+ * pool.api.balancer = least-connections   # round-robin | power-of-two
+ * pool.api.protocol = h2c                 # optional, defaults to http/1.1
+ *
+ * route.api.host    = api.example.com     # optional
+ * route.api.prefix  = /api                # optional, defaults to /
+ * route.api.pool    = api
+ * </pre>
+ * Routes with a host win over host-less routes; among those the longest
+ * matching prefix wins.
+ */
+public class ReverseProxyRoutes {
+
+    public static final class Route {
+        final String host;     // null matches any host
+        final String prefix;
+        final UpstreamPool pool;
+
+        Route(String host, String prefix, UpstreamPool pool) {
+            this.host = host;
+            this.prefix = prefix;
+            this.pool = pool;
+        }
+
+        boolean matches(String reqHost, String path) {
+            if (host != null && !host.equalsIgnoreCase(reqHost)) return false;
+            if (!path.startsWith(prefix)) return false;
+            // "/api" must not match "/apiary"
+            return prefix.endsWith("/")
+                    || path.length() == prefix.length()
+                    || path.charAt(prefix.length()) == '/'
+                    || path.charAt(prefix.length()) == '?';
+        }
+    }
+
+    private final List<Route> routes;
+    private final Map<String, UpstreamPool> pools;
+
+    public ReverseProxyRoutes(List<Route> routes, Map<String, UpstreamPool> pools) {
+        List<Route> sorted = new ArrayList<>(routes);
+        sorted.sort(Comparator
+                .comparing((Route r) -> r.host == null)
+                .thenComparing(r -> -r.prefix.length()));
+        this.routes = List.copyOf(sorted);
+        this.pools = Map.copyOf(pools);
+    }
+
+    public static ReverseProxyRoutes load(Path file) throws IOException {
+        Properties props = new Properties();
+        try (Reader r = Files.newBufferedReader(file)) {
+            props.load(r);
+        }
+        return fromProperties(props);
+    }
+
+    public static ReverseProxyRoutes fromProperties(Properties props) {
+        Map<String, UpstreamPool> pools = new LinkedHashMap<>();
+        for (String name : names(props, "pool.")) {
+            String servers = props.getProperty("pool." + name + ".servers", "");
+            List<Upstream> members = new ArrayList<>();
+            for (String spec : servers.split(",")) {
+                if (!spec.isBlank()) members.add(Upstream.parse(spec));
+            }
+            UpstreamPool.Strategy strategy = UpstreamPool.Strategy.parse(
+                    props.getProperty("pool." + name + ".balancer", "round-robin"));
+            String protocol = props.getProperty("pool." + name + ".protocol", "http/1.1").trim();
+            pools.put(name, new UpstreamPool(name, members, strategy, protocol.equalsIgnoreCase("h2c")));
+        }
+
+        List<Route> routes = new ArrayList<>();
+        for (String name : names(props, "route.")) {
+            String poolName = props.getProperty("route." + name + ".pool");
+            UpstreamPool pool = pools.get(poolName);
+            if (pool == null) {
+                throw new IllegalArgumentException(
+                        "Route '" + name + "' refers to unknown pool '" + poolName + "'");
+            }
+            String host = props.getProperty("route." + name + ".host");
+            String prefix = props.getProperty("route." + name + ".prefix", "/").trim();
+            routes.add(new Route(host == null ? null : host.trim(), prefix, pool));
+        }
+        return new ReverseProxyRoutes(routes, pools);
+    }
+
+    private static Set<String> names(Properties props, String prefix) {
+        Set<String> names = new TreeSet<>();
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                int end = key.indexOf('.', prefix.length());
+                if (end > prefix.length()) {
+                    names.add(key.substring(prefix.length(), end));
+                }
+            }
+        }
+        return names;
+    }
+
+    /** Returns the pool serving {@code host} + {@code path}, or null if unrouted. */
+    public UpstreamPool match(String host, String path) {
+        for (Route r : routes) {
+            if (r.matches(host, path)) return r.pool;
+        }
+        return null;
+    }
+
+    public Collection<UpstreamPool> getPools() {
+        return pools.values();
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.proxy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Per-host state with a size cap.
+ *
+ * The proxy keeps state per upstream name and address, and in forward mode
+ * clients choose those, so every such map needs a bound. When the map is
+ * full, entries the owner reports as expendable are swept out (at most once
+ * a second, so a flood of new hosts cannot turn every lookup into a scan).
+ * If nothing is expendable, new keys are not tracked: live state such as an
+ * ejection, an open breaker or a busy bulkhead is never evicted to make room.
+ */
+final class StateMap<K, V> {
+
+    /** Tells the sweep whether a state can be dropped at {@code now}. */
+    interface ExpendableCheck<V> {
+        boolean isExpendable(V state, long now);
+    }
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<K, V> map = new ConcurrentHashMap<>();
+    private final int max;
+    private final ExpendableCheck<? super V> expendable;
+    private final AtomicLong lastSweepNanos = new AtomicLong(System.nanoTime() - SWEEP_INTERVAL_NANOS);
+
+    StateMap(int max, ExpendableCheck<? super V> expendable) {
+        this.max = Math.max(1, max);
+        this.expendable = expendable;
+    }
+
+    V get(K key) {
+        return map.get(key);
+    }
+
+    /** The state for {@code key}, created if there is room; null when the map is full. */
+    V getOrCreate(K key, Function<? super K, ? extends V> factory) {
+        V v = map.get(key);
+        if (v != null || !hasRoom()) return v;
+        return map.computeIfAbsent(key, factory);
+    }
+
+    /** Stores {@code value}; returns false, storing nothing, if {@code key} is new and the map is full. */
+    boolean put(K key, V value) {
+        if (!map.containsKey(key) && !hasRoom()) return false;
+        map.put(key, value);
+        return true;
+    }
+
+    void remove(K key) {
+        map.remove(key);
+    }
+
+    void remove(K key, V value) {
+        map.remove(key, value);
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    // Concurrent inserts may overshoot the cap by a few; it is a bound, not an exact size
+    private boolean hasRoom() {
+        if (map.size() < max) return true;
+        long now = System.nanoTime();
+        long last = lastSweepNanos.get();
+        if (now - last >= SWEEP_INTERVAL_NANOS && lastSweepNanos.compareAndSet(last, now)) {
+            map.values().removeIf(v -> expendable.isExpendable(v, now));
+        }
+        return map.size() < max;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.proxy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One origin server in an {@link UpstreamPool}, with its live in-flight count.
+ */
+public class Upstream {
+
+    private final String host;
+    private final int port;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public Upstream(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /** Parses {@code host:port} (port defaults to 80). */
+    public static Upstream parse(String spec) {
+        String s = spec.trim();
+        int idx = s.lastIndexOf(':');
+        if (idx > 0 && s.indexOf(']') < idx) {
+            return new Upstream(stripBrackets(s.substring(0, idx)),
+                    Integer.parseInt(s.substring(idx + 1)));
+        }
+        return new Upstream(stripBrackets(s), 80);
+    }
+
+    private static String stripBrackets(String host) {
+        return host.startsWith("[") && host.endsWith("]")
+                ? host.substring(1, host.length() - 1)
+                : host;
+    }
+
+    public String getHost() { return host; }
+    public int getPort() { return port; }
+    public int getInFlight() { return inFlight.get(); }
+
+    void acquire() {
+        inFlight.incrementAndGet();
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
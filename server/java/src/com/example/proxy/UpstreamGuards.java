@@ -0,0 +1,102 @@
+package com.example.proxy;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Per-upstream bulkheads and circuit breakers.
+ *
+ * Each {@code host:port} gets its own cap on concurrent in-flight requests
+ * and its own {@link CircuitBreaker}, so a single slow or failing origin
+ * can only tie up its share of the worker pool.
+ *
+ * In forward mode clients pick the upstreams, so at most {@code MAX_TRACKED}
+ * guards are kept. When full, ones with nothing in flight and a closed
+ * breaker are dropped; if there are none, further upstreams share a single
+ * overflow guard, so a flood of new hosts is still capped as a whole and
+ * never evicts a busy bulkhead or an open breaker.
+ */
+public class UpstreamGuards {
+
+    private static final int MAX_TRACKED = 10_000;
+
+    /** Why a request was refused before contacting the upstream. */
+    public enum Rejection {
+        BULKHEAD_FULL("Upstream concurrency limit reached"),
+        CIRCUIT_OPEN("Upstream circuit open");
+
+        final String message;
+
+        Rejection(String message) {
+            this.message = message;
+        }
+    }
+
+    /** Guard state for a single upstream. */
+    public static final class Guard {
+        private final int maxConcurrent;
+        private final Semaphore bulkhead;
+        private final CircuitBreaker breaker;
+
+        Guard(String name, int maxConcurrent, CircuitBreaker.Config config) {
+            this.maxConcurrent = maxConcurrent;
+            this.bulkhead = new Semaphore(maxConcurrent);
+            this.breaker = new CircuitBreaker(name, config);
+        }
+
+        /** Returns null when admitted; the caller must then call {@link #release}. */
+        public Rejection tryAcquire() {
+            if (!bulkhead.tryAcquire()) {
+                return Rejection.BULKHEAD_FULL;
+            }
+            if (!breaker.tryAcquire()) {
+                bulkhead.release();
+                return Rejection.CIRCUIT_OPEN;
+            }
+            return null;
+        }
+
+        /** Records the outcome and frees the bulkhead slot. */
+        public void release(boolean success, long latencyMs) {
+            try {
+                if (success) {
+                    breaker.onSuccess(latencyMs);
+                } else {
+                    breaker.onFailure();
+                }
+            } finally {
+                bulkhead.release();
+            }
+        }
+
+        public CircuitBreaker getBreaker() {
+            return breaker;
+        }
+
+        public int getAvailablePermits() {
+            return bulkhead.availablePermits();
+        }
+
+        /** Nothing in flight and nothing tripped; a fresh guard would behave the same. */
+        boolean isIdle() {
+            return bulkhead.availablePermits() == maxConcurrent
+                    && breaker.getState() == CircuitBreaker.State.CLOSED;
+        }
+    }
+
+    private final int maxConcurrentPerUpstream;
+    private final CircuitBreaker.Config breakerConfig;
+    private final StateMap<String, Guard> guards = new StateMap<>(MAX_TRACKED, (g, now) -> g.isIdle());
+    private final Guard overflow;
+
+    public UpstreamGuards(int maxConcurrentPerUpstream, CircuitBreaker.Config breakerConfig) {
+        this.maxConcurrentPerUpstream = Math.max(1, maxConcurrentPerUpstream);
+        this.breakerConfig = breakerConfig;
+        this.overflow = new Guard("untracked upstreams", this.maxConcurrentPerUpstream, breakerConfig);
+    }
+
+    public Guard get(String host, int port) {
+        Guard g = guards.getOrCreate(UpstreamHealth.key(host, port),
+                k -> new Guard(k, maxConcurrentPerUpstream, breakerConfig));
+        return g != null ? g : overflow;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.*;
+
+/**
+ * Passive health tracking and outlier ejection for upstream origins.
+ *
+ * Every proxied exchange reports success (with latency) or failure for its
+ * {@code host:port}. After too many consecutive failures, or when the
+ * smoothed latency exceeds a limit, the origin is ejected for a back-off
+ * period that doubles on each repeated ejection. Ejected origins are
+ * refused up front so requests fail fast instead of burning a worker for
+ * the whole read timeout.
+ *
+ * In forward mode clients pick the origins, so at most {@code MAX_TRACKED}
+ * are tracked. When full, origins with nothing to remember (not ejected,
+ * no failures) are forgotten; if there are none, new origins go untracked
+ * rather than wiping out existing ejections.
+ */
+public class UpstreamHealth {
+
+    private static final Logger logger =
+            Logger.getLogger(UpstreamHealth.class.getName());
+
+    /** Weight of the newest sample in the latency EWMA. */
+    private static final double EWMA_ALPHA = 0.2;
+
+    /** Samples needed before latency can trigger an ejection. */
+    private static final int MIN_LATENCY_SAMPLES = 10;
+
+    private static final int MAX_TRACKED = 10_000;
+
+    private static final class State {
+        int consecutiveFailures;
+        int ejections;
+        long samples;
+        double ewmaLatencyMs;
+        volatile long ejectedUntilNanos;
+
+        synchronized boolean isClean(long now) {
+            return consecutiveFailures == 0 && ejections == 0 && now >= ejectedUntilNanos;
+        }
+    }
+
+    private final int maxConsecutiveFailures;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final long maxLatencyMs;
+    private final StateMap<String, State> states = new StateMap<>(MAX_TRACKED, State::isClean);
+
+    /**
+     * @param maxLatencyMs smoothed latency that triggers ejection, 0 to disable
+     */
+    public UpstreamHealth(int maxConsecutiveFailures, long baseEjectionMillis,
+                          long maxEjectionMillis, long maxLatencyMs) {
+        this.maxConsecutiveFailures = Math.max(1, maxConsecutiveFailures);
+        this.baseEjectionNanos = TimeUnit.MILLISECONDS.toNanos(baseEjectionMillis);
+        this.maxEjectionNanos = TimeUnit.MILLISECONDS.toNanos(maxEjectionMillis);
+        this.maxLatencyMs = maxLatencyMs;
+    }
+
+    /**
+     * Builds a tracker from {@code proxy.health.*} system properties:
+     * {@code consecutiveFailures}, {@code baseEjection}, {@code maxEjection}
+     * and {@code maxLatency} (milliseconds, 0 disables latency ejection).
+     */
+    public static UpstreamHealth fromSystemProperties() {
+        return new UpstreamHealth(
+                Integer.getInteger("proxy.health.consecutiveFailures", 5),
+                Long.getLong("proxy.health.baseEjection", 10_000L),
+                Long.getLong("proxy.health.maxEjection", 300_000L),
+                Long.getLong("proxy.health.maxLatency", 0L)
+        );
+    }
+
+    static String key(String host, int port) {
+        return host + ":" + port;
+    }
+
+    /** True unless the origin is currently ejected. */
+    public boolean isAvailable(String host, int port) {
+        State s = states.get(key(host, port));
+        return s == null || System.nanoTime() >= s.ejectedUntilNanos;
+    }
+
+    public boolean isAvailable(Upstream u) {
+        return isAvailable(u.getHost(), u.getPort());
+    }
+
+    public void recordSuccess(String host, int port, long latencyMs) {
+        State s = states.getOrCreate(key(host, port), k -> new State());
+        if (s == null) return; // too many origins to track this one
+        synchronized (s) {
+            s.consecutiveFailures = 0;
+            s.samples++;
+            s.ewmaLatencyMs = s.samples == 1
+                    ? latencyMs
+                    : EWMA_ALPHA * latencyMs + (1 - EWMA_ALPHA) * s.ewmaLatencyMs;
+
+            if (maxLatencyMs > 0
+                    && s.samples >= MIN_LATENCY_SAMPLES
+                    && s.ewmaLatencyMs > maxLatencyMs) {
+                eject(key(host, port), s, "latency " + (long) s.ewmaLatencyMs + " ms");
+            } else if (System.nanoTime() >= s.ejectedUntilNanos) {
+                // Healthy again after serving traffic: reset the back-off
+                s.ejections = 0;
+            }
+        }
+    }
+
+    public void recordFailure(String host, int port) {
+        State s = states.getOrCreate(key(host, port), k -> new State());
+        if (s == null) return;
+        synchronized (s) {
+            s.consecutiveFailures++;
+            if (System.nanoTime() < s.ejectedUntilNanos) {
+                return; // already ejected; late result from an earlier request
+            }
+            // A returning origin gets the full threshold again; repeat ejections last longer
+            if (s.consecutiveFailures >= maxConsecutiveFailures) {
+                eject(key(host, port), s, s.consecutiveFailures + " consecutive failures");
+            }
+        }
+    }
+
+    /** Active probe passed: lift any ejection immediately. */
+    void probeSucceeded(String host, int port) {
+        State s = states.get(key(host, port));
+        if (s == null) return;
+        synchronized (s) {
+            if (s.ejectedUntilNanos != 0) {
+                logger.info("Upstream " + key(host, port) + " passed health check, restoring");
+            }
+            s.consecutiveFailures = 0;
+            s.samples = 0;
+            s.ejectedUntilNanos = 0;
+        }
+    }
+
+    private void eject(String key, State s, String reason) {
+        int shift = Math.min(s.ejections, 20);
+        long duration = Math.min(maxEjectionNanos, baseEjectionNanos << shift);
+        s.ejections++;
+        s.consecutiveFailures = 0;
+        s.samples = 0;
+        s.ejectedUntilNanos = System.nanoTime() + duration;
+        logger.warning("Ejecting upstream " + key + " for "
+                + TimeUnit.NANOSECONDS.toMillis(duration) + " ms (" + reason + ")");
+    }
+}
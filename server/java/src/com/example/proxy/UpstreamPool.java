@@ -0,0 +1,109 @@
+package com.example.proxy;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Named group of interchangeable upstreams with a load-balancing strategy.
+ */
+public class UpstreamPool {
+
+    public enum Strategy {
+        ROUND_ROBIN,
+        LEAST_CONNECTIONS,
+        /** Pick two members at random, use the one with fewer in-flight requests. */
+        POWER_OF_TWO;
+
+        public static Strategy parse(String s) {
+            return valueOf(s.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    private final String name;
+    private final List<Upstream> members;
+    private final Strategy strategy;
+    private final boolean h2c;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public UpstreamPool(String name, List<Upstream> members, Strategy strategy) {
+        this(name, members, strategy, false);
+    }
+
+    /**
+     * @param h2c members speak HTTP/2 over cleartext; requests are
+     *            multiplexed onto shared connections by {@link Http2Upstreams}
+     */
+    public UpstreamPool(String name, List<Upstream> members, Strategy strategy, boolean h2c) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("Upstream pool '" + name + "' has no servers");
+        }
+        this.name = name;
+        this.members = List.copyOf(members);
+        this.strategy = strategy;
+        this.h2c = h2c;
+    }
+
+    public String getName() { return name; }
+    public List<Upstream> getMembers() { return members; }
+    public Strategy getStrategy() { return strategy; }
+    public boolean isH2c() { return h2c; }
+
+    /**
+     * Picks the upstream for the next request, skipping members that
+     * {@code health} reports as ejected. Returns null if none is available.
+     */
+    public Upstream choose(UpstreamHealth health) {
+        int n = members.size();
+        int offset = Math.floorMod(next.getAndIncrement(), n);
+
+        switch (strategy) {
+            case LEAST_CONNECTIONS: {
+                // Start at the rotating offset so ties are spread evenly
+                Upstream best = null;
+                for (int i = 0; i < n; i++) {
+                    Upstream u = members.get((offset + i) % n);
+                    if (!isAvailable(health, u)) continue;
+                    if (best == null || u.getInFlight() < best.getInFlight()) {
+                        best = u;
+                    }
+                }
+                return best;
+            }
+            case POWER_OF_TWO: {
+                if (n > 1) {
+                    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                    int a = rnd.nextInt(n);
+                    int b = rnd.nextInt(n - 1);
+                    if (b >= a) b++;
+                    Upstream ua = members.get(a);
+                    Upstream ub = members.get(b);
+                    boolean okA = isAvailable(health, ua);
+                    boolean okB = isAvailable(health, ub);
+                    if (okA && okB) return ub.getInFlight() < ua.getInFlight() ? ub : ua;
+                    if (okA) return ua;
+                    if (okB) return ub;
+                }
+                // Both samples ejected: fall back to the first available member
+                return firstAvailable(health, offset);
+            }
+            case ROUND_ROBIN:
+            default:
+                return firstAvailable(health, offset);
+        }
+    }
+
+    private Upstream firstAvailable(UpstreamHealth health, int offset) {
+        int n = members.size();
+        for (int i = 0; i < n; i++) {
+            Upstream u = members.get((offset + i) % n);
+            if (isAvailable(health, u)) return u;
+        }
+        return null;
+    }
+
+    private static boolean isAvailable(UpstreamHealth health, Upstream u) {
+        return health == null || health.isAvailable(u);
+    }
+}
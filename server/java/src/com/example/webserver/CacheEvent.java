@@ -0,0 +1,42 @@
+package com.example.webserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for {@link LruCache} hits, misses, expirations and evictions.
+ */
+@Name("com.example.webserver.Cache")
+@Label("Response Cache")
+@Category({"Web Server", "Cache"})
+@Description("Response cache activity")
+@StackTrace(false)
+class CacheEvent extends jdk.jfr.Event {
+
+    static final String HIT = "HIT";
+    static final String MISS = "MISS";
+    static final String EXPIRE = "EXPIRE";
+    static final String EVICT = "EVICT";
+
+    @Label("Action")
+    String action;
+
+    @Label("Key")
+    String key;
+
+    @Label("Entries")
+    int entries;
+
+    static void emit(String action, Object key, int entries) {
+        CacheEvent event = new CacheEvent();
+        if (event.shouldCommit()) {
+            event.action = action;
+            event.key = String.valueOf(key);
+            event.entries = entries;
+            event.commit();
+        }
+    }
+}
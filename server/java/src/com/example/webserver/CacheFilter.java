@@ -0,0 +1,48 @@
+package com.example.webserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Serves GET responses from an {@link LruCache}, keyed by path including
+ * the query. Successful responses under 1 MB are stored on a miss; every
+ * response gets an {@code X-Cache: HIT|MISS} header.
+ */
+public class CacheFilter implements Filter {
+
+    private static final int MAX_CACHEABLE_BYTES = 1_000_000;
+
+    private final LruCache<String, CacheEntry> cache;
+    private final Metrics metrics;
+
+    public CacheFilter(LruCache<String, CacheEntry> cache, Metrics metrics) {
+        this.cache = cache;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CompletionStage<HttpResponse> filter(HttpRequest req, Chain chain) throws Exception {
+        if (!"GET".equals(req.method())) {
+            return chain.proceed(req);
+        }
+
+        String cacheKey = req.method() + " " + req.path();
+        CacheEntry cached = cache.get(cacheKey);
+        if (cached != null && !cached.isExpired()) {
+            HttpResponse resp = HttpResponse.okBytes(cached.body());
+            resp.headers().putAll(cached.headers());
+            resp.headers().put("X-Cache", "HIT");
+            metrics.incCacheHit();
+            return CompletableFuture.completedFuture(resp);
+        }
+
+        return chain.proceed(req).thenApply(resp -> {
+            if (resp.status() == 200 && resp.body() != null && resp.body().length < MAX_CACHEABLE_BYTES) {
+                cache.put(cacheKey, CacheEntry.from(resp, cache.getTtlMillis()));
+                metrics.incCacheStore();
+            }
+            resp.headers().put("X-Cache", "MISS");
+            return resp;
+        });
+    }
+}
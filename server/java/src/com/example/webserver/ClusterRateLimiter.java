@@ -0,0 +1,351 @@
+package com.example.webserver;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Rate limiter whose limit holds across a cluster of nodes.
+ *
+ * Time is cut into fixed windows (wall clock, so nodes need roughly synced
+ * clocks). Every node counts its own admissions per key and periodically
+ * gossips those counts to its peers over UDP. From the latest global view
+ * each node pre-allocates itself a slice of the tokens still left in the
+ * window, proportional to its share of recent demand, and admits locally
+ * against that slice - no network round trip per request. Overshoot is
+ * bounded by what peers can admit within one sync interval.
+ *
+ * Wire format, one datagram per batch of keys, after a 32-byte
+ * HMAC-SHA256 of the rest keyed with the shared {@code cluster.secret}:
+ * <pre>
+ * RL2 &lt;nodeId&gt; &lt;window&gt;
+ * &lt;count&gt; &lt;key&gt;
+ * ...
+ * </pre>
+ * Keys are URL-encoded, so a key cannot contain the space or newline that
+ * delimit the format and inject counts for other keys. Datagrams are only
+ * taken from the configured peer addresses and with a valid MAC, and only
+ * for the current window; a count never goes down within a window, so a
+ * replayed older datagram changes nothing.
+ * Peers that have not been heard from for a few sync intervals stop
+ * counting towards the node total, so their share is redistributed.
+ */
+public class ClusterRateLimiter implements Limiter, AutoCloseable {
+
+    private static final String MAGIC = "RL2";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 32;
+    private static final int MAX_DATAGRAM = 1400;
+    private static final int PEER_TIMEOUT_SYNCS = 3;
+
+    private static final class KeyState {
+        volatile long window;             // written under this
+        final AtomicLong local = new AtomicLong();
+        volatile long quota;
+        final Map<String, Long> remote = new ConcurrentHashMap<>();
+    }
+
+    private final String nodeId;
+    private final long limitPerWindow;
+    private final long windowMillis;
+    private final long syncMillis;
+    private final List<InetSocketAddress> peers;
+    private final Set<InetSocketAddress> peerAddresses;
+
+    private final Map<String, KeyState> keys = new ConcurrentHashMap<>();
+    // Bounded by the peer count: a node id is only added for a live peer slot
+    private final Map<String, Long> lastHeardNanos = new ConcurrentHashMap<>();
+
+    // Mac is not thread-safe: one for the sync thread, one for the receiver
+    private final Mac sendMac;
+    private final Mac receiveMac;
+
+    private final DatagramSocket socket;
+    private final ScheduledExecutorService scheduler;
+    private final Thread receiver;
+    private volatile boolean running = true;
+
+    /**
+     * @param bind          local UDP address; peers must send from the
+     *                      addresses listed in {@code peers}
+     * @param secret        key for the HMAC every node signs its datagrams with
+     * @param ratePerSecond global rate per key across all nodes
+     * @param windowMillis  accounting window; the limit is rate * window
+     * @param syncMillis    how often counts are gossiped
+     */
+    public ClusterRateLimiter(String nodeId, InetSocketAddress bind, List<InetSocketAddress> peers,
+                              byte[] secret, double ratePerSecond, long windowMillis, long syncMillis)
+            throws SocketException {
+        if (secret == null || secret.length == 0) {
+            throw new IllegalArgumentException("A cluster secret is required");
+        }
+        this.nodeId = nodeId;
+        this.peers = List.copyOf(peers);
+        this.peerAddresses = Set.copyOf(peers);
+        this.windowMillis = windowMillis;
+        this.syncMillis = syncMillis;
+        this.limitPerWindow = Math.max(1, Math.round(ratePerSecond * windowMillis / 1000.0));
+        this.sendMac = newMac(secret);
+        this.receiveMac = newMac(secret);
+
+        this.socket = new DatagramSocket(bind);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster-limiter-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        this.receiver = new Thread(this::receiveLoop, "cluster-limiter-recv");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+        this.scheduler.scheduleWithFixedDelay(this::sync, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Builds a limiter from {@code cluster.*} system properties, or returns
+     * null if {@code cluster.port} is not set: {@code node} (id, defaults to
+     * host:port), {@code port}, {@code bind} (local address, default all),
+     * {@code peers} (comma-separated host:port), {@code secret} (required,
+     * the same on every node), {@code window} and {@code sync} (ms).
+     */
+    public static ClusterRateLimiter fromSystemProperties(double ratePerSecond) throws SocketException {
+        Integer port = Integer.getInteger("cluster.port");
+        if (port == null) return null;
+
+        String secret = System.getProperty("cluster.secret", "");
+        if (secret.isEmpty()) {
+            throw new IllegalArgumentException("cluster.secret must be set when cluster.port is");
+        }
+        String bind = System.getProperty("cluster.bind");
+
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String spec : System.getProperty("cluster.peers", "").split(",")) {
+            String s = spec.trim();
+            if (s.isEmpty()) continue;
+            int idx = s.lastIndexOf(':');
+            peers.add(new InetSocketAddress(s.substring(0, idx), Integer.parseInt(s.substring(idx + 1))));
+        }
+        return new ClusterRateLimiter(
+                System.getProperty("cluster.node", "node-" + port),
+                bind == null ? new InetSocketAddress(port) : new InetSocketAddress(bind, port),
+                peers,
+                secret.getBytes(StandardCharsets.UTF_8),
+                ratePerSecond,
+                Long.getLong("cluster.window", 1_000L),
+                Long.getLong("cluster.sync", 100L)
+        );
+    }
+
+    @Override
+    public boolean allow(String key) {
+        long window = currentWindow();
+        KeyState ks = keys.computeIfAbsent(key, k -> new KeyState());
+        roll(ks, window);
+
+        while (true) {
+            long used = ks.local.get();
+            if (used >= ks.quota) {
+                RateLimitEvent.emit(key);
+                return false;
+            }
+            if (ks.local.compareAndSet(used, used + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Nodes currently counted towards the cluster, including this one. */
+    public int liveNodes() {
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(syncMillis * PEER_TIMEOUT_SYNCS);
+        int n = 1;
+        for (long heard : lastHeardNanos.values()) {
+            if (now - heard < timeout) n++;
+        }
+        return n;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        scheduler.shutdownNow();
+        socket.close();
+    }
+
+    /* ===== Quota ===== */
+
+    private long currentWindow() {
+        return System.currentTimeMillis() / windowMillis;
+    }
+
+    private void roll(KeyState ks, long window) {
+        if (ks.window == window) return;
+        synchronized (ks) {
+            if (ks.window >= window) return;
+            ks.window = window;
+            ks.local.set(0);
+            ks.remote.clear();
+            // Until peers report, assume everyone gets an equal slice
+            ks.quota = Math.max(1, limitPerWindow / Math.max(1, Math.max(liveNodes(), peers.size() + 1)));
+        }
+    }
+
+    private void recomputeQuota(KeyState ks) {
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(syncMillis * PEER_TIMEOUT_SYNCS);
+        long remoteUsed = 0;
+        for (Map.Entry<String, Long> e : ks.remote.entrySet()) {
+            Long heard = lastHeardNanos.get(e.getKey());
+            if (heard != null && now - heard < timeout) {
+                remoteUsed += e.getValue();
+            }
+        }
+
+        int nodes = liveNodes();
+        long localUsed = ks.local.get();
+        long totalUsed = localUsed + remoteUsed;
+        long remaining = Math.max(0, limitPerWindow - totalUsed);
+
+        // Slice of what is left, proportional to our share of demand, with a
+        // floor so a node that has been idle can still admit new traffic
+        double share = totalUsed == 0 ? 1.0 / nodes : (double) localUsed / totalUsed;
+        share = Math.max(share, 1.0 / (2 * nodes));
+        ks.quota = localUsed + (long) Math.floor(remaining * Math.min(1.0, share));
+    }
+
+    /* ===== Gossip ===== */
+
+    private void sync() {
+        try {
+            long window = currentWindow();
+            StringBuilder batch = new StringBuilder(MAX_DATAGRAM);
+            String header = MAGIC + " " + nodeId + " " + window + "\n";
+            batch.append(header);
+
+            Iterator<Map.Entry<String, KeyState>> it = keys.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, KeyState> e = it.next();
+                KeyState ks = e.getValue();
+                if (ks.window < window - 1) {
+                    it.remove(); // idle for more than a window
+                    continue;
+                }
+                if (ks.window != window) continue;
+
+                recomputeQuota(ks);
+                long used = ks.local.get();
+                if (used == 0) continue;
+
+                // Encoded keys are ASCII, so chars and bytes line up for the size check
+                String line = used + " " + URLEncoder.encode(e.getKey(), StandardCharsets.UTF_8) + "\n";
+                if (batch.length() + line.length() > MAX_DATAGRAM - MAC_LENGTH && batch.length() > header.length()) {
+                    send(batch);
+                    batch.setLength(0);
+                    batch.append(header);
+                }
+                batch.append(line);
+            }
+            // Always send, even empty, so peers know we are alive
+            send(batch);
+        } catch (RuntimeException e) {
+            System.err.println("[cluster-limiter] sync failed: " + e);
+        }
+    }
+
+    private void send(StringBuilder batch) {
+        byte[] payload = batch.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[MAC_LENGTH + payload.length];
+        System.arraycopy(sendMac.doFinal(payload), 0, data, 0, MAC_LENGTH);
+        System.arraycopy(payload, 0, data, MAC_LENGTH, payload.length);
+        for (InetSocketAddress peer : peers) {
+            try {
+                socket.send(new DatagramPacket(data, data.length, peer));
+            } catch (IOException e) {
+                // Peer unreachable; it will age out of liveNodes()
+            }
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] buf = new byte[MAX_DATAGRAM * 2];
+        while (running) {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            try {
+                socket.receive(packet);
+                if (!peerAddresses.contains(packet.getSocketAddress())) continue;
+                if (!verify(packet)) continue;
+                handle(new String(packet.getData(), MAC_LENGTH, packet.getLength() - MAC_LENGTH,
+                        StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                if (!running) return;
+            } catch (RuntimeException e) {
+                // Malformed datagram; ignore it
+            }
+        }
+    }
+
+    private boolean verify(DatagramPacket packet) {
+        if (packet.getLength() < MAC_LENGTH) return false;
+        receiveMac.update(packet.getData(), MAC_LENGTH, packet.getLength() - MAC_LENGTH);
+        byte[] expected = receiveMac.doFinal();
+        return MessageDigest.isEqual(expected,
+                Arrays.copyOfRange(packet.getData(), 0, MAC_LENGTH));
+    }
+
+    private void handle(String message) {
+        String[] lines = message.split("\n");
+        String[] header = lines[0].split(" ");
+        if (header.length != 3 || !MAGIC.equals(header[0]) || nodeId.equals(header[1])) return;
+
+        String peer = header[1];
+        long window = Long.parseLong(header[2]);
+        // A window we have not reached would be kept until we do; an old one is stale
+        if (window != currentWindow()) return;
+        if (!heardFrom(peer)) return;
+
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            int sp = line.indexOf(' ');
+            if (sp <= 0) continue;
+            long count = Long.parseLong(line.substring(0, sp));
+            String key = URLDecoder.decode(line.substring(sp + 1), StandardCharsets.UTF_8);
+
+            KeyState ks = keys.computeIfAbsent(key, k -> new KeyState());
+            roll(ks, window);
+            if (ks.window == window) {
+                ks.remote.merge(peer, count, Math::max);
+                recomputeQuota(ks);
+            }
+        }
+    }
+
+    /** Records {@code peer} as alive; false if it would be a node id beyond the configured peer count. */
+    private boolean heardFrom(String peer) {
+        long now = System.nanoTime();
+        if (!lastHeardNanos.containsKey(peer) && lastHeardNanos.size() >= peers.size()) {
+            // Make room by forgetting ids that have gone quiet (e.g. a renamed node)
+            long timeout = TimeUnit.MILLISECONDS.toNanos(syncMillis * PEER_TIMEOUT_SYNCS);
+            lastHeardNanos.values().removeIf(heard -> now - heard >= timeout);
+            if (lastHeardNanos.size() >= peers.size()) return false;
+        }
+        lastHeardNanos.put(peer, now);
+        return true;
+    }
+
+    private static Mac newMac(byte[] secret) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(MAC_ALGORITHM + " unavailable", e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.webserver;
+
+import java.net.Socket;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for connections dropped by the accept loop.
+ */
+@Name("com.example.webserver.ConnectionDropped")
+@Label("Connection Dropped")
+@Category({"Web Server", "Network"})
+@Description("Client connection closed without being handled")
+@StackTrace(false)
+class ConnectionDroppedEvent extends jdk.jfr.Event {
+
+    @Label("Remote Address")
+    String remoteAddress;
+
+    @Label("Reason")
+    String reason;
+
+    static void emit(Socket socket, String reason) {
+        ConnectionDroppedEvent event = new ConnectionDroppedEvent();
+        if (event.shouldCommit()) {
+            event.remoteAddress = String.valueOf(socket.getRemoteSocketAddress());
+            event.reason = reason;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.webserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Notices clients that hang up while their request is still being handled
+ * asynchronously, without a thread per connection.
+ *
+ * A watched channel is switched to non-blocking mode and registered for
+ * reads on one selector thread. The request has been read in full, so a
+ * reset (or any read error) means the client is gone; stray bytes are
+ * discarded. End-of-stream alone is not a disconnect: a client may
+ * half-close after sending its request and still wait for the answer, so
+ * the channel just stops being watched. {@link #unwatch} hands the channel
+ * back in blocking mode so the response can be written normally.
+ *
+ * All selector work happens on the watcher thread, in submission order.
+ * Callbacks and {@code unwatch} stages complete on a separate callback
+ * thread, so nothing chained to them can stall the selector. Once the
+ * watcher is closed, {@code unwatch} completes on the caller's thread.
+ */
+final class DisconnectWatcher implements AutoCloseable {
+
+    final class Watch {
+        private final SocketChannel channel;
+        private final Runnable onDisconnect;
+        private final CompletableFuture<Void> released = new CompletableFuture<>();
+        private SelectionKey key;
+        private boolean fired;   // guarded by this
+
+        private Watch(SocketChannel channel, Runnable onDisconnect) {
+            this.channel = channel;
+            this.onDisconnect = onDisconnect;
+        }
+    }
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer discard = ByteBuffer.allocate(512);
+    private final Thread thread;
+    private final ExecutorService callbacks = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "http-disconnect-callbacks");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean running = true;
+    private volatile boolean stopped;
+
+    DisconnectWatcher() throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, "http-disconnect-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /** Starts watching; {@code onDisconnect} runs on the callback thread, at most once. */
+    Watch watch(SocketChannel channel, Runnable onDisconnect) {
+        Watch w = new Watch(channel, onDisconnect);
+        submit(() -> register(w));
+        return w;
+    }
+
+    /** Stops watching; completes once the channel is blocking again. */
+    CompletableFuture<Void> unwatch(Watch w) {
+        submit(() -> release(w));
+        // The watcher sets stopped before its last pass over the queue, so
+        // a task that pass missed is seen here
+        if (stopped) release(w);
+        return w.released;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        // Already queued callbacks still run; the thread then exits
+        callbacks.shutdown();
+    }
+
+    private void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid() && key.isReadable()) {
+                        onReadable((Watch) key.attachment());
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) System.err.println("[server] disconnect watcher stopped: " + e);
+        } finally {
+            try {
+                selector.close();
+            } catch (IOException ignored) {}
+            stopped = true;
+            // Nobody is left to process these; let waiting responses proceed
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private void register(Watch w) {
+        if (w.released.isDone()) return;
+        try {
+            w.channel.configureBlocking(false);
+            w.key = w.channel.register(selector, SelectionKey.OP_READ, w);
+        } catch (IOException | RuntimeException e) {
+            fire(w);
+        }
+    }
+
+    // Runs on the watcher thread, or on the caller's once the watcher has stopped
+    private void release(Watch w) {
+        if (w.released.isDone()) return;
+        if (w.key != null) {
+            w.key.cancel();
+            try {
+                // Deregisters the cancelled key; a closed selector already has
+                if (selector.isOpen()) selector.selectNow();
+                w.channel.configureBlocking(true);
+            } catch (IOException | RuntimeException e) {
+                fire(w);
+            }
+        }
+        if (stopped) {
+            w.released.complete(null);
+        } else {
+            complete(w.released);
+        }
+    }
+
+    private void onReadable(Watch w) {
+        try {
+            discard.clear();
+            if (w.channel.read(discard) < 0) {
+                w.key.cancel(); // half-closed: nothing more to see, but the client may still be there
+            }
+        } catch (IOException e) {
+            w.key.cancel();
+            fire(w);
+        }
+    }
+
+    private void fire(Watch w) {
+        synchronized (w) {
+            if (w.fired) return;
+            w.fired = true;
+        }
+        callback(() -> {
+            try {
+                w.onDisconnect.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace(System.err);
+            }
+        });
+    }
+
+    private void complete(CompletableFuture<Void> released) {
+        callback(() -> released.complete(null));
+    }
+
+    private void callback(Runnable task) {
+        try {
+            callbacks.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run(); // closed: the selector is no longer ours to stall
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.webserver;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A step in the request pipeline. A filter can inspect or replace the
+ * request, answer on its own without calling {@code chain} (short-circuit),
+ * or post-process whatever the rest of the chain returns.
+ *
+ * The chain is asynchronous so that {@link Router.AsyncHandler} routes do
+ * not hold a worker thread: post-processing goes in {@code thenApply} on
+ * the stage {@code chain.proceed} returns, and a short-circuit returns an
+ * already completed stage.
+ *
+ * Filters registered with {@link Router#use(Filter)} run for every request,
+ * including ones that end in 404 or 405; filters registered for a route
+ * run only when that route matched, after its path parameters are bound.
+ */
+public interface Filter {
+
+    interface Chain {
+        CompletionStage<HttpResponse> proceed(HttpRequest req) throws Exception;
+    }
+
+    CompletionStage<HttpResponse> filter(HttpRequest req, Chain chain) throws Exception;
+}
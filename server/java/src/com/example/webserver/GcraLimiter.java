@@ -0,0 +1,58 @@
+package com.example.webserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generic Cell Rate Algorithm limiter.
+ *
+ * Each key holds one long, its theoretical arrival time (TAT). A request at
+ * {@code now} conforms if {@code TAT - now <= tolerance}; it then advances
+ * the TAT by one emission interval. One read and one CAS per decision, and
+ * requests are spread evenly instead of being let through in bucket-sized
+ * bursts after an idle period.
+ */
+public class GcraLimiter implements Limiter, AutoCloseable {
+
+    private static final long IDLE_GRACE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final long emissionIntervalNanos;
+    private final long toleranceNanos;
+    private final KeyedStates<AtomicLong> tats;
+
+    /**
+     * @param burst requests that may arrive back-to-back on an idle key
+     */
+    public GcraLimiter(double ratePerSecond, double burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("rate must be > 0 and burst >= 1");
+        }
+        this.emissionIntervalNanos = Math.max(1L, Math.round(1_000_000_000L / ratePerSecond));
+        this.toleranceNanos = (long) ((burst - 1) * emissionIntervalNanos);
+        this.tats = new KeyedStates<>(
+                now -> new AtomicLong(now),
+                (tat, now) -> now - tat.get() > IDLE_GRACE_NANOS);
+    }
+
+    @Override
+    public boolean allow(String key) {
+        long now = System.nanoTime();
+        AtomicLong tat = tats.get(key, now);
+        while (true) {
+            long current = tat.get();
+            long base = Math.max(current, now);
+            if (base - now > toleranceNanos) {
+                RateLimitEvent.emit(key);
+                return false;
+            }
+            if (tat.compareAndSet(current, base + emissionIntervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        tats.close();
+    }
+}
@@ -0,0 +1,291 @@
+package com.example.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.http2.HeaderField;
+import com.example.http2.Http2Connection;
+import com.example.http2.Http2Exception;
+import com.example.http2.Http2Settings;
+import com.example.http2.Http2Stream;
+import com.example.net.AdaptiveConcurrencyLimiter;
+
+/**
+ * Serves HTTP/2 over cleartext (h2c) for {@link HttpServer}, reached either
+ * with prior knowledge (the client opens with the HTTP/2 preface) or by an
+ * HTTP/1.1 {@code Upgrade: h2c} request.
+ *
+ * Each connection gets its own reader thread, so their number is capped.
+ * Every complete request stream is admitted by the server's concurrency
+ * limiter like an HTTP/1.1 connection, dispatched to the worker pool and
+ * run through the same {@link Router}, so streams on one connection are
+ * served concurrently. A client resetting a stream completes the request's
+ * disconnect stage, cancelling async handlers just like a dropped socket.
+ */
+final class H2cHandler {
+
+    private static final byte[] PREFACE_TAIL = "SM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SWITCHING_PROTOCOLS = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\nUpgrade: h2c\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    // Hop-by-hop headers HTTP/2 forbids (RFC 9113 section 8.2.2)
+    private static final Set<String> CONNECTION_HEADERS = Set.of(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade",
+            "content-length", "date", "server");
+
+    private static final AtomicInteger CONNECTION_IDS = new AtomicInteger();
+
+    private final Router router;
+    private final Metrics metrics;
+    private final ExecutorService pool;
+    private final Executor completions;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Http2Settings settings;
+    private final int idleTimeoutMillis;
+    private final int maxConnections;
+    private final Set<Http2Connection> connections = ConcurrentHashMap.newKeySet();
+
+    H2cHandler(Router router, Metrics metrics, ExecutorService pool, Executor completions,
+               AdaptiveConcurrencyLimiter limiter, Http2Settings settings, int idleTimeoutMillis,
+               int maxConnections) {
+        this.router = router;
+        this.metrics = metrics;
+        this.pool = pool;
+        this.completions = completions;
+        this.limiter = limiter;
+        this.settings = settings;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxConnections = maxConnections;
+    }
+
+    /** Builds the handler from {@code server.h2*} properties, or null if {@code server.h2c=false}. */
+    static H2cHandler fromSystemProperties(Router router, Metrics metrics, ExecutorService pool,
+                                           Executor completions, AdaptiveConcurrencyLimiter limiter) {
+        if (!Boolean.parseBoolean(System.getProperty("server.h2c", "true"))) return null;
+        return new H2cHandler(router, metrics, pool, completions, limiter,
+                Http2Settings.fromSystemProperties("server.h2"),
+                Integer.getInteger("server.h2.idleTimeout", 60_000),
+                Integer.getInteger("server.h2.maxConnections", 256));
+    }
+
+    /** The request line of the client preface, "PRI * HTTP/2.0". */
+    static boolean isPriorKnowledge(HttpRequest req) {
+        return "PRI".equals(req.method()) && "HTTP/2.0".equals(req.version());
+    }
+
+    /**
+     * Whether another connection may be taken over; concurrent callers can
+     * overshoot the cap by a few. Upgrades are optional, so without room
+     * they are served as plain HTTP/1.1.
+     */
+    boolean hasRoom() {
+        return connections.size() < maxConnections;
+    }
+
+    static boolean isUpgrade(HttpRequest req) {
+        String upgrade = req.header("Upgrade");
+        return upgrade != null && upgrade.trim().equalsIgnoreCase("h2c") && req.header("HTTP2-Settings") != null;
+    }
+
+    /**
+     * Takes over {@code socket} after the preface request line was parsed
+     * from {@code in}; the rest of the preface must follow. At the
+     * connection cap the client gets GOAWAY and the socket is closed.
+     */
+    void servePriorKnowledge(Socket socket, InputStream in) throws IOException {
+        if (!Arrays.equals(in.readNBytes(PREFACE_TAIL.length), PREFACE_TAIL)) {
+            throw new IOException("Bad HTTP/2 connection preface");
+        }
+        if (!hasRoom()) {
+            metrics.incShed();
+            try (socket; in) {
+                Http2Connection.refuse(socket, "Too many connections");
+            }
+            return;
+        }
+        open(socket, in, null).start(threadName());
+    }
+
+    /** Answers 101 to an h2c upgrade request and serves it as stream 1. */
+    void serveUpgrade(Socket socket, InputStream in, OutputStream out, HttpRequest req) throws IOException {
+        out.write(SWITCHING_PROTOCOLS);
+        out.flush();
+        Http2Connection conn = open(socket, in, req);
+        conn.upgrade(req.header("HTTP2-Settings"),
+                List.of(new HeaderField(":method", req.method()), new HeaderField(":path", req.path())),
+                req.body());
+        conn.start(threadName());
+    }
+
+    private Http2Connection open(Socket socket, InputStream in, HttpRequest upgraded)
+            throws IOException {
+        metrics.incH2Connections();
+        socket.setSoTimeout(idleTimeoutMillis);
+        String clientKey = HttpServer.clientKey(socket);
+        // The connection outlives the caller's pooled output stream, so it
+        // buffers the socket itself
+        Http2Connection connection = new Http2Connection(socket, in, socket.getOutputStream(), true,
+                upgraded != null, settings, MAX_BODY_SIZE,
+                new Http2Connection.Listener() {
+                    @Override
+                    public void onMessage(Http2Connection conn, Http2Stream stream) {
+                        HttpRequest req = stream.id() == 1 && upgraded != null
+                                ? new HttpRequest(upgraded.method(), upgraded.path(), "HTTP/2.0",
+                                        upgraded.headers(), upgraded.body())
+                                : toRequest(stream);
+                        if (req == null) {
+                            conn.resetStream(stream, Http2Exception.PROTOCOL_ERROR);
+                            return;
+                        }
+                        dispatch(conn, stream, req.withConnection(clientKey, stream.reset()));
+                    }
+
+                    @Override
+                    public void onClose(Http2Connection conn) {
+                        connections.remove(conn);
+                    }
+                });
+        connections.add(connection);
+        return connection;
+    }
+
+    /** Sends GOAWAY on every open connection; each closes once its streams are done. */
+    void goAwayAll() {
+        for (Http2Connection c : connections) {
+            c.goAway();
+        }
+    }
+
+    int openConnections() {
+        return connections.size();
+    }
+
+    void closeAll() {
+        for (Http2Connection c : connections) {
+            c.close();
+        }
+    }
+
+    private void dispatch(Http2Connection conn, Http2Stream stream, HttpRequest req) {
+        if (!limiter.tryAcquire()) {
+            metrics.incShed();
+            conn.resetStream(stream, Http2Exception.REFUSED_STREAM);
+            conn.streamDone(stream);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            pool.execute(() -> {
+                CompletableFuture<HttpResponse> pending = router.handleAsync(req).toCompletableFuture();
+                if (pending.isDone()) {
+                    respond(conn, stream, req, pending.join(), start);
+                } else {
+                    pending.thenAcceptAsync(resp -> respond(conn, stream, req, resp, start), completions);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            limiter.releaseDropped();
+            metrics.incDropped();
+            conn.resetStream(stream, Http2Exception.REFUSED_STREAM);
+            conn.streamDone(stream);
+        }
+    }
+
+    private void respond(Http2Connection conn, Http2Stream stream, HttpRequest req, HttpResponse resp, long start) {
+        ResponseBody body = resp.stream();
+        try {
+            if (req.disconnect().toCompletableFuture().isDone()) {
+                metrics.incCancelled();
+                return;
+            }
+            byte[] bytes = resp.body();
+            long length = body != null ? body.length() : bytes == null ? 0 : bytes.length;
+            boolean empty = length == 0 || "HEAD".equals(req.method())
+                    || resp.status() == 204 || resp.status() == 304;
+
+            conn.sendHeaders(stream, responseHeaders(resp, length), empty);
+            if (!empty) {
+                if (body != null) {
+                    try (OutputStream out = conn.dataOutput(stream)) {
+                        body.writeTo(out, null);
+                    }
+                } else {
+                    conn.sendData(stream, bytes, 0, bytes.length, true);
+                }
+            }
+            metrics.observeRequest(req.method(), resp.status(), System.nanoTime() - start);
+        } catch (IOException e) {
+            metrics.incErrors();
+            conn.resetStream(stream, Http2Exception.INTERNAL_ERROR);
+        } finally {
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (IOException ignored) {}
+            }
+            conn.streamDone(stream);
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    private static List<HeaderField> responseHeaders(HttpResponse resp, long length) {
+        List<HeaderField> h = new ArrayList<>(resp.headers().size() + 4);
+        h.add(new HeaderField(":status", Integer.toString(resp.status())));
+        h.add(new HeaderField("date", HttpResponseWriter.currentDateValue()));
+        h.add(new HeaderField("server", HttpResponseWriter.SERVER));
+        if (length >= 0 && resp.status() != 304) {
+            h.add(new HeaderField("content-length", Long.toString(length)));
+        }
+        for (Map.Entry<String, String> e : resp.headers().entrySet()) {
+            String name = e.getKey().toLowerCase(Locale.ROOT);
+            if (!CONNECTION_HEADERS.contains(name)) {
+                h.add(new HeaderField(name, e.getValue()));
+            }
+        }
+        return h;
+    }
+
+    /** The request carried by a stream, or null if its pseudo-headers are incomplete. */
+    private static HttpRequest toRequest(Http2Stream stream) {
+        String method = null;
+        String path = null;
+        String authority = null;
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (HeaderField f : stream.headers()) {
+            switch (f.name()) {
+                case ":method" -> method = f.value();
+                case ":path" -> path = f.value();
+                case ":authority" -> authority = f.value();
+                case ":scheme" -> { }
+                // Repeated fields are folded the way HTTP/1.1 would send them
+                default -> headers.merge(f.name(), f.value(),
+                        (a, b) -> f.name().equals("cookie") ? a + "; " + b : a + ", " + b);
+            }
+        }
+        if (method == null || path == null) return null;
+        if (authority != null) headers.putIfAbsent("host", authority);
+        return new HttpRequest(method, HttpRequest.decodePath(path), "HTTP/2.0", headers, stream.body());
+    }
+
+    private static String threadName() {
+        return "h2c-conn-" + CONNECTION_IDS.incrementAndGet();
+    }
+}
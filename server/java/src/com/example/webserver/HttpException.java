@@ -1,4 +1,8 @@
-public static class HttpException extends RuntimeException {
+package com.example.webserver;
+
+public class HttpException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
     private final HttpResponse response;
 
     public HttpException(HttpResponse response) {
@@ -4,15 +4,27 @@ import java.io.*;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.example.net.BufferPool;
 
 public record HttpRequest(
         String method,
         String path,
         String version,
         Map<String, String> headers,
-        byte[] body
+        byte[] body,
+        Map<String, String> pathParams,
+        String clientAddress,
+        CompletionStage<Void> disconnect
 ) {
 
+    public HttpRequest(String method, String path, String version,
+                       Map<String, String> headers, byte[] body) {
+        this(method, path, version, headers, body, Map.of(), "unknown", new CompletableFuture<>());
+    }
+
     private static final int MAX_HEADER_SIZE = 64 * 1024;
     private static final int MAX_BODY_SIZE = 1 * 1024 * 1024; // 1 MB
 
@@ -80,7 +92,7 @@ public record HttpRequest(
         return body;
     }
 
-    private static String decodePath(String path) {
+    static String decodePath(String path) {
         try {
             return URLDecoder.decode(path, StandardCharsets.UTF_8);
         } catch (IllegalArgumentException e) {
@@ -88,34 +100,67 @@ public record HttpRequest(
         }
     }
 
+    /** Reads through the blank line into a pooled buffer; only the header bytes are copied out. */
     private static byte[] readUntilHeaderEnd(InputStream in) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
-        int prev = -1;
-        int curr;
-        int newlineCount = 0;
-
-        while ((curr = in.read()) != -1) {
-            bos.write(curr);
-
-            if (curr == '\n') {
-                newlineCount++;
-                if (newlineCount == 2) {
-                    return bos.toByteArray();
+        try (BufferPool.Lease lease = BufferPool.shared().acquire()) {
+            byte[] buf = lease.array();
+            int len = 0;
+            int curr;
+            int newlineCount = 0;
+
+            while ((curr = in.read()) != -1) {
+                if (len == buf.length) {
+                    // Oversized head: continue in a private copy, the lease still goes back
+                    buf = Arrays.copyOf(buf, Math.min(buf.length * 2, MAX_HEADER_SIZE + 1));
+                }
+                buf[len++] = (byte) curr;
+
+                if (curr == '\n') {
+                    newlineCount++;
+                    if (newlineCount == 2) {
+                        return Arrays.copyOf(buf, len);
+                    }
+                } else if (curr != '\r') {
+                    newlineCount = 0;
                 }
-            } else if (curr != '\r') {
-                newlineCount = 0;
-            }
 
-            if (bos.size() > MAX_HEADER_SIZE) {
-                throw new IOException("Header too large");
+                if (len > MAX_HEADER_SIZE) {
+                    throw new IOException("Header too large");
+                }
             }
-
-            prev = curr;
+            return Arrays.copyOf(buf, len);
         }
-        return bos.toByteArray();
     }
 
     public byte[] body() {
         return body.clone();
     }
+
+    /** Header value by case-insensitive name, or null. */
+    public String header(String name) {
+        String v = headers.get(name);
+        if (v != null) return v;
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            if (e.getKey().equalsIgnoreCase(name)) return e.getValue();
+        }
+        return null;
+    }
+
+    /** Value captured by a {@code {name}} segment of the matched route, or null. */
+    public String pathParam(String name) {
+        return pathParams.get(name);
+    }
+
+    HttpRequest withPathParams(Map<String, String> params) {
+        return new HttpRequest(method, path, version, headers, body, params, clientAddress, disconnect);
+    }
+
+    /**
+     * Same request, attributed to {@code address} (client IP) for limiting
+     * and logging, with {@code disconnect} completing if the client goes
+     * away before the response is written.
+     */
+    HttpRequest withConnection(String address, CompletionStage<Void> disconnect) {
+        return new HttpRequest(method, path, version, headers, body, pathParams, address, disconnect);
+    }
 }
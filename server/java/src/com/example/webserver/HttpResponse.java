@@ -9,6 +9,7 @@ public class HttpResponse {
     private final String reason;
     private final Map<String, String> headers = new LinkedHashMap<>();
     private byte[] body;
+    private ResponseBody stream;
 
     public HttpResponse(int status, String reason) {
         this.status = status;
@@ -20,13 +21,27 @@ public class HttpResponse {
     public String reason() { return reason; }
     public Map<String, String> headers() { return headers; }
     public byte[] body() { return body; }
+    public ResponseBody stream() { return stream; }
 
     public HttpResponse body(byte[] body) {
         this.body = body;
+        this.stream = null;
         headers.put("Content-Length", String.valueOf(body.length));
         return this;
     }
 
+    /** Streams the body instead of holding it; see {@link ResponseBody}. */
+    public HttpResponse body(ResponseBody stream) {
+        this.body = null;
+        this.stream = stream;
+        if (stream.length() >= 0) {
+            headers.put("Content-Length", String.valueOf(stream.length()));
+        } else {
+            headers.remove("Content-Length");
+        }
+        return this;
+    }
+
     public static HttpResponse okText(String s) {
         HttpResponse r = new HttpResponse(200, "OK");
         r.headers.put("Content-Type", "text/plain; charset=utf-8");
@@ -60,6 +75,10 @@ public class HttpResponse {
         return r;
 }
 
+public static HttpResponse badRequest(String msg) {
+    return badRequest(400, msg);
+}
+
 public static HttpResponse badRequest(int code, String msg) {
     HttpResponse r = new HttpResponse(code, "Bad Request");
     r.headers.put("Content-Type", "text/plain; charset=utf-8");
@@ -78,6 +97,18 @@ public static HttpResponse badRequest(int code, String msg) {
         return r;
     }*/
 
+    public static HttpResponse notModified() {
+        return new HttpResponse(304, "Not Modified");
+    }
+
+    public static HttpResponse methodNotAllowed(String allow) {
+        HttpResponse r = new HttpResponse(405, "Method Not Allowed");
+        r.headers.put("Allow", allow);
+        r.headers.put("Content-Type", "text/plain; charset=utf-8");
+        r.body("Method Not Allowed".getBytes(StandardCharsets.UTF_8));
+        return r;
+    }
+
     public static HttpResponse tooManyRequests(String msg) {
         HttpResponse r = new HttpResponse(429, "Too Many Requests");
         r.headers.put("Content-Type", "text/plain; charset=utf-8");
@@ -85,6 +116,13 @@ public static HttpResponse badRequest(int code, String msg) {
         return r;
     }
 
+    public static HttpResponse gatewayTimeout(String msg) {
+        HttpResponse r = new HttpResponse(504, "Gateway Timeout");
+        r.headers.put("Content-Type", "text/plain; charset=utf-8");
+        r.body(msg.getBytes(StandardCharsets.UTF_8));
+        return r;
+    }
+
     public static HttpResponse internalError(String msg) {
         HttpResponse r = new HttpResponse(500, "Internal Server Error");
         r.headers.put("Content-Type", "text/plain; charset=utf-8");
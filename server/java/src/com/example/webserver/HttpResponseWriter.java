@@ -2,35 +2,269 @@ package com.example.webserver;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.time.ZonedDateTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
+/**
+ * Serializes responses without per-response string building.
+ *
+ * The head is encoded straight into a per-thread byte buffer. Status lines,
+ * the fixed Server/Connection headers and frequent header lines are kept
+ * pre-encoded, and the Date line is formatted at most once per second and
+ * shared. With a socket channel, head and body go out in one gathering
+ * write.
+ */
 public class HttpResponseWriter {
     private static final DateTimeFormatter RFC_1123_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withLocale(Locale.US);
 
+    static final String SERVER = "Java-MT-Server/1.0";
+
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] FIXED_HEADERS = ascii("Server: " + SERVER + "\r\nConnection: close\r\n");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] COLON_SPACE = ascii(": ");
+
+    private static final int INITIAL_HEAD_CAPACITY = 512;
+
+    /* ===== Pre-encoded status lines and headers ===== */
+
+    private static final Map<Integer, byte[]> STATUS_LINES = new HashMap<>();
+    private static final Map<Integer, String> REASONS = new HashMap<>();
+
+    static {
+        status(200, "OK");
+        status(204, "No Content");
+        status(304, "Not Modified");
+        status(400, "Bad Request");
+        status(404, "Not Found");
+        status(405, "Method Not Allowed");
+        status(429, "Too Many Requests");
+        status(500, "Internal Server Error");
+        status(503, "Service Unavailable");
+        status(504, "Gateway Timeout");
+    }
+
+    // Whole "Name: value\r\n" lines for the pairs this server sends most
+    private static final Map<String, Map<String, byte[]>> HEADER_LINES = new HashMap<>();
+
+    static {
+        header("Content-Type", "text/plain; charset=utf-8");
+        header("Content-Type", "application/json; charset=utf-8");
+        header("Content-Type", "application/octet-stream");
+        header("Content-Type", "text/html; charset=utf-8");
+        header("X-Cache", "HIT");
+        header("X-Cache", "MISS");
+    }
+
+    /* ===== Date header, shared per second ===== */
+
+    private static final class DateLine {
+        final long second;
+        final String value;
+        final byte[] bytes;
+
+        DateLine(long second) {
+            this.second = second;
+            this.value = RFC_1123_DATE.format(Instant.ofEpochSecond(second).atOffset(ZoneOffset.UTC));
+            this.bytes = ascii("Date: " + value + "\r\n");
+        }
+    }
+
+    private static volatile DateLine dateLine = new DateLine(System.currentTimeMillis() / 1000);
+
+    private static final ThreadLocal<byte[]> HEAD_BUFFER =
+            ThreadLocal.withInitial(() -> new byte[INITIAL_HEAD_CAPACITY]);
+
     public static void write(OutputStream out, HttpResponse resp) throws IOException {
-        byte[] body = resp.body() == null ? new byte[0] : resp.body();
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("HTTP/1.1 ").append(resp.status()).append(' ').append(resp.reason()).append("\r\n");
-        sb.append("Date: ").append(RFC_1123_DATE.format(ZonedDateTime.now())).append("\r\n");
-        sb.append("Server: Java-MT-Server/1.0\r\n");
-        sb.append("Connection: close\r\n");
-        sb.append("Content-Length: ").append(body.length).append("\r\n");
-        resp.headers().forEach((k, v) -> {
-             if (!k.equalsIgnoreCase("Content-Length")
-            && !k.equalsIgnoreCase("Connection")
-            && !k.equalsIgnoreCase("Date")
-            && !k.equalsIgnoreCase("Server")) {
-        sb.append(k).append(": ").append(v).append("\r\n");
-    }
-});
-        sb.append("\r\n");
-
-        out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
-        if (body.length > 0) out.write(body);
-        out.flush();
+        write(out, null, resp);
+    }
+
+    /**
+     * Writes {@code resp}. With a socket {@code channel} (may be null) the
+     * head and an in-memory body go out in one gathering write and a
+     * streamed body may use it directly; otherwise everything goes to
+     * {@code out}. {@code out} must have nothing buffered when a channel
+     * is passed.
+     */
+    public static void write(OutputStream out, WritableByteChannel channel, HttpResponse resp) throws IOException {
+        ResponseBody stream = resp.stream();
+        try {
+            byte[] body = resp.body();
+            long length = stream != null ? stream.length() : body == null ? 0 : body.length;
+            Head head = encodeHead(resp, length);
+
+            if (channel != null) {
+                ByteBuffer headBuf = ByteBuffer.wrap(head.buf, 0, head.pos);
+                if (stream == null && body != null && body.length > 0
+                        && channel instanceof GatheringByteChannel gathering) {
+                    ByteBuffer[] gather = { headBuf, ByteBuffer.wrap(body) };
+                    while (gather[1].hasRemaining()) {
+                        gathering.write(gather);
+                    }
+                } else {
+                    while (headBuf.hasRemaining()) {
+                        channel.write(headBuf);
+                    }
+                    if (stream == null && body != null && body.length > 0) {
+                        out.write(body);
+                    }
+                }
+            } else {
+                out.write(head.buf, 0, head.pos);
+                if (stream == null && body != null && body.length > 0) {
+                    out.write(body);
+                }
+            }
+
+            if (stream != null) {
+                out.flush();
+                stream.writeTo(out, channel);
+            }
+            out.flush();
+        } finally {
+            if (stream != null) stream.close();
+        }
+    }
+
+    /** Encodes the response head into the thread's reusable buffer. */
+    private static Head encodeHead(HttpResponse resp, long length) {
+        Head h = new Head(HEAD_BUFFER.get());
+
+        byte[] statusLine = STATUS_LINES.get(resp.status());
+        if (statusLine != null && REASONS.get(resp.status()).equals(resp.reason())) {
+            h.put(statusLine);
+        } else {
+            h.putAscii("HTTP/1.1 ").putLong(resp.status()).putAscii(" ").putAscii(resp.reason()).put(CRLF);
+        }
+
+        h.put(currentDateLine());
+        h.put(FIXED_HEADERS);
+        if (length >= 0 && resp.status() != 304) {
+            h.put(CONTENT_LENGTH).putLong(length).put(CRLF);
+        }
+
+        for (Map.Entry<String, String> e : resp.headers().entrySet()) {
+            String name = e.getKey();
+            if (isManagedHeader(name)) continue;
+
+            Map<String, byte[]> known = HEADER_LINES.get(name);
+            byte[] line = known == null ? null : known.get(e.getValue());
+            if (line != null) {
+                h.put(line);
+            } else {
+                h.putAscii(name).put(COLON_SPACE).putAscii(e.getValue()).put(CRLF);
+            }
+        }
+        h.put(CRLF);
+
+        HEAD_BUFFER.set(h.buf); // keep it if it had to grow
+        return h;
+    }
+
+    /** Headers the writer emits itself; one comparison at most, picked by length. */
+    private static boolean isManagedHeader(String name) {
+        switch (name.length()) {
+            case 4: return name.equalsIgnoreCase("Date");
+            case 6: return name.equalsIgnoreCase("Server");
+            case 10: return name.equalsIgnoreCase("Connection");
+            case 14: return name.equalsIgnoreCase("Content-Length");
+            default: return false;
+        }
+    }
+
+    private static byte[] currentDateLine() {
+        return currentDate().bytes;
+    }
+
+    /** The Date header value for now, shared with the HTTP/2 path. */
+    static String currentDateValue() {
+        return currentDate().value;
+    }
+
+    private static DateLine currentDate() {
+        long second = System.currentTimeMillis() / 1000;
+        DateLine d = dateLine;
+        if (d.second != second) {
+            // Racing threads may both format; either result is correct
+            d = new DateLine(second);
+            dateLine = d;
+        }
+        return d;
+    }
+
+    /* ===== Encoding helpers ===== */
+
+    /** Append cursor over a growable byte array. */
+    private static final class Head {
+        byte[] buf;
+        int pos;
+
+        Head(byte[] buf) {
+            this.buf = buf;
+        }
+
+        Head put(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, pos, b.length);
+            pos += b.length;
+            return this;
+        }
+
+        // Header text is ASCII; anything else is replaced rather than mis-encoded
+        Head putAscii(String s) {
+            int n = s.length();
+            ensure(n);
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                buf[pos++] = c < 0x80 ? (byte) c : (byte) '?';
+            }
+            return this;
+        }
+
+        Head putLong(long v) {
+            if (v == 0) {
+                ensure(1);
+                buf[pos++] = '0';
+                return this;
+            }
+            int digits = 0;
+            for (long t = v; t > 0; t /= 10) digits++;
+            ensure(digits);
+            for (int i = pos + digits - 1; i >= pos; i--) {
+                buf[i] = (byte) ('0' + (v % 10));
+                v /= 10;
+            }
+            pos += digits;
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+    }
+
+    private static void status(int code, String reason) {
+        REASONS.put(code, reason);
+        STATUS_LINES.put(code, ascii("HTTP/1.1 " + code + " " + reason + "\r\n"));
+    }
+
+    private static void header(String name, String value) {
+        HEADER_LINES.computeIfAbsent(name, k -> new HashMap<>())
+                .put(value, ascii(name + ": " + value + "\r\n"));
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
     }
 }
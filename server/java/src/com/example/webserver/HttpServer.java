@@ -2,165 +2,276 @@ package com.example.webserver;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.*;
 
+import com.example.net.Acceptors;
+import com.example.net.AdaptiveConcurrencyLimiter;
+import com.example.net.BufferPool;
+import com.example.net.ConfigFile;
+import com.example.net.GracefulShutdown;
+import com.example.net.LoadShedder;
+import com.example.net.PooledInputStream;
+import com.example.net.PooledOutputStream;
+import com.example.net.TlsConfig;
+import com.example.net.WorkerGroups;
+
 public class HttpServer {
     private final int port;
     private final Router router;
-    private final LruCache<String, CacheEntry> cache;
-    private final RateLimiter rateLimiter;
     private final Metrics metrics;
 
-    private volatile boolean running = true;
-    private ServerSocket serverSocket;
-    private final ExecutorService pool;
+    private final Acceptors acceptors;
+    private final WorkerGroups pool;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final Executor completions;
+    private DisconnectWatcher watcher;
+    private final H2cHandler h2c;
+    private final TlsConfig tls;
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+    private static final CompletableFuture<Long> NO_REQUEST = CompletableFuture.completedFuture(null);
+
+    private static final long STOP_GRACE_MILLIS = 5_000;
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 15_000;
+
+    private final boolean reusePort = Boolean.getBoolean("server.reusePort");
+    private final long drainTimeoutMillis = Long.getLong("server.drainTimeout", 30_000L);
+    private final int defaultThreads;
+    private volatile int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+    private final CountDownLatch stopped = new CountDownLatch(1);
 
-    public HttpServer(int port, Router router, LruCache<String, CacheEntry> cache, RateLimiter rateLimiter, Metrics metrics) {
+    /**
+     * Rate limiting, caching and similar concerns are {@link Filter}s
+     * registered on {@code router}, globally or per route.
+     */
+    public HttpServer(int port, Router router, Metrics metrics) {
         this.port = port;
         this.router = router;
-        this.cache = cache;
-        this.rateLimiter = rateLimiter;
         this.metrics = metrics;
         int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
-        this.pool = new ThreadPoolExecutor(
-                threads, threads,
-                60L, TimeUnit.SECONDS,
-                new ArrayBlockingQueue<>(1024),
-                new ThreadFactory() {
-                    private final ThreadFactory def = Executors.defaultThreadFactory();
-                    @Override public Thread newThread(Runnable r) {
-                        Thread t = def.newThread(r);
-                        t.setName("http-worker-" + t.getId());
-                       // t.setDaemon(true);
-                        t.setDaemon(false);
-                        return t;
-                    }
-                }, // Keep the default AbortPolicy; we'll handle RejectedExecutionException after accept().
-                new ThreadPoolExecutor.AbortPolicy()
-        );
+        this.defaultThreads = threads;
+        this.acceptors = new Acceptors("http", Integer.getInteger("server.acceptors", 1));
+        // One worker group per acceptor; overload is handled after accept()
+        this.pool = new WorkerGroups("http-worker", acceptors.size(), threads, 1024);
+        metrics.attachAcceptors(acceptors);
+        this.limiter = AdaptiveConcurrencyLimiter.fromSystemProperties(
+                "server.limiter", threads + 1024);
+        // Async responses are written back on the worker pool; if it is
+        // saturated, on whichever thread completed the stage before: the
+        // handler's, or the disconnect watcher's callback thread (never
+        // its selector)
+        this.completions = task -> {
+            try {
+                pool.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        };
+        this.h2c = H2cHandler.fromSystemProperties(router, metrics, pool, completions, limiter);
+        try {
+            // h2 over TLS takes the same path as h2c prior knowledge
+            this.tls = TlsConfig.fromSystemProperties("server.tls", h2c != null ? "h2,http/1.1" : "http/1.1");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot configure TLS", e);
+        }
+        if (tls != null) metrics.attachTls(tls.metrics());
     }
 
     public void start() throws IOException {
-        try (ServerSocket ss = new ServerSocket()) {
-            this.serverSocket = ss;
-            ss.setReuseAddress(true);
-            ss.bind(new InetSocketAddress(port));
-            while (running) {
-                try {
-                    final Socket socket = ss.accept();
-                    socket.setTcpNoDelay(true);
-                    socket.setSoTimeout(15000); // read timeout
-                     try {
-                        pool.execute(() -> handle(socket));
-                    } catch (RejectedExecutionException rex) {
-                    // Saturated; drop connection gracefully
-                    metrics.incDropped();
-                    try{
-                      // Optionally send a short 503 response. Keep it simple: close the socket.
-                            socket.close();
-                        } catch (IOException ignored) {}
-                }
-            } catch(SocketException se) {
-                    // This happens when serverSocket.close() is called in stop().
-                    // If we're stopping, break quietly; otherwise surface the error.
-                  if (running) {
-                        metrics.incErrors();
-                        throw se;
-                    } else {
-                        break;
-                    }
-                } catch (IOException ioe) {
-                    // Transient IO error on accept - count it and continue
-                    metrics.incErrors();
-                }
+        try (DisconnectWatcher watcher = new DisconnectWatcher()) {
+            this.watcher = watcher;
+            boolean reusePortEnabled = acceptors.bind(port, 0, reusePort);
+            if ((reusePort || acceptors.size() > 1) && !reusePortEnabled) {
+                System.err.println("[server] SO_REUSEPORT not supported; "
+                        + acceptors.size() + " acceptor(s) share one listener");
             }
+            // Accept errors are counted and the loops carry on; stopping
+            // takes what the kernel already queued (closing would reset it)
+            // and closes the listeners, then in-flight requests finish
+            int queued = acceptors.run(this::dispatch, e -> metrics.incErrors());
+            System.out.println("[server] Stopped accepting (" + queued + " queued connections taken)");
+            drain();
         } finally {
-            // graceful shutdown: stop accepting new tasks, wait a bit, then force-kill remaining
+            acceptors.close();
             pool.shutdown();
             try {
-                if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+                if (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
                     pool.shutdownNow();
                 }
             } catch (InterruptedException ie) {
                 Thread.currentThread().interrupt();
                 pool.shutdownNow();
             }
+            stopped.countDown();
         }
     }
 
-    private void handle(Socket socket) {
+    /** Hands an accepted connection to its acceptor's worker group, or sheds it. */
+    private void dispatch(Socket accepted, int acceptor) throws IOException {
+        // Handshake happens on the worker, at first read
+        final Socket socket = tls != null ? tls.wrap(accepted) : accepted;
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(readTimeoutMillis);
+        // Shed early: answer 503 from the acceptor instead of queueing
+        if (!limiter.tryAcquire()) {
+            metrics.incShed();
+            ConnectionDroppedEvent.emit(socket, "SHED");
+            LoadShedder.reject(socket);
+            return;
+        }
+        try {
+            // In flight until the response is written, which for async
+            // routes is after this task has returned. The latency fed back
+            // starts once the request is parsed, so queueing and slow
+            // clients don't read as a slow server
+            pool.execute(() -> handle(socket).whenComplete((parsedAt, t) -> {
+                if (parsedAt == null) {
+                    limiter.releaseDropped();
+                } else {
+                    limiter.release(System.nanoTime() - parsedAt);
+                }
+            }), acceptor);
+        } catch (RejectedExecutionException rex) {
+            // Saturated; shed with a 503 rather than a silent close
+            limiter.releaseDropped();
+            metrics.incDropped();
+            ConnectionDroppedEvent.emit(socket, "REJECTED");
+            LoadShedder.reject(socket);
+        }
+    }
+
+    /**
+     * Waits for accepted connections (including async responses) and open
+     * HTTP/2 connections to finish, up to the drain timeout. HTTP/2 clients
+     * get GOAWAY so they open no new streams; whatever is left at the
+     * deadline is closed.
+     */
+    private void drain() {
+        if (h2c != null) h2c.goAwayAll();
+        boolean drained = GracefulShutdown.awaitDrained(
+                () -> limiter.getInFlight() + (h2c != null ? h2c.openConnections() : 0),
+                drainTimeoutMillis,
+                msg -> System.out.println("[server] " + msg));
+        if (!drained && h2c != null) h2c.closeAll();
+    }
+
+    /**
+     * Serves one connection; the stage completes once it is closed, with
+     * the time its request was parsed, or null if there was none to serve
+     * here (malformed, timed out, or handed to HTTP/2). The stream buffers
+     * come from {@link BufferPool#shared()} and go back as soon as each side
+     * is done with them.
+     */
+    private CompletionStage<Long> handle(Socket socket) {
         metrics.incConnections();
-        try (socket;
-             InputStream in = new BufferedInputStream(socket.getInputStream());
-             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+        long start = System.nanoTime();
+        Long parsedAt = null;
+        PooledInputStream in = null;
+        PooledOutputStream out = null;
+        boolean outHandedOff = false;
+        try {
+            in = new PooledInputStream(socket.getInputStream(), BufferPool.shared());
+            out = new PooledOutputStream(socket.getOutputStream(), BufferPool.shared());
 
-            long start = System.nanoTime();
             HttpRequest req = HttpRequest.parse(in);
             if (req == null) { //// best-effort: write a response, but if it fails, just close.
                  try { 
                     HttpResponseWriter.write(out, HttpResponse.badRequest("Malformed request"));
                  }
                  catch (IOException ignored) {}
-                    return;
+                close(socket);
+                return NO_REQUEST;
             }
+            parsedAt = System.nanoTime();
 
-            String client = clientKey(socket);
-            if (!rateLimiter.allow(client)) {
-                metrics.incRateLimited();
-                try{
-                    HttpResponseWriter.write(out, HttpResponse.tooManyRequests("Rate limit exceeded"));
-                }
-                catch (IOException ignored) {}
-                    return;
+            // HTTP/2 runs on its own connection thread from here on, and
+            // its reader owns the input buffer; each stream is admitted by
+            // the limiter on its own
+            if (h2c != null && H2cHandler.isPriorKnowledge(req)) {
+                h2c.servePriorKnowledge(socket, in);
+                in = null;
+                return NO_REQUEST;
+            }
+            if (h2c != null && H2cHandler.isUpgrade(req) && h2c.hasRoom()) {
+                h2c.serveUpgrade(socket, in, out, req);
+                in = null;
+                return NO_REQUEST;
             }
 
-            HttpResponse resp;
-            boolean cacheable = "GET".equals(req.method());
-            String cacheKey = req.method() + " " + req.path();
-
-            if (cacheable) {
-                CacheEntry cached = cache.get(cacheKey);
-                if (cached != null && !cached.isExpired()) {
-                    resp = HttpResponse.okBytes(cached.body());
-                    resp.headers().putAll(cached.headers());
-                    resp.headers().putIfAbsent("X-Cache", "HIT");
-                    metrics.incCacheHit();
-                } else {
-                    resp = router.handle(req);
-                    resp.headers().put("X-Cache", "MISS");
-                    if (resp.status() == 200 && resp.body() != null && resp.body().length < 1_000_000) {
-                        cache.put(cacheKey, CacheEntry.from(resp, cache.getTtlMillis()));
-                        metrics.incCacheStore();
-                    }
-                }
-            } else {
-                resp = router.handle(req);
+            // One request per connection: nothing more will be read
+            in.release();
+
+            CompletableFuture<Void> disconnect = new CompletableFuture<>();
+            CompletableFuture<HttpResponse> pending = router.handleAsync(
+                    req.withConnection(clientKey(socket), disconnect)).toCompletableFuture();
+
+            if (pending.isDone()) {
+                finish(socket, out, req, pending.join(), start);
+                return CompletableFuture.completedFuture(parsedAt);
             }
 
-            HttpResponseWriter.write(out, resp);
-            long took = System.nanoTime() - start;
-            metrics.observeRequest(req.method(), resp.status(), took);
+            // Async route: free this worker; watch for the client hanging up
+            final PooledOutputStream asyncOut = out;
+            final Long asyncParsedAt = parsedAt;
+            outHandedOff = true;
+            SocketChannel channel = socket.getChannel();
+            DisconnectWatcher.Watch watch = channel == null ? null
+                    : watcher.watch(channel, () -> disconnect.complete(null));
+            return pending
+                    .thenCompose(resp -> (watch == null ? DONE : watcher.unwatch(watch))
+                            .thenApplyAsync(v -> resp, completions))
+                    .thenAccept(resp -> {
+                        if (disconnect.isDone()) {
+                            metrics.incCancelled();
+                            ConnectionDroppedEvent.emit(socket, "DISCONNECTED");
+                            close(socket);
+                        } else {
+                            finish(socket, asyncOut, req, resp, start);
+                        }
+                    })
+                    .whenComplete((v, t) -> asyncOut.release())
+                    .thenApply(v -> asyncParsedAt);
         } catch (SocketTimeoutException ste) {
             metrics.incTimeouts();
-         // optionally close socket (try-with-resources will close it)
-        } catch (IOException ioe) {
-            metrics.incErrors();
-            // Try to send internal error if possible
-            try {
-                OutputStream out = socket.getOutputStream();
-                HttpResponseWriter.write(out, HttpResponse.internalError("I/O error"));
-            } catch (Exception ignored) {}
+            close(socket);
         } catch (Exception e) {
-            metrics.incErrors();
             // Try to send internal error if possible
-            try {
-                OutputStream out = socket.getOutputStream();
-                HttpResponseWriter.write(out, HttpResponse.internalError("Internal server error"));
-            } catch (Exception ignored) {}
+            fail(socket, e instanceof IOException ? "I/O error" : "Internal server error");
+        } finally {
+            if (in != null) in.release();
+            if (out != null && !outHandedOff) out.release();
+        }
+        return CompletableFuture.completedFuture(parsedAt);
+    }
+
+    private void finish(Socket socket, OutputStream out, HttpRequest req, HttpResponse resp, long start) {
+        try {
+            HttpResponseWriter.write(out, socket.getChannel(), resp);
+            long took = System.nanoTime() - start;
+            metrics.observeRequest(req.method(), resp.status(), took);
+            close(socket);
+        } catch (IOException ioe) {
+            fail(socket, "I/O error");
         }
     }
 
-    private static String clientKey(Socket s) {
+    private void fail(Socket socket, String message) {
+        metrics.incErrors();
+        try {
+            OutputStream out = socket.getOutputStream();
+            HttpResponseWriter.write(out, HttpResponse.internalError(message));
+        } catch (Exception ignored) {}
+        close(socket);
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    static String clientKey(Socket s) {
         try{ // Prefer IP only (no ephemeral port) for client-level rate limiting
             SocketAddress addr = s.getRemoteSocketAddress();
             if (addr instanceof InetSocketAddress isa) {
@@ -173,14 +284,43 @@ public class HttpServer {
         }
     }
 
+    /**
+     * Applies {@code config} now and on every reload: {@code server.threads}
+     * (worker threads, default twice the cores) and
+     * {@code server.readTimeout} (ms, 15000). The limiter and the queue keep
+     * their startup sizes.
+     */
+    public void configure(ConfigFile config) {
+        config.onChange(p -> {
+            int threads = ConfigFile.getInt(p, "server.threads", defaultThreads);
+            int readTimeout = ConfigFile.getInt(p, "server.readTimeout", DEFAULT_READ_TIMEOUT_MILLIS);
+            if (threads < 1 || readTimeout < 0) {
+                throw new IllegalArgumentException("Invalid settings: server.threads=" + threads
+                        + " server.readTimeout=" + readTimeout);
+            }
+            pool.resize(threads);
+            readTimeoutMillis = readTimeout;
+        });
+    }
+
+    public String describeSettings() {
+        return "threads=" + pool.threads() + " readTimeout=" + readTimeoutMillis + "ms";
+    }
+
+    /**
+     * Stops accepting and returns once in-flight requests have finished or
+     * {@code server.drainTimeout} has passed, so it can run in a shutdown
+     * hook. start() does the draining and returns too.
+     */
     public void stop() {
-        running = false;
+        acceptors.stop();
+        if (!acceptors.isBound()) return; // never started
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close(); // will cause accept() to throw SocketException and exit loop
+            if (!stopped.await(drainTimeoutMillis + STOP_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                System.err.println("[server] Gave up waiting for shutdown");
             }
-        } catch (IOException ignored) {}
-        // prefer orderly shutdown; start()'s finally block will await termination
-        pool.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
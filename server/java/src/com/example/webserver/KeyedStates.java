@@ -0,0 +1,97 @@
+package com.example.webserver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * Sharded per-key state for the limiters, with background expiry.
+ *
+ * Lookups hit one of several {@link ConcurrentHashMap} shards. A single
+ * daemon thread shared by every instance sweeps one shard per tick and
+ * drops states the owner reports as idle, so no request ever pays for a
+ * full scan.
+ */
+final class KeyedStates<S> implements AutoCloseable {
+
+    /** Tells the sweeper whether a state can be dropped at {@code now}. */
+    interface IdleCheck<S> {
+        boolean isIdle(S state, long now);
+    }
+
+    private static final long SWEEP_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final int SHARDS =
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 4 - 1) << 1;
+
+    // One daemon thread sweeps for every limiter in the process
+    private static final ScheduledExecutorService SWEEPER =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "rate-limiter-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Map<String, S>[] shards = new Map[SHARDS];
+
+    private final LongFunction<S> factory;
+    private final IdleCheck<S> idleCheck;
+    private final ScheduledFuture<?> sweepTask;
+    private int nextShardToSweep;
+
+    KeyedStates(LongFunction<S> factory, IdleCheck<S> idleCheck) {
+        this.factory = factory;
+        this.idleCheck = idleCheck;
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new ConcurrentHashMap<>();
+        }
+
+        long tick = Math.max(1, SWEEP_PERIOD_NANOS / SHARDS);
+        this.sweepTask = SWEEPER.scheduleWithFixedDelay(
+                this::sweepNextShard, tick, tick, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The state for {@code key}, created at {@code now} if missing. Callers
+     * pass the same {@code now} they decide with, so a new state never
+     * starts later than the request that creates it.
+     */
+    S get(String key, long now) {
+        Map<String, S> shard = shardFor(key);
+        S state = shard.get(key);
+        return state != null ? state : shard.computeIfAbsent(key, k -> factory.apply(now));
+    }
+
+    int size() {
+        int n = 0;
+        for (Map<String, S> shard : shards) {
+            n += shard.size();
+        }
+        return n;
+    }
+
+    @Override
+    public void close() {
+        sweepTask.cancel(false);
+    }
+
+    private Map<String, S> shardFor(String key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+    }
+
+    // Runs on the sweeper thread only. A state removed here while a request
+    // still holds it was idle anyway, so at worst one extra request passes.
+    private void sweepNextShard() {
+        Map<String, S> shard = shards[nextShardToSweep];
+        nextShardToSweep = (nextShardToSweep + 1) & (SHARDS - 1);
+
+        long now = System.nanoTime();
+        shard.values().removeIf(s -> idleCheck.isIdle(s, now));
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.webserver;
+
+/**
+ * Per-key admission decision shared by the rate limiting implementations.
+ */
+public interface Limiter {
+
+    /** Returns true if a request for {@code key} may proceed now. */
+    boolean allow(String key);
+}
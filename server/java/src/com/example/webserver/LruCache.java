@@ -1,12 +1,13 @@
 package com.example.webserver;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class LruCache<K, V extends CacheEntry> {
 
-    private final int maxSize;
-    private final long ttlNanos;
+    private volatile int maxSize;
+    private volatile long ttlNanos;
 
     private final Map<K, V> map;
 
@@ -19,19 +20,28 @@ public class LruCache<K, V extends CacheEntry> {
         this.map = new LinkedHashMap<>(16, 0.75f, true) {
             @Override
             protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-                return size() > LruCache.this.maxSize;
+                if (size() > LruCache.this.maxSize) {
+                    CacheEvent.emit(CacheEvent.EVICT, eldest.getKey(), size() - 1);
+                    return true;
+                }
+                return false;
             }
         };
     }
 
     public synchronized V get(K key) {
         V entry = map.get(key);
-        if (entry == null) return null;
+        if (entry == null) {
+            CacheEvent.emit(CacheEvent.MISS, key, map.size());
+            return null;
+        }
 
         if (entry.isExpired()) {
             map.remove(key);
+            CacheEvent.emit(CacheEvent.EXPIRE, key, map.size());
             return null;
         }
+        CacheEvent.emit(CacheEvent.HIT, key, map.size());
         return entry;
     }
 
@@ -43,47 +53,27 @@ public class LruCache<K, V extends CacheEntry> {
         return map.size();
     }
 
+    public int getMaxSize() {
+        return maxSize;
+    }
+
     public long getTtlMillis() {
         return ttlNanos / 1_000_000L;
     }
-}
-public class CacheEntry {
-
-    private final byte[] body;
-    private final Map<String, String> headers;
-    private final long expiresAtNanos;
-
-    CacheEntry(byte[] body, Map<String, String> headers, long ttlMillis) {
-        this.body = body.clone();
-        this.headers = Collections.unmodifiableMap(
-                new LinkedHashMap<>(headers)
-        );
 
-        if (ttlMillis > 0) {
-            this.expiresAtNanos =
-                    System.nanoTime() + ttlMillis * 1_000_000L;
-        } else {
-            this.expiresAtNanos = Long.MAX_VALUE;
+    /** Changes the capacity, evicting least recently used entries down to it now. */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+        while (map.size() > this.maxSize && it.hasNext()) {
+            K key = it.next().getKey();
+            it.remove();
+            CacheEvent.emit(CacheEvent.EVICT, key, map.size());
         }
     }
 
-    public static CacheEntry from(HttpResponse r, long ttlMillis) {
-        return new CacheEntry(
-                r.body(),
-                r.headers(),
-                ttlMillis
-        );
-    }
-
-    public boolean isExpired() {
-        return System.nanoTime() > expiresAtNanos;
-    }
-
-    public byte[] body() {
-        return body.clone();
-    }
-
-    public Map<String, String> headers() {
-        return headers;
+    /** Changes the TTL of entries stored from now on; existing entries keep theirs. */
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlNanos = ttlMillis > 0 ? ttlMillis * 1_000_000L : 0;
     }
 }
@@ -1,26 +1,41 @@
 package com.example.webserver;
 
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.example.net.ConfigFile;
+
 public class Main {
 
     public static void main(String[] args) throws Exception {
         int port = parsePort(args);
 
-        // Global response cache: 1024 entries, 30s TTL
+        // Response cache: 1024 entries, 30s TTL; enabled per route below
         LruCache<String, CacheEntry> cache =
                 new LruCache<>(1024, 30_000);
 
-        // Rate limit: 50 req/s, burst up to 100 per key
-        RateLimiter rateLimiter =
-                new RateLimiter(50.0, 100.0);
+        // Rate limit: 50 req/s, burst up to 100 per key.
+        // With -Dcluster.port the limit is enforced across all peers instead
+        // (and is not reloadable).
+        Limiter rateLimiter = ClusterRateLimiter.fromSystemProperties(50.0);
+        ReloadableLimiter localLimiter = null;
+        if (rateLimiter == null) {
+            localLimiter = new ReloadableLimiter(RateLimiter::new, 50.0, 100.0);
+            rateLimiter = localLimiter;
+        }
 
         Metrics metrics = new Metrics();
 
         Router router = new Router();
+        router.use(new RateLimitFilter(rateLimiter, metrics));
+        CacheFilter cached = new CacheFilter(cache, metrics);
 
         // Demo routes
         router.get("/", ctx ->
                 HttpResponse.okText("Welcome to the Java Multithreaded Web Server!")
         );
+        router.use("GET", "/", cached);
 
         router.get("/healthz", ctx ->
                 HttpResponse.okText("ok")
@@ -33,17 +48,80 @@ public class Main {
                 ))
         );
 
+        router.get("/hello/{name}", ctx ->
+                HttpResponse.okText("Hello, " + ctx.pathParam("name") + "!")
+        );
+        router.use("GET", "/hello/{name}", cached);
+
+        // Async: answers after {ms} without holding a worker; 504 after 2s
+        router.getAsync("/delay/{ms}", 2_000, ctx -> {
+            long ms = parseMillis(ctx.pathParam("ms"));
+            return CompletableFuture.supplyAsync(
+                    () -> HttpResponse.okText("Waited " + ms + " ms"),
+                    CompletableFuture.delayedExecutor(ms, TimeUnit.MILLISECONDS));
+        });
+
+        // Files under -Dserver.staticDir (default ./public), sent with sendfile
+        router.get("/static/*", new StaticFileHandler(
+                Paths.get(System.getProperty("server.staticDir", "public"))));
+
         router.post("/echo", ctx ->
                 HttpResponse.okBytes(ctx.body())
         );
 
-        HttpServer server =
-                new HttpServer(port, router, cache, rateLimiter, metrics);
+        // Tighter per-route limits on top of the global one; the algorithm
+        // is selectable with -Dserver.routeLimiter (token-bucket, gcra,
+        // sliding-window-log, sliding-window-counter)
+        RateLimitAlgorithm routeAlgorithm = RateLimitAlgorithm.parse(
+                System.getProperty("server.routeLimiter", "gcra"));
+        ReloadableLimiter timeLimiter = new ReloadableLimiter(routeAlgorithm::create, 10.0, 5.0);
+        ReloadableLimiter echoLimiter = new ReloadableLimiter(routeAlgorithm::create, 20.0, 20.0);
+        router.use("GET", "/time", new RateLimitFilter(timeLimiter, metrics));
+        router.use("POST", "/echo", new RateLimitFilter(echoLimiter, metrics));
+
+        HttpServer server = new HttpServer(port, router, metrics);
+
+        // -Dserver.config=<file>: the settings above, re-read whenever the file changes
+        ConfigFile config = ConfigFile.fromSystemProperty("server.config");
+        if (config != null) {
+            server.configure(config);
+            config.onChange(p -> {
+                int maxEntries = ConfigFile.getInt(p, "server.cache.maxEntries", 1024);
+                long ttl = ConfigFile.getLong(p, "server.cache.ttl", 30_000L);
+                if (maxEntries < 1 || ttl < 0) {
+                    throw new IllegalArgumentException("Invalid settings: server.cache.maxEntries="
+                            + maxEntries + " server.cache.ttl=" + ttl);
+                }
+                cache.setMaxSize(maxEntries);
+                cache.setTtlMillis(ttl);
+            });
+            if (localLimiter != null) {
+                reloadRateLimit(config, localLimiter, "server.rateLimit", 50.0, 100.0);
+            }
+            reloadRateLimit(config, timeLimiter, "server.routeLimit.time", 10.0, 5.0);
+            reloadRateLimit(config, echoLimiter, "server.routeLimit.echo", 20.0, 20.0);
+            final Limiter globalLimiter = rateLimiter;
+            config.onChange(p -> System.out.println("[server] Settings: " + server.describeSettings()
+                    + " cache=" + cache.getMaxSize() + " entries/" + cache.getTtlMillis() + "ms"
+                    + " rateLimit=" + (globalLimiter instanceof ReloadableLimiter r ? r.describe() : "cluster")
+                    + " /time=" + timeLimiter.describe() + " /echo=" + echoLimiter.describe()));
+            config.watch();
+        }
+        // SIGTERM stops accepting and drains in-flight requests before the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "server-shutdown"));
 
         System.out.println("[server] Starting on port " + port);
         server.start();
     }
 
+    /** Keeps {@code limiter} at {@code <prefix>.rate} req/s and {@code <prefix>.burst}. */
+    private static void reloadRateLimit(ConfigFile config, ReloadableLimiter limiter, String prefix,
+                                        double defaultRate, double defaultBurst) {
+        config.onChange(p -> limiter.update(
+                ConfigFile.getDouble(p, prefix + ".rate", defaultRate),
+                ConfigFile.getDouble(p, prefix + ".burst", defaultBurst)));
+    }
+
     private static int parsePort(String[] args) {
         if (args.length == 0) return 8080;
 
@@ -56,6 +134,14 @@ public class Main {
         }
     }
 
+    private static long parseMillis(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new HttpException(HttpResponse.badRequest("Invalid delay: " + s));
+        }
+    }
+
     private static String jsonField(String key, long value) {
         return "{\"" + key + "\":" + value + "}";
     }
@@ -1,28 +1,47 @@
 package com.example.webserver;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.example.net.Acceptors;
+import com.example.net.BufferPool;
+import com.example.net.TlsMetrics;
+
 public class Metrics {
     private final AtomicLong connections = new AtomicLong();
     private final AtomicLong requests = new AtomicLong();
     private final AtomicLong timeouts = new AtomicLong();
     private final AtomicLong errors = new AtomicLong();
     private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
     private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong h2Connections = new AtomicLong();
     private final AtomicLong cacheHit = new AtomicLong();
     private final AtomicLong cacheStore = new AtomicLong();
     private final Map<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+    private volatile TlsMetrics tls;
+    private volatile Acceptors acceptors;
 
     public void incConnections() { connections.incrementAndGet(); }
     public void incTimeouts() { timeouts.incrementAndGet(); }
     public void incErrors() { errors.incrementAndGet(); }
     public void incDropped() { dropped.incrementAndGet(); }
+    public void incShed() { shed.incrementAndGet(); }
     public void incRateLimited() { rateLimited.incrementAndGet(); }
+    public void incCancelled() { cancelled.incrementAndGet(); }
+    public void incH2Connections() { h2Connections.incrementAndGet(); }
     public void incCacheHit() { cacheHit.incrementAndGet(); }
     public void incCacheStore() { cacheStore.incrementAndGet(); }
 
+    /** Includes a TLS listener's handshake counters in the summary. */
+    public void attachTls(TlsMetrics tls) { this.tls = tls; }
+
+    /** Includes per-acceptor accept counts and rates in the summary. */
+    public void attachAcceptors(Acceptors acceptors) { this.acceptors = acceptors; }
+
     /* ===== Request observation ===== */
 
     public void observeRequest(String method, int status, long nanos) {
@@ -43,9 +62,15 @@ public class Metrics {
                 + " timeouts=" + timeouts.get()
                 + " errors=" + errors.get()
                 + " dropped=" + dropped.get()
+                + " shed=" + shed.get()
                 + " ratelimited=" + rateLimited.get()
+                + " cancelled=" + cancelled.get()
+                + " h2=" + h2Connections.get()
                 + " cache(hit/store)=" + cacheHit.get() + "/" + cacheStore.get()
-                + " statuses=" + statusSnapshot;
+                + " statuses=" + statusSnapshot
+                + " " + BufferPool.shared().summary()
+                + (acceptors != null ? " " + acceptors.summary() : "")
+                + (tls != null ? " " + tls.summary() : "");
     }
     private Map<Integer, Long> snapshotStatuses() {
         Map<Integer, Long> snapshot = new HashMap<>();
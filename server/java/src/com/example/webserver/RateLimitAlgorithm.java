@@ -0,0 +1,34 @@
+package com.example.webserver;
+
+import java.util.Locale;
+
+/**
+ * The interchangeable local limiter algorithms, for picking one per route.
+ *
+ * All take a sustained rate and a burst. The sliding windows use a one
+ * second window holding {@code rate} requests; the burst is ignored since
+ * the window itself bounds how many can arrive together.
+ */
+public enum RateLimitAlgorithm {
+    TOKEN_BUCKET,
+    GCRA,
+    SLIDING_WINDOW_LOG,
+    SLIDING_WINDOW_COUNTER;
+
+    public Limiter create(double ratePerSecond, double burst) {
+        int perWindow = (int) Math.max(1, Math.round(ratePerSecond));
+        return switch (this) {
+            case TOKEN_BUCKET -> new RateLimiter(ratePerSecond, burst);
+            case GCRA -> new GcraLimiter(ratePerSecond, burst);
+            case SLIDING_WINDOW_LOG ->
+                    new SlidingWindowLimiter(SlidingWindowLimiter.Mode.LOG, perWindow, 1_000);
+            case SLIDING_WINDOW_COUNTER ->
+                    new SlidingWindowLimiter(SlidingWindowLimiter.Mode.COUNTER, perWindow, 1_000);
+        };
+    }
+
+    /** Accepts the constant name in any case, with '-' for '_'. */
+    public static RateLimitAlgorithm parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.webserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event emitted when {@link RateLimiter} rejects a request.
+ */
+@Name("com.example.webserver.RateLimited")
+@Label("Rate Limited")
+@Category({"Web Server", "Rate Limiter"})
+@Description("Request rejected by the token-bucket rate limiter")
+@StackTrace(false)
+class RateLimitEvent extends jdk.jfr.Event {
+
+    @Label("Key")
+    String key;
+
+    static void emit(String key) {
+        RateLimitEvent event = new RateLimitEvent();
+        if (event.shouldCommit()) {
+            event.key = key;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.webserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Answers 429 once the client exceeds {@code limiter}. Keyed by the
+ * client's IP, so the same limiter can guard the whole server or, added
+ * to one route, just that route.
+ */
+public class RateLimitFilter implements Filter {
+
+    private final Limiter limiter;
+    private final Metrics metrics;
+
+    public RateLimitFilter(Limiter limiter, Metrics metrics) {
+        this.limiter = limiter;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CompletionStage<HttpResponse> filter(HttpRequest req, Chain chain) throws Exception {
+        if (!limiter.allow(req.clientAddress())) {
+            metrics.incRateLimited();
+            return CompletableFuture.completedFuture(HttpResponse.tooManyRequests("Rate limit exceeded"));
+        }
+        return chain.proceed(req);
+    }
+}
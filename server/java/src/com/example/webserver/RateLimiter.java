@@ -1,117 +1,128 @@
 package com.example.webserver;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
-public class RateLimiter {
+public class RateLimiter implements Limiter, AutoCloseable {
 
     /* ===== Constants ===== */
 
     private static final long NANOS_PER_SECOND = 1_000_000_000L;
 
-    // Use fixed-point math: 1 token = 1000000 units
-    private static final long TOKEN_SCALE = 1_000_000L;
+    // Token cost is fixed-point so byte rates above 1e9/s aren't rounded to whole nanoseconds
+    private static final int FRACTION_BITS = 20;
+    private static final long FRACTION_MASK = (1L << FRACTION_BITS) - 1;
 
-    // Remove inactive buckets after 5 minutes
-    private static final long BUCKET_TTL_NANOS = 5 * 60 * NANOS_PER_SECOND;
+    // Keep a full bucket around this long before the sweeper may drop it
+    private static final long IDLE_GRACE_NANOS = 60 * NANOS_PER_SECOND;
 
     /* ===== Bucket ===== */
 
+    /**
+     * Token bucket held in a single long: the (virtual) instant at which the
+     * bucket was, or will be, empty. Tokens available at {@code now} are
+     * {@code (now - emptyAt) / nanosPerToken}, capped at the burst, so one
+     * CAS both refills and consumes.
+     */
     private static final class Bucket {
 
-        private final long maxTokens;
-        private final long refillPerNano;
+        private final AtomicLong emptyAt;
 
-        private final AtomicLong tokens;
-
-        private volatile long lastRefillNanos;
-        private volatile long lastAccessNanos;
-
-        Bucket(long refillPerNano, long maxTokens) {
-            this.refillPerNano = refillPerNano;
-            this.maxTokens = maxTokens;
-            this.tokens = new AtomicLong(maxTokens);
-
-            long now = System.nanoTime();
-            this.lastRefillNanos = now;
-            this.lastAccessNanos = now;
-        }
-
-        boolean allow() {
-            long now = System.nanoTime();
-            lastAccessNanos = now;
-
-            refillTokens(now);
-
-            return tryConsumeOneToken();
-        }
-
-        private void refillTokens(long now) {
-            long elapsedNanos = now - lastRefillNanos;
-            if (elapsedNanos <= 0) return;
-
-            long tokensToAdd = elapsedNanos * refillPerNano;
-            if (tokensToAdd <= 0) return;
-
-            long current;
-            long updated;
-
-            do {
-                current = tokens.get();
-                updated = Math.min(maxTokens, current + tokensToAdd);
-            } while (!tokens.compareAndSet(current, updated));
-
-            lastRefillNanos = now;
+        Bucket(long now, long burstNanos) {
+            // Starts full
+            this.emptyAt = new AtomicLong(now - burstNanos);
         }
 
-        private boolean tryConsumeOneToken() {
-            long oneToken = TOKEN_SCALE;
-
+        boolean tryConsume(long now, long nanosPerToken, long burstNanos) {
             while (true) {
-                long current = tokens.get();
-                if (current < oneToken) {
+                long current = emptyAt.get();
+                // Clamp so an idle bucket never holds more than the burst
+                long base = Math.max(current, now - burstNanos);
+                long next = base + nanosPerToken;
+                if (next > now) {
                     return false;
                 }
-                if (tokens.compareAndSet(current, current - oneToken)) {
+                if (emptyAt.compareAndSet(current, next)) {
                     return true;
                 }
             }
         }
+
+        /**
+         * Takes {@code permits} unconditionally, going into debt if needed,
+         * and returns how long the caller must wait for them to be covered.
+         */
+        long reserve(long now, long costNanos, long burstNanos) {
+            while (true) {
+                long current = emptyAt.get();
+                long base = Math.max(current, now - burstNanos);
+                long next = base + costNanos;
+                if (emptyAt.compareAndSet(current, next)) {
+                    return Math.max(0L, next - now);
+                }
+            }
+        }
+
+        boolean isIdle(long now, long burstNanos) {
+            return now - emptyAt.get() > burstNanos + IDLE_GRACE_NANOS;
+        }
     }
 
     /* ===== RateLimiter ===== */
 
-    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
-
-    private final long refillPerNano;
-    private final long maxTokens;
+    private final long nanosPerToken;
+    private final long fixedCostPerToken;   // nanos per token << FRACTION_BITS
+    private final long burstNanos;
+    private final KeyedStates<Bucket> buckets;
 
     public RateLimiter(double ratePerSecond, double burst) {
-        this.refillPerNano =
-                (long) ((ratePerSecond * TOKEN_SCALE) / NANOS_PER_SECOND);
-
-        this.maxTokens = (long) (burst * TOKEN_SCALE);
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("rate must be > 0 and burst >= 1");
+        }
+        // Byte rates need the fraction: 600 MB/s is 1.67 ns per byte, not 2
+        this.fixedCostPerToken = Math.max(1L, Math.round(NANOS_PER_SECOND * (double) (1L << FRACTION_BITS) / ratePerSecond));
+        // Whole nanoseconds are exact enough for any request rate a client can hit;
+        // rounding down keeps a full burst from coming up one token short
+        this.nanosPerToken = Math.max(1L, fixedCostPerToken >>> FRACTION_BITS);
+        this.burstNanos = Math.max((long) (burst * nanosPerToken), (long) (burst * NANOS_PER_SECOND / ratePerSecond));
+        this.buckets = new KeyedStates<>(
+                now -> new Bucket(now, burstNanos),
+                (b, now) -> b.isIdle(now, burstNanos));
     }
 
+    @Override
     public boolean allow(String key) {
         long now = System.nanoTime();
+        boolean allowed = buckets.get(key, now).tryConsume(now, nanosPerToken, burstNanos);
+        if (!allowed) {
+            RateLimitEvent.emit(key);
+        }
+        return allowed;
+    }
 
-        Bucket bucket = buckets.computeIfAbsent(
-                key,
-                k -> new Bucket(refillPerNano, maxTokens)
-        );
-
-        boolean allowed = bucket.allow();
+    /**
+     * Reserves {@code permits} tokens for {@code key} (e.g. bytes for
+     * bandwidth shaping) and returns the nanoseconds the caller should wait
+     * before using them; 0 if they were available.
+     */
+    public long reserve(String key, long permits) {
+        long now = System.nanoTime();
+        return buckets.get(key, now).reserve(now, cost(permits), burstNanos);
+    }
 
-        cleanupExpiredBuckets(now);
+    // Split so that permits * cost cannot overflow for the fraction
+    private long cost(long permits) {
+        long whole = permits * (fixedCostPerToken >>> FRACTION_BITS);
+        long fraction = (permits * (fixedCostPerToken & FRACTION_MASK)) >>> FRACTION_BITS;
+        return whole + fraction;
+    }
 
-        return allowed;
+    /** Number of tracked client keys. */
+    public int size() {
+        return buckets.size();
     }
 
-    private void cleanupExpiredBuckets(long now) {
-        buckets.entrySet().removeIf(entry ->
-                now - entry.getValue().lastAccessNanos > BUCKET_TTL_NANOS
-        );
+    @Override
+    public void close() {
+        buckets.close();
     }
 }
@@ -0,0 +1,62 @@
+package com.example.webserver;
+
+/**
+ * A {@link Limiter} whose rate and burst can be changed while requests
+ * are flowing. A change builds a new limiter and swaps it in, so every
+ * client starts over with a full allowance at that moment; the old one is
+ * closed. Invalid values are rejected by the factory and leave the
+ * current limiter in place.
+ */
+public class ReloadableLimiter implements Limiter, AutoCloseable {
+
+    /** Builds a limiter, e.g. {@code RateLimiter::new} or {@code RateLimitAlgorithm::create}. */
+    @FunctionalInterface
+    public interface Factory {
+        Limiter create(double ratePerSecond, double burst);
+    }
+
+    private final Factory factory;
+    private volatile Limiter delegate;
+    private double rate;
+    private double burst;
+
+    public ReloadableLimiter(Factory factory, double ratePerSecond, double burst) {
+        this.factory = factory;
+        this.delegate = factory.create(ratePerSecond, burst);
+        this.rate = ratePerSecond;
+        this.burst = burst;
+    }
+
+    @Override
+    public boolean allow(String key) {
+        return delegate.allow(key);
+    }
+
+    /** Switches to the given rate and burst; returns false if they are unchanged. */
+    public synchronized boolean update(double ratePerSecond, double burst) {
+        if (ratePerSecond == rate && burst == this.burst) return false;
+        Limiter old = delegate;
+        delegate = factory.create(ratePerSecond, burst);
+        this.rate = ratePerSecond;
+        this.burst = burst;
+        closeQuietly(old);
+        return true;
+    }
+
+    public synchronized String describe() {
+        return rate + "/s burst " + burst;
+    }
+
+    @Override
+    public void close() {
+        closeQuietly(delegate);
+    }
+
+    private static void closeQuietly(Limiter limiter) {
+        if (limiter instanceof AutoCloseable c) {
+            try {
+                c.close();
+            } catch (Exception ignored) {}
+        }
+    }
+}
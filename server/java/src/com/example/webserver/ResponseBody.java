@@ -0,0 +1,141 @@
+package com.example.webserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.example.net.BufferPool;
+
+/**
+ * A response body that is written out as it is read instead of being held
+ * in memory. The writer closes it once the response is sent.
+ */
+public interface ResponseBody extends Closeable {
+
+    /** Body length in bytes, or -1 if unknown (then the connection close ends it). */
+    long length();
+
+    /**
+     * Writes the whole body. {@code channel} is the socket's channel when
+     * there is one, for bodies that can hand the copy to the kernel; it is
+     * null otherwise. {@code out} has been flushed before this is called.
+     */
+    void writeTo(OutputStream out, WritableByteChannel channel) throws IOException;
+
+    static ResponseBody of(InputStream in, long length) {
+        return new StreamBody(in, length);
+    }
+
+    static ResponseBody of(ReadableByteChannel in, long length) {
+        return new StreamBody(Channels.newInputStream(in), length);
+    }
+
+    /** The whole file, sent with {@link FileChannel#transferTo} when possible. */
+    static ResponseBody ofFile(Path file) throws IOException {
+        FileChannel fc = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new FileRegion(fc, 0, fc.size());
+        } catch (IOException e) {
+            fc.close();
+            throw e;
+        }
+    }
+
+    /** {@code count} bytes of {@code file} from {@code position}; the body owns the channel. */
+    static ResponseBody ofRegion(FileChannel file, long position, long count) {
+        return new FileRegion(file, position, count);
+    }
+
+    final class StreamBody implements ResponseBody {
+        private final InputStream in;
+        private final long length;
+
+        StreamBody(InputStream in, long length) {
+            this.in = in;
+            this.length = length;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out, WritableByteChannel channel) throws IOException {
+            try (BufferPool.Lease lease = BufferPool.shared().acquire()) {
+                byte[] buf = lease.array();
+                long remaining = length < 0 ? Long.MAX_VALUE : length;
+                while (remaining > 0) {
+                    int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (n < 0) {
+                        if (length >= 0) throw new IOException("Body ended " + remaining + " bytes short");
+                        break;
+                    }
+                    out.write(buf, 0, n);
+                    remaining -= n;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    final class FileRegion implements ResponseBody {
+        private final FileChannel file;
+        private final long position;
+        private final long count;
+
+        FileRegion(FileChannel file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.count = count;
+        }
+
+        @Override
+        public long length() {
+            return count;
+        }
+
+        @Override
+        public void writeTo(OutputStream out, WritableByteChannel channel) throws IOException {
+            long pos = position;
+            long end = position + count;
+            if (channel != null) {
+                // Zero-copy: the kernel moves pages straight to the socket (sendfile)
+                while (pos < end) {
+                    long n = file.transferTo(pos, end - pos, channel);
+                    if (n <= 0) throw new IOException("File truncated while sending");
+                    pos += n;
+                }
+                return;
+            }
+
+            try (BufferPool.Lease lease = BufferPool.shared().acquire()) {
+                ByteBuffer buf = lease.buffer();
+                while (pos < end) {
+                    buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+                    int n = file.read(buf, pos);
+                    if (n < 0) throw new IOException("File truncated while sending");
+                    out.write(buf.array(), 0, n);
+                    pos += n;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
@@ -1,51 +1,556 @@
 package com.example.webserver;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Routes requests through a compiled radix tree over path segments.
+ *
+ * Patterns are literal segments, {@code {name}} parameters matching one
+ * segment, and a trailing {@code *} (or {@code {name*}}) matching the rest
+ * of the path. Literal segments win over parameters, which win over
+ * wildcards, with backtracking if a more specific branch dead-ends.
+ *
+ * Registration edits a mutable build tree; the first lookup after a change
+ * compiles it into an immutable tree where chains of literal segments are
+ * collapsed into one edge and each node's literal children sit in an open
+ * addressing table keyed by the hash of the next segment. Matching walks
+ * the path by index, so a route without parameters is found without
+ * allocating. Methods index a per-node array and are part of the match: a
+ * branch without a route for the request's method falls back to the less
+ * specific ones. Only when no matching path has the method does the
+ * request get 405, with an Allow header listing the methods of all of
+ * them, rather than 404.
+ *
+ * Requests pass through the global {@link Filter}s first, then, once a
+ * route matched, through that route's own filters. Both chains are
+ * composed at compile time.
+ *
+ * {@link AsyncHandler} routes return a {@link CompletionStage} and don't
+ * hold a worker thread while they wait on I/O. They can have a timeout,
+ * after which the client gets 504 and the handler's future is cancelled;
+ * it is likewise cancelled when the client disconnects first (see
+ * {@link HttpRequest#disconnect()}).
+ */
 public class Router {
     public interface Handler {
         HttpResponse handle(HttpRequest ctx) throws Exception;
     }
 
-    private final Map<String, Handler> routes = new ConcurrentHashMap<>();
+    public interface AsyncHandler {
+        CompletionStage<HttpResponse> handle(HttpRequest ctx) throws Exception;
+    }
+
+    static final String[] METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "PATCH", "OPTIONS"};
 
-    private static String key(String method, String path) {
-        String decodedPath = decodePath(path);
-        return normalizeMethod(method) + " " + normalizePath(decodedPath);
+    private static final String[] NO_PARAMS = new String[0];
 
+    // Fires async route timeouts; cancelled timers are removed right away
+    private static final ScheduledThreadPoolExecutor TIMEOUTS = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "router-timeouts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        TIMEOUTS.setRemoveOnCancelPolicy(true);
     }
-    private static String decodePath(String path) {
-        return URLDecoder.decode(path, StandardCharsets.UTF_8);
+
+    /* ===== Build tree (registration) ===== */
+
+    private static final class BuildNode {
+        final Map<String, BuildNode> literals = new LinkedHashMap<>();
+        BuildNode param;
+        BuildNode wildcard;
+        final Filter.Chain[] endpoints = new Filter.Chain[METHODS.length];
+        final String[][] paramNames = new String[METHODS.length][];
+        final List<List<Filter>> filters = new ArrayList<>(METHODS.length);
+
+        BuildNode() {
+            for (int m = 0; m < METHODS.length; m++) {
+                filters.add(new ArrayList<>());
+            }
+        }
+
+        boolean hasRoutes() {
+            for (Filter.Chain e : endpoints) {
+                if (e != null) return true;
+            }
+            return false;
+        }
     }
 
-    private static String normalizeMethod(String method) {
-    return method.toUpperCase();
-}
+    /* ===== Compiled tree (lookup) ===== */
 
-    private static String normalizePath(String path) {
-        if (path.length() > 1 && path.endsWith("/")) {
-            return path.substring(0, path.length() - 1);
+    private static final class Route {
+        final Filter.Chain chain;   // route filters, then the handler
+        final String[] paramNames;
+
+        Route(Filter.Chain chain, String[] paramNames) {
+            this.chain = chain;
+            this.paramNames = paramNames;
         }
-    return path;
     }
 
-    public void get(String path, Handler h) { routes.put(key("GET", path), h); }
-    public void post(String path, Handler h) { routes.put(key("POST", path), h); }
-    public void put(String path, Handler h) { routes.put(key("PUT", path), h); }
-    public void delete(String path, Handler h) { routes.put(key("DELETE", path), h); }
-    
+    private static final class Node {
+        // Literal edges: hash and length of the first segment, full label
+        int[] hashes;
+        int[] firstLengths;
+        String[] labels;
+        Node[] children;
+        int mask;
+
+        Node param;
+        Node wildcard;
+        Route[] routes;     // by method index, null if the path has none
+        int methods;        // bit per method index that has a route
+    }
+
+    private final BuildNode tree = new BuildNode();
+    private final List<Filter> filters = new ArrayList<>();
+    private volatile Node compiled;
+    private volatile Filter.Chain pipeline;
+    private int maxParams;
+
+    private static final ThreadLocal<int[]> CAPTURES = ThreadLocal.withInitial(() -> new int[16]);
+
+    public void get(String path, Handler h) { add("GET", path, h); }
+    public void post(String path, Handler h) { add("POST", path, h); }
+    public void put(String path, Handler h) { add("PUT", path, h); }
+    public void delete(String path, Handler h) { add("DELETE", path, h); }
+
+    public void getAsync(String path, long timeoutMillis, AsyncHandler h) { addAsync("GET", path, timeoutMillis, h); }
+    public void postAsync(String path, long timeoutMillis, AsyncHandler h) { addAsync("POST", path, timeoutMillis, h); }
+
+    public void add(String method, String path, Handler h) {
+        endpoint(method, path, req -> CompletableFuture.completedFuture(h.handle(req)));
+    }
+
+    /**
+     * Registers a handler that completes later. With {@code timeoutMillis}
+     * > 0 the request answers 504 if the handler hasn't completed by then.
+     */
+    public void addAsync(String method, String path, long timeoutMillis, AsyncHandler h) {
+        endpoint(method, path, req -> async(h, req, timeoutMillis));
+    }
+
+    private synchronized void endpoint(String method, String path, Filter.Chain endpoint) {
+        int m = requireMethod(method);
+        List<String> params = new ArrayList<>();
+        BuildNode n = insert(path, params);
+        n.endpoints[m] = endpoint;
+        n.paramNames[m] = params.isEmpty() ? NO_PARAMS : params.toArray(NO_PARAMS);
+        maxParams = Math.max(maxParams, params.size());
+        invalidate();
+    }
+
+    /** Adds a filter that runs for every request, in registration order. */
+    public synchronized void use(Filter filter) {
+        filters.add(filter);
+        invalidate();
+    }
+
+    /**
+     * Adds a filter for one route only, e.g. a {@link CacheFilter} or a
+     * tighter {@link RateLimitFilter}, so requests elsewhere don't pay for it.
+     */
+    public synchronized void use(String method, String path, Filter filter) {
+        insert(path, new ArrayList<>()).filters.get(requireMethod(method)).add(filter);
+        invalidate();
+    }
+
+    /** Runs {@code req} to completion on the calling thread. */
     public HttpResponse handle(HttpRequest req) {
         try {
-            Handler h = routes.get(key(req.method(), req.path()));
-            if (h == null) return HttpResponse.notFound();
-            return h.handle(req);
-        } catch (HttpException e) {
-            return e.response();
+            return handleAsync(req).toCompletableFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return HttpResponse.internalError("Interrupted");
+        } catch (ExecutionException e) {
+            return errorResponse(e.getCause());
+        }
+    }
+
+    /**
+     * Runs {@code req} through the filters and its route. The stage always
+     * completes normally: handler failures become 500 (or the response of
+     * an {@link HttpException}).
+     */
+    public CompletionStage<HttpResponse> handleAsync(HttpRequest req) {
+        CompletionStage<HttpResponse> stage;
+        try {
+            stage = pipeline().proceed(req);
         } catch (Exception e) {
-            e.printStackTrace(System.err);
-            return HttpResponse.internalError("Unhandled server error");
+            return CompletableFuture.completedFuture(errorResponse(e));
+        }
+
+        CompletableFuture<HttpResponse> f = stage.toCompletableFuture();
+        if (f.isDone() && !f.isCompletedExceptionally()) {
+            return f; // the common synchronous case: no extra stage
         }
-    }   
+        return f.handle((resp, t) -> t == null ? resp : errorResponse(t));
+    }
 
+    private static HttpResponse errorResponse(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (t instanceof HttpException he) {
+            return he.response();
+        }
+        if (t instanceof CancellationException) {
+            // Client went away; nobody will read this
+            return HttpResponse.gatewayTimeout("Request cancelled");
+        }
+        t.printStackTrace(System.err);
+        return HttpResponse.internalError("Unhandled server error");
+    }
+
+    /* ===== Async routes ===== */
+
+    private static CompletionStage<HttpResponse> async(AsyncHandler h, HttpRequest req, long timeoutMillis)
+            throws Exception {
+        CompletableFuture<HttpResponse> work = h.handle(req).toCompletableFuture();
+        if (work.isDone()) return work;
+
+        CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        work.whenComplete((resp, t) -> {
+            if (t != null) result.completeExceptionally(t);
+            else result.complete(resp);
+        });
+
+        ScheduledFuture<?> timer = timeoutMillis <= 0 ? null : TIMEOUTS.schedule(
+                () -> result.complete(HttpResponse.gatewayTimeout("Handler timed out")),
+                timeoutMillis, TimeUnit.MILLISECONDS);
+        req.disconnect().whenComplete((v, t) -> result.cancel(false));
+
+        result.whenComplete((resp, t) -> {
+            if (timer != null) timer.cancel(false);
+            // Timed out or client gone: stop the handler's work
+            if (!work.isDone()) work.cancel(true);
+        });
+        return result;
+    }
+
+    /* ===== Matching ===== */
+
+    private CompletionStage<HttpResponse> dispatch(HttpRequest req) throws Exception {
+        String path = req.path();
+        int end = pathEnd(path);
+        if (end < 0) return CompletableFuture.completedFuture(HttpResponse.notFound());
+
+        int m = methodIndex(req.method());
+        int[] caps = captures();
+        Node n = m < 0 ? null : find(compiled(), path, 1, end, caps, 0, m);
+        if (n == null) {
+            // No path has this method; 405 if some matching path has another one
+            int allowed = allowed(compiled(), path, 1, end);
+            return CompletableFuture.completedFuture(allowed == 0
+                    ? HttpResponse.notFound()
+                    : HttpResponse.methodNotAllowed(allowHeader(allowed)));
+        }
+
+        Route r = n.routes[m];
+        if (r.paramNames.length > 0) {
+            req = req.withPathParams(params(r.paramNames, path, caps));
+        }
+        return r.chain.proceed(req);
+    }
+
+    /** End of the matchable part of {@code path}: no query, no trailing slash; -1 if unroutable. */
+    private static int pathEnd(String path) {
+        // Paths from HttpRequest are already decoded; ignore any query
+        if (path.isEmpty() || path.charAt(0) != '/') return -1;
+        int end = path.indexOf('?');
+        if (end < 0) end = path.length();
+        if (end > 1 && path.charAt(end - 1) == '/') end--;
+        return end;
+    }
+
+    /**
+     * The most specific node matching {@code path[pos..end)} that has a
+     * route for method {@code m}. A literal or parameter branch that
+     * matches the path but not the method falls back to the less specific
+     * branches.
+     */
+    private static Node find(Node n, String path, int pos, int end, int[] caps, int depth, int m) {
+        if (pos >= end) {
+            if (n.routes != null && n.routes[m] != null) return n;
+            if (n.wildcard != null && n.wildcard.routes != null && n.wildcard.routes[m] != null) {
+                // Wildcard matching an empty remainder
+                caps[2 * depth] = end;
+                caps[2 * depth + 1] = end;
+                return n.wildcard;
+            }
+            return null;
+        }
+
+        int segEnd = path.indexOf('/', pos);
+        if (segEnd < 0 || segEnd > end) segEnd = end;
+
+        int i = literalEdge(n, path, pos, segEnd, end);
+        if (i >= 0) {
+            int next = pos + n.labels[i].length();
+            Node found = find(n.children[i], path, next == end ? end : next + 1, end, caps, depth, m);
+            if (found != null) return found;
+        }
+
+        if (n.param != null && segEnd > pos) {
+            caps[2 * depth] = pos;
+            caps[2 * depth + 1] = segEnd;
+            Node found = find(n.param, path, segEnd == end ? end : segEnd + 1, end, caps, depth + 1, m);
+            if (found != null) return found;
+        }
+
+        if (n.wildcard != null && n.wildcard.routes != null && n.wildcard.routes[m] != null) {
+            caps[2 * depth] = pos;
+            caps[2 * depth + 1] = end;
+            return n.wildcard;
+        }
+        return null;
+    }
+
+    /** Union of the methods of every node matching {@code path[pos..end)}, as a bit set over {@link #METHODS}. */
+    private static int allowed(Node n, String path, int pos, int end) {
+        if (pos >= end) {
+            return n.methods | (n.wildcard != null ? n.wildcard.methods : 0);
+        }
+        int segEnd = path.indexOf('/', pos);
+        if (segEnd < 0 || segEnd > end) segEnd = end;
+
+        int mask = 0;
+        int i = literalEdge(n, path, pos, segEnd, end);
+        if (i >= 0) {
+            int next = pos + n.labels[i].length();
+            mask |= allowed(n.children[i], path, next == end ? end : next + 1, end);
+        }
+        if (n.param != null && segEnd > pos) {
+            mask |= allowed(n.param, path, segEnd == end ? end : segEnd + 1, end);
+        }
+        if (n.wildcard != null) {
+            mask |= n.wildcard.methods;
+        }
+        return mask;
+    }
+    /**
+     * Slot of the literal edge of {@code n} whose whole label matches the
+     * path from {@code pos}, or -1.
+     */
+    private static int literalEdge(Node n, String path, int pos, int segEnd, int end) {
+        if (n.children == null) return -1;
+        int segLen = segEnd - pos;
+        int h = hash(path, pos, segEnd);
+        for (int i = spread(h) & n.mask; n.children[i] != null; i = (i + 1) & n.mask) {
+            if (n.hashes[i] != h || n.firstLengths[i] != segLen
+                    || !path.regionMatches(pos, n.labels[i], 0, segLen)) {
+                continue;
+            }
+            // First segments are unique among siblings: this is the only candidate
+            String label = n.labels[i];
+            int next = pos + label.length();
+            boolean whole = next <= end
+                    && path.regionMatches(pos + segLen, label, segLen, label.length() - segLen)
+                    && (next == end || path.charAt(next) == '/');
+            return whole ? i : -1;
+        }
+        return -1;
+    }
+
+    private static String allowHeader(int methods) {
+        StringBuilder allow = new StringBuilder();
+        for (int m = 0; m < METHODS.length; m++) {
+            if ((methods & (1 << m)) == 0) continue;
+            if (allow.length() > 0) allow.append(", ");
+            allow.append(METHODS[m]);
+        }
+        return allow.toString();
+    }
+
+    private static Map<String, String> params(String[] names, String path, int[] caps) {
+        Map<String, String> out = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            out.put(names[i], path.substring(caps[2 * i], caps[2 * i + 1]));
+        }
+        return out;
+    }
+
+    private int[] captures() {
+        int[] caps = CAPTURES.get();
+        int needed = 2 * (maxParams + 1);
+        if (caps.length < needed) {
+            caps = new int[needed];
+            CAPTURES.set(caps);
+        }
+        return caps;
+    }
+
+    private static int methodIndex(String method) {
+        switch (method) {
+            case "GET": return 0;
+            case "HEAD": return 1;
+            case "POST": return 2;
+            case "PUT": return 3;
+            case "DELETE": return 4;
+            case "PATCH": return 5;
+            case "OPTIONS": return 6;
+            default:
+                for (int i = 0; i < METHODS.length; i++) {
+                    if (METHODS[i].equalsIgnoreCase(method)) return i;
+                }
+                return -1;
+        }
+    }
+
+    private static int requireMethod(String method) {
+        int m = methodIndex(method);
+        if (m < 0) throw new IllegalArgumentException("Unsupported method: " + method);
+        return m;
+    }
+
+    private static int hash(String s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /* ===== Building ===== */
+
+    private BuildNode insert(String pattern, List<String> params) {
+        BuildNode n = tree;
+        String[] segments = segments(pattern);
+        for (int i = 0; i < segments.length; i++) {
+            String seg = segments[i];
+            if (seg.equals("*") || (seg.startsWith("{") && seg.endsWith("*}"))) {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("Wildcard must be the last segment: " + pattern);
+                }
+                params.add(seg.equals("*") ? "*" : seg.substring(1, seg.length() - 2));
+                if (n.wildcard == null) n.wildcard = new BuildNode();
+                n = n.wildcard;
+            } else if (seg.startsWith("{") && seg.endsWith("}")) {
+                params.add(seg.substring(1, seg.length() - 1));
+                if (n.param == null) n.param = new BuildNode();
+                n = n.param;
+            } else {
+                n = n.literals.computeIfAbsent(seg, k -> new BuildNode());
+            }
+        }
+        return n;
+    }
+
+    private static String[] segments(String pattern) {
+        String p = pattern.startsWith("/") ? pattern.substring(1) : pattern;
+        if (p.endsWith("/")) p = p.substring(0, p.length() - 1);
+        return p.isEmpty() ? NO_PARAMS : p.split("/", -1);
+    }
+
+    private synchronized void invalidate() {
+        compiled = null;
+        pipeline = null;
+    }
+
+    private Node compiled() {
+        Node root = compiled;
+        if (root == null) {
+            synchronized (this) {
+                root = compiled;
+                if (root == null) {
+                    root = compile(tree);
+                    compiled = root;
+                }
+            }
+        }
+        return root;
+    }
+
+    private Filter.Chain pipeline() {
+        Filter.Chain p = pipeline;
+        if (p == null) {
+            synchronized (this) {
+                p = pipeline;
+                if (p == null) {
+                    compiled();
+                    p = chain(filters, this::dispatch);
+                    pipeline = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    /** Folds {@code filters} around {@code last}, first filter outermost. */
+    private static Filter.Chain chain(List<Filter> filters, Filter.Chain last) {
+        Filter.Chain next = last;
+        for (int i = filters.size() - 1; i >= 0; i--) {
+            Filter f = filters.get(i);
+            Filter.Chain rest = next;
+            next = req -> f.filter(req, rest);
+        }
+        return next;
+    }
+
+    private static Node compile(BuildNode b) {
+        Node n = new Node();
+        n.param = b.param == null ? null : compile(b.param);
+        n.wildcard = b.wildcard == null ? null : compile(b.wildcard);
+
+        if (b.hasRoutes()) {
+            n.routes = new Route[METHODS.length];
+            for (int m = 0; m < METHODS.length; m++) {
+                if (b.endpoints[m] == null) continue;
+                n.routes[m] = new Route(chain(List.copyOf(b.filters.get(m)), b.endpoints[m]), b.paramNames[m]);
+                n.methods |= 1 << m;
+            }
+        }
+
+        int count = b.literals.size();
+        if (count > 0) {
+            int size = Integer.highestOneBit(count * 2 - 1) << 1;
+            n.mask = size - 1;
+            n.hashes = new int[size];
+            n.firstLengths = new int[size];
+            n.labels = new String[size];
+            n.children = new Node[size];
+
+            for (Map.Entry<String, BuildNode> e : b.literals.entrySet()) {
+                String first = e.getKey();
+                StringBuilder label = new StringBuilder(first);
+                BuildNode child = e.getValue();
+                // Collapse literal-only chains into a single edge
+                while (child.literals.size() == 1 && child.param == null
+                        && child.wildcard == null && !child.hasRoutes()) {
+                    Map.Entry<String, BuildNode> only = child.literals.entrySet().iterator().next();
+                    label.append('/').append(only.getKey());
+                    child = only.getValue();
+                }
+
+                int h = hash(first, 0, first.length());
+                int i = spread(h) & n.mask;
+                while (n.children[i] != null) i = (i + 1) & n.mask;
+                n.hashes[i] = h;
+                n.firstLengths[i] = first.length();
+                n.labels[i] = label.toString();
+                n.children[i] = compile(child);
+            }
+        }
+        return n;
+    }
 }
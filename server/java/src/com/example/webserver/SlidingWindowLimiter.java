@@ -0,0 +1,125 @@
+package com.example.webserver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sliding-window limiters: at most {@code limit} requests per key in any
+ * window of {@code windowMillis}.
+ *
+ * LOG keeps the timestamps of the last {@code limit} admitted requests in a
+ * ring per key and is exact, at {@code limit} longs per key. COUNTER keeps
+ * only the current and previous fixed-window counts and weights the
+ * previous one by how much of it still overlaps the sliding window: O(1)
+ * memory and a close approximation that smooths the edge bursts of plain
+ * fixed windows.
+ */
+public class SlidingWindowLimiter implements Limiter, AutoCloseable {
+
+    public enum Mode { LOG, COUNTER }
+
+    private static final class Log {
+        final long[] admitted;   // ring of admission times, oldest at head
+        int head;
+        long lastNanos;
+
+        Log(int limit, long now, long windowNanos) {
+            admitted = new long[limit];
+            // Empty window: pretend every slot aged out long ago
+            java.util.Arrays.fill(admitted, now - windowNanos - 1);
+            lastNanos = now;
+        }
+    }
+
+    private static final class Counter {
+        long windowStart;
+        long current;
+        long previous;
+
+        Counter(long now) {
+            windowStart = now;
+        }
+    }
+
+    private final Mode mode;
+    private final int limit;
+    private final long windowNanos;
+    private final KeyedStates<Object> states;
+
+    public SlidingWindowLimiter(Mode mode, int limit, long windowMillis) {
+        if (limit < 1 || windowMillis <= 0) {
+            throw new IllegalArgumentException("limit must be >= 1 and window > 0");
+        }
+        this.mode = mode;
+        this.limit = limit;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        long idleAfter = windowNanos * 2;
+        this.states = mode == Mode.LOG
+                ? new KeyedStates<>(now -> new Log(limit, now, windowNanos),
+                        (s, now) -> now - lastSeen(s) > idleAfter)
+                : new KeyedStates<>(Counter::new,
+                        (s, now) -> now - lastSeen(s) > idleAfter);
+    }
+
+    @Override
+    public boolean allow(String key) {
+        long now = System.nanoTime();
+        Object state = states.get(key, now);
+        boolean allowed = mode == Mode.LOG
+                ? allowLog((Log) state, now)
+                : allowCounter((Counter) state, now);
+        if (!allowed) {
+            RateLimitEvent.emit(key);
+        }
+        return allowed;
+    }
+
+    private boolean allowLog(Log log, long now) {
+        synchronized (log) {
+            log.lastNanos = now;
+            // The oldest of the last `limit` admissions must have left the window
+            if (now - log.admitted[log.head] <= windowNanos) {
+                return false;
+            }
+            log.admitted[log.head] = now;
+            log.head = (log.head + 1) % log.admitted.length;
+            return true;
+        }
+    }
+
+    private boolean allowCounter(Counter c, long now) {
+        synchronized (c) {
+            long elapsed = now - c.windowStart;
+            if (elapsed >= windowNanos) {
+                long windows = elapsed / windowNanos;
+                c.previous = windows == 1 ? c.current : 0;
+                c.current = 0;
+                c.windowStart += windows * windowNanos;
+                elapsed -= windows * windowNanos;
+            }
+
+            double overlap = 1.0 - (double) elapsed / windowNanos;
+            if (c.previous * overlap + c.current >= limit) {
+                return false;
+            }
+            c.current++;
+            return true;
+        }
+    }
+
+    private static long lastSeen(Object state) {
+        if (state instanceof Log log) {
+            synchronized (log) {
+                return log.lastNanos;
+            }
+        }
+        Counter c = (Counter) state;
+        synchronized (c) {
+            return c.windowStart;
+        }
+    }
+
+    @Override
+    public void close() {
+        states.close();
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.webserver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves files under a root directory for a wildcard route, e.g.
+ * {@code router.get("/static/*", new StaticFileHandler(root))}.
+ *
+ * Bodies are streamed with {@link ResponseBody#ofFile}, so the socket gets
+ * them through {@code FileChannel.transferTo} and memory stays flat
+ * regardless of file size. Responses carry {@code Last-Modified} and an
+ * {@code ETag} built from size and modification time, and conditional
+ * requests ({@code If-None-Match}, then {@code If-Modified-Since}) are
+ * answered with 304.
+ */
+public class StaticFileHandler implements Router.Handler {
+
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.RFC_1123_DATE_TIME.withLocale(Locale.US);
+
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"),
+            Map.entry("htm", "text/html; charset=utf-8"),
+            Map.entry("css", "text/css; charset=utf-8"),
+            Map.entry("js", "text/javascript; charset=utf-8"),
+            Map.entry("json", "application/json; charset=utf-8"),
+            Map.entry("txt", "text/plain; charset=utf-8"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("pdf", "application/pdf"),
+            Map.entry("wasm", "application/wasm")
+    );
+
+    private final Path root;
+
+    public StaticFileHandler(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest req) throws Exception {
+        String rel = req.pathParam("*");
+        Path file = resolve(rel == null ? "" : rel);
+        if (file == null) return HttpResponse.notFound();
+
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return HttpResponse.notFound();
+        }
+        if (!attrs.isRegularFile()) return HttpResponse.notFound();
+
+        // HTTP dates have second precision; compare on that
+        long modifiedSeconds = attrs.lastModifiedTime().toMillis() / 1000;
+        String etag = "\"" + Long.toHexString(attrs.size()) + "-" + Long.toHexString(modifiedSeconds) + "\"";
+        String lastModified = HTTP_DATE.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(modifiedSeconds), ZoneOffset.UTC));
+
+        if (notModified(req, etag, modifiedSeconds)) {
+            HttpResponse r = HttpResponse.notModified();
+            r.headers().put("ETag", etag);
+            r.headers().put("Last-Modified", lastModified);
+            return r;
+        }
+
+        HttpResponse r = new HttpResponse(200, "OK");
+        r.headers().put("Content-Type", contentType(file));
+        r.headers().put("ETag", etag);
+        r.headers().put("Last-Modified", lastModified);
+        try {
+            r.body(ResponseBody.ofFile(file));
+        } catch (NoSuchFileException e) {
+            return HttpResponse.notFound();
+        }
+        return r;
+    }
+
+    /**
+     * Maps the wildcard remainder into the root, refusing anything that
+     * escapes it. Returns the real path, so symlinks that stay inside the
+     * root are served as their target.
+     */
+    private Path resolve(String rel) {
+        if (rel.indexOf('\0') >= 0) return null;
+        Path p = root.resolve(rel.startsWith("/") ? rel.substring(1) : rel).normalize();
+        if (!p.startsWith(root)) return null;
+        try {
+            if (Files.isDirectory(p)) p = p.resolve("index.html");
+            // Don't follow symlinks out of the root
+            Path real = p.toRealPath();
+            return real.startsWith(root.toRealPath()) ? real : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean notModified(HttpRequest req, String etag, long modifiedSeconds) {
+        String ifNoneMatch = req.header("If-None-Match");
+        if (ifNoneMatch != null) {
+            // If-None-Match takes precedence over If-Modified-Since
+            for (String tag : ifNoneMatch.split(",")) {
+                String t = tag.trim();
+                if (t.startsWith("W/")) t = t.substring(2);
+                if (t.equals("*") || t.equals(etag)) return true;
+            }
+            return false;
+        }
+
+        String ifModifiedSince = req.header("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, HTTP_DATE).toEpochSecond();
+                return modifiedSeconds <= since;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String ext = dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        return CONTENT_TYPES.getOrDefault(ext, "application/octet-stream");
+    }
+}